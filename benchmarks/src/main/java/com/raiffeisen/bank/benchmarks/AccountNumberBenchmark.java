@@ -0,0 +1,65 @@
+package com.raiffeisen.bank.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.raiffeisen.bank.services.AccountNumbers;
+import com.raiffeisen.bank.services.SequenceAccountNumberAllocator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Account number generation and validation. allocate() reserves a new block from the repository stub every
+ * thousand calls, the contended variant shows what the allocator's lock costs under concurrent opens.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AccountNumberBenchmark {
+
+    private SequenceAccountNumberAllocator allocator;
+    private String accountNumber;
+    private long serial;
+
+    @Setup
+    public void setUp() {
+        allocator = new SequenceAccountNumberAllocator(InMemoryAccountRepository.create(),
+                new SimpleMeterRegistry());
+        accountNumber = AccountNumbers.format(123_456_789L);
+    }
+
+    @Benchmark
+    public String format() {
+        return AccountNumbers.format(++serial % AccountNumbers.MAX_SERIAL);
+    }
+
+    @Benchmark
+    public boolean isWellFormed() {
+        return AccountNumbers.isWellFormed(accountNumber, true);
+    }
+
+    @Benchmark
+    public String allocate() {
+        return allocator.allocate();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String allocateContended() {
+        return allocator.allocate();
+    }
+}
@@ -0,0 +1,92 @@
+package com.raiffeisen.bank.benchmarks;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.AccountPageDTO;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.AccountView;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.services.AccountService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The CPU side of AccountService's read paths: DTO mapping and building a page of query results. The
+ * repository is {@link InMemoryAccountRepository}, which hands back rows that are already filtered, so the
+ * numbers leave out the database and measure only what the service does around it: the cursor, mapping
+ * and cutting the page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AccountServiceBenchmark {
+
+    private static final int ACCOUNTS = 100_000;
+    private static final int PAGE_SIZE = 100;
+
+    private AccountRepository accountRepository;
+    private AccountService accountService;
+    private Account account;
+    private QueryAccountsRequest page;
+
+    @Setup
+    public void setUp() {
+        List<Account> accounts = Fixtures.accounts(ACCOUNTS);
+        accountRepository = InMemoryAccountRepository.create();
+        // everything else is only used by the write paths
+        accountService = new AccountService(accountRepository, null, null, null, Fixtures.noJournal(), null, null,
+                null, null, null, Fixtures.singleShard(), new SimpleMeterRegistry(), true);
+        account = accounts.get(ACCOUNTS / 2);
+
+        // keyset cursor of a page 90% of the way through the table, same encoding as AccountService uses
+        long afterId = ACCOUNTS * 9L / 10;
+        page = QueryAccountsRequest.builder()
+                .balanceLB(new BigDecimal("1000.00"))
+                .balanceUB(new BigDecimal("5000.00"))
+                .limit(PAGE_SIZE)
+                .cursor(Base64.getUrlEncoder().withoutPadding()
+                        .encodeToString(Long.toString(afterId).getBytes(StandardCharsets.US_ASCII)))
+                .build();
+        // what the database returns for it: the matching rows after the cursor, one past the page
+        long balanceLB = Money.toMinorUnits(page.getBalanceLB());
+        long balanceUB = Money.toMinorUnits(page.getBalanceUB());
+        InMemoryAccountRepository.setRows(accountRepository, accounts.stream()
+                .filter(a -> a.getId() > afterId && a.getStatus() != AccountStatus.CLOSED
+                        && a.getBalance() >= balanceLB && a.getBalance() < balanceUB)
+                .limit(PAGE_SIZE + 1)
+                .map(AccountView::of)
+                .toList());
+    }
+
+    @Benchmark
+    public AccountDTO mapToDTO() {
+        return accountService.mapToDTO(account);
+    }
+
+    @Benchmark
+    public AccountPageDTO queryPage() {
+        return accountService.queryAccountDTOs(page);
+    }
+}
@@ -0,0 +1,34 @@
+package com.raiffeisen.bank.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.raiffeisen.bank.DTO.ClientDTO;
+import com.raiffeisen.bank.models.Client;
+import com.raiffeisen.bank.services.ClientService;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ClientServiceBenchmark {
+
+    private final ClientService clientService = new ClientService(null, null);
+    private final Client client = Fixtures.client(1);
+
+    @Benchmark
+    public ClientDTO mapToDTO() {
+        return clientService.mapToDTO(client);
+    }
+}
@@ -0,0 +1,91 @@
+package com.raiffeisen.bank.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares two JMH result files written with {@code -rf json} and prints the change of every benchmark's
+ * score and, when run with {@code -prof gc}, of its allocation per operation. Exits with status 1 if any
+ * score got worse by more than the threshold (default 10%), so it can gate a build.
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.raiffeisen.bank.benchmarks.CompareResults base.json new.json [threshold%]
+ * </pre>
+ */
+public final class CompareResults {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    private record Result(String mode, double score, double scoreError, Double bytesPerOp) {
+    }
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CompareResults <base.json> <new.json> [threshold%]");
+            System.exit(2);
+        }
+        Map<String, Result> base = read(new File(args[0]));
+        Map<String, Result> current = read(new File(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+        int regressions = 0;
+        System.out.printf("%-70s %14s %14s %9s %12s%n", "benchmark", "base", "new", "change", "B/op change");
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result before = base.get(entry.getKey());
+            Result after = entry.getValue();
+            if (before == null) {
+                System.out.printf("%-70s %14s %14.3f %9s%n", entry.getKey(), "-", after.score(), "new");
+                continue;
+            }
+            double change = (after.score() - before.score()) / before.score() * 100;
+            // throughput modes are better when higher, the time modes when lower
+            double worse = "thrpt".equals(after.mode()) ? -change : change;
+            // a change inside both runs' error margins is noise, not a regression
+            boolean significant = Math.abs(after.score() - before.score()) > before.scoreError() + after.scoreError();
+            boolean regressed = significant && worse > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%% %12s%s%n", entry.getKey(), before.score(),
+                    after.score(), change, allocationChange(before, after), regressed ? "  REGRESSION" : "");
+        }
+        System.out.printf("%d regression(s) above %.1f%%%n", regressions, threshold);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    private static String allocationChange(Result before, Result after) {
+        if (before.bytesPerOp() == null || after.bytesPerOp() == null) {
+            return "-";
+        }
+        return String.format("%+.0f", after.bytesPerOp() - before.bytesPerOp());
+    }
+
+    // keyed by benchmark name plus its @Param values, e.g. SerializationBenchmark.writeAccounts:size=100
+    private static Map<String, Result> read(File file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText()
+                    .replace("com.raiffeisen.bank.benchmarks.", ""));
+            Iterator<Map.Entry<String, JsonNode>> params = run.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(':').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            JsonNode primary = run.path("primaryMetric");
+            JsonNode allocation = run.path("secondaryMetrics").path(ALLOCATION);
+            results.put(key.toString(), new Result(run.path("mode").asText(), primary.path("score").asDouble(),
+                    primary.path("scoreError").asDouble(0),
+                    allocation.isMissingNode() ? null : allocation.path("score").asDouble()));
+        }
+        return results;
+    }
+}
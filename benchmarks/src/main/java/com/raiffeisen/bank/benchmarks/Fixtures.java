@@ -0,0 +1,66 @@
+package com.raiffeisen.bank.benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.Client;
+import com.raiffeisen.bank.routing.ShardTransactions;
+import com.raiffeisen.bank.routing.Shards;
+import com.raiffeisen.bank.services.AccountNumbers;
+import com.raiffeisen.bank.services.BalanceJournal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+final class Fixtures {
+
+    static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 10, 12, 0, 0);
+
+    private Fixtures() {
+    }
+
+    // no transactions outside of Spring, so reads run as they are
+    static Shards singleShard() {
+        return new Shards(new ShardTransactions(), List.of(), 1);
+    }
+
+    // disabled, reads pass straight through
+    static BalanceJournal noJournal() {
+        return new BalanceJournal(null, null, null, new SimpleMeterRegistry(), false, null, 0, "benchmark", 0, 0);
+    }
+
+    static Client client(long id) {
+        return Client.builder()
+                .id(id)
+                .firstName("Valery")
+                .lastName("Zhmyshenko")
+                .email("valzhmysh@mail.ru")
+                .build();
+    }
+
+    // ids 1..count, 100 clients, one in ten accounts closed, balances up to 10 000.00; seeded, so every run
+    // and every commit benchmarks the same data
+    static List<Account> accounts(int count) {
+        SplittableRandom random = new SplittableRandom(42);
+        List<Client> clients = new ArrayList<>();
+        for (long i = 1; i <= 100; i++) {
+            clients.add(client(i));
+        }
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            accounts.add(Account.builder()
+                    .id((long) i)
+                    .client(clients.get(random.nextInt(clients.size())))
+                    .accountNumber(AccountNumbers.format(i))
+                    .balance(random.nextLong(1_000_000))
+                    .status(random.nextInt(10) == 0 ? AccountStatus.CLOSED : AccountStatus.ACTIVE)
+                    .createdAt(NOW.minusMinutes(random.nextInt(525_600)))
+                    .updatedAt(NOW.minusMinutes(random.nextInt(1440)))
+                    .build());
+        }
+        return accounts;
+    }
+}
@@ -0,0 +1,48 @@
+package com.raiffeisen.bank.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.raiffeisen.bank.models.AccountView;
+import com.raiffeisen.bank.repositories.AccountRepository;
+
+/**
+ * AccountRepository stub for the few methods the benchmarked code calls. The Specification passed to
+ * findViewsOrderedById is the database's work and is not evaluated: the stub returns the rows set with
+ * {@link #setRows}, already filtered, so a query benchmark times only what the service does with them.
+ */
+final class InMemoryAccountRepository implements InvocationHandler {
+
+    private final AtomicLong accountNumberSequence = new AtomicLong(1);
+    private List<AccountView> rows = List.of();
+
+    private InMemoryAccountRepository() {
+    }
+
+    static AccountRepository create() {
+        return (AccountRepository) Proxy.newProxyInstance(AccountRepository.class.getClassLoader(),
+                new Class<?>[] { AccountRepository.class }, new InMemoryAccountRepository());
+    }
+
+    static void setRows(AccountRepository repository, List<AccountView> rows) {
+        ((InMemoryAccountRepository) Proxy.getInvocationHandler(repository)).rows = rows;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            // at most limit rows, as the LIMIT in the query returns
+            case "findViewsOrderedById" -> rows.subList(0, Math.min(rows.size(), (int) args[1]));
+            case "sumBalanceSlots" -> 0L;
+            // a block of 1000 serials, as account_number_seq hands out
+            case "reserveAccountNumberBlock" -> accountNumberSequence.getAndAdd(1000);
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> "InMemoryAccountRepository";
+            default -> throw new UnsupportedOperationException(method.getName());
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package com.raiffeisen.bank.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.raiffeisen.bank.models.Money;
+
+/**
+ * Folding a batch of balance deltas the way AccountBalanceBatchWriter does, with the boxed Double balances
+ * the service used before minor units, with long minor units, and with BigDecimal for comparison. Run with
+ * {@code -prof gc} to see the allocation each one costs per batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MoneyBenchmark {
+
+    private static final int DELTAS = 64; // bank.balance-combiner.max-batch
+
+    private Double[] boxedDeltas;
+    private long[] minorUnitDeltas;
+    private BigDecimal[] decimalDeltas;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        boxedDeltas = new Double[DELTAS];
+        minorUnitDeltas = new long[DELTAS];
+        decimalDeltas = new BigDecimal[DELTAS];
+        for (int i = 0; i < DELTAS; i++) {
+            long delta = random.nextLong(-10_000, 100_000);
+            minorUnitDeltas[i] = delta;
+            boxedDeltas[i] = delta / 100.0;
+            decimalDeltas[i] = Money.toBigDecimal(delta);
+        }
+    }
+
+    @Benchmark
+    public Double foldBoxedDouble() {
+        Double balance = 0.0;
+        for (Double delta : boxedDeltas) {
+            if (balance + delta >= 0) {
+                balance += delta;
+            }
+        }
+        return balance;
+    }
+
+    @Benchmark
+    public long foldMinorUnits() {
+        long balance = 0;
+        for (long delta : minorUnitDeltas) {
+            long next = Money.add(balance, delta);
+            if (next >= 0) {
+                balance = next;
+            }
+        }
+        return balance;
+    }
+
+    @Benchmark
+    public BigDecimal foldBigDecimal() {
+        BigDecimal balance = BigDecimal.ZERO;
+        for (BigDecimal delta : decimalDeltas) {
+            BigDecimal next = balance.add(delta);
+            if (next.signum() >= 0) {
+                balance = next;
+            }
+        }
+        return balance;
+    }
+}
@@ -0,0 +1,55 @@
+package com.raiffeisen.bank.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.services.AccountService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Jackson serialization of account lists the size of a query page, the part of a GET /accounts/query
+ * response that grows with the page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializationBenchmark {
+
+    @Param({ "100", "1000" })
+    private int size;
+
+    // the modules Spring Boot's ObjectMapper registers, JavaTimeModule among them
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private List<AccountDTO> accounts;
+
+    @Setup
+    public void setUp() {
+        AccountService accountService = new AccountService(InMemoryAccountRepository.create(),
+                null, null, null, null, null, null, null, null, null, null, new SimpleMeterRegistry(), true);
+        accounts = Fixtures.accounts(size).stream().map(accountService::mapToDTO).toList();
+    }
+
+    @Benchmark
+    public byte[] writeAccounts() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(accounts);
+    }
+}
@@ -0,0 +1,54 @@
+-- Plans, buffer counts and timings of the reads behind the account endpoints, plus the size of every accounts
+-- heap and index. Run it on the same seeded data before and after a schema change and compare the
+-- "Buffers" and "Execution Time" lines. Each query runs twice, the second run is the one with a warm cache.
+--
+--   psql -f load-test/sql/explain-account-reads.sql <db>
+\set ON_ERROR_STOP on
+
+-- the same account and client on every run, whatever the schema
+SELECT id AS account_id, account_number, client_id
+FROM accounts
+WHERE status = 'ACTIVE'
+ORDER BY account_number
+OFFSET (SELECT count(*) / 2 FROM accounts WHERE status = 'ACTIVE')
+LIMIT 1 \gset
+
+\set by_id 'SELECT id, client_id, account_number, balance, balance_slots, status, created_at, updated_at FROM accounts WHERE id = ' :account_id ' AND status = ''ACTIVE'''
+\set by_number 'SELECT id, client_id, account_number, balance, balance_slots, status, created_at, updated_at FROM accounts WHERE account_number = ''' :account_number ''' AND status = ''ACTIVE'''
+\set recent 'SELECT id, client_id, account_number, balance, balance_slots, status, created_at, updated_at FROM accounts WHERE client_id = ' :client_id ' AND status = ''ACTIVE'' ORDER BY updated_at DESC LIMIT 5'
+\set query_page 'SELECT id, client_id, account_number, balance, balance_slots, status, created_at, updated_at FROM accounts WHERE status = ''ACTIVE'' AND id > ' :account_id ' ORDER BY id LIMIT 101'
+\set query_client 'SELECT id, client_id, account_number, balance, balance_slots, status, created_at, updated_at FROM accounts WHERE status = ''ACTIVE'' AND client_id = ' :client_id ' ORDER BY id LIMIT 101'
+\set query_updated 'SELECT id, client_id, account_number, balance, balance_slots, status, created_at, updated_at FROM accounts WHERE status = ''ACTIVE'' AND updated_at > LOCALTIMESTAMP - interval ''1 day'' ORDER BY id LIMIT 101'
+\set deposit 'UPDATE accounts SET balance = balance + 100, updated_at = LOCALTIMESTAMP WHERE account_number = ''' :account_number ''' AND status = ''ACTIVE'' AND balance + 100 >= 0 RETURNING *'
+
+\echo '== by id'
+EXPLAIN (ANALYZE, BUFFERS) :by_id;
+EXPLAIN (ANALYZE, BUFFERS) :by_id;
+\echo '== by number'
+EXPLAIN (ANALYZE, BUFFERS) :by_number;
+EXPLAIN (ANALYZE, BUFFERS) :by_number;
+\echo '== recent'
+EXPLAIN (ANALYZE, BUFFERS) :recent;
+EXPLAIN (ANALYZE, BUFFERS) :recent;
+\echo '== query, next page'
+EXPLAIN (ANALYZE, BUFFERS) :query_page;
+EXPLAIN (ANALYZE, BUFFERS) :query_page;
+\echo '== query by client'
+EXPLAIN (ANALYZE, BUFFERS) :query_client;
+EXPLAIN (ANALYZE, BUFFERS) :query_client;
+\echo '== query by updated_at'
+EXPLAIN (ANALYZE, BUFFERS) :query_updated;
+EXPLAIN (ANALYZE, BUFFERS) :query_updated;
+\echo '== deposit (rolled back)'
+BEGIN;
+EXPLAIN (ANALYZE, BUFFERS) :deposit;
+EXPLAIN (ANALYZE, BUFFERS) :deposit;
+ROLLBACK;
+
+\echo '== sizes'
+SELECT c.relname, CASE c.relkind WHEN 'i' THEN 'index' ELSE 'table' END AS kind,
+       pg_size_pretty(pg_relation_size(c.oid)) AS size
+FROM pg_class c
+JOIN pg_namespace n ON n.oid = c.relnamespace
+WHERE n.nspname = current_schema() AND c.relname LIKE 'accounts%' AND c.relkind IN ('r', 'i')
+ORDER BY c.relkind DESC, c.relname;
@@ -0,0 +1,28 @@
+-- Seeds clients with a mix of active and closed accounts straight into the database, for measuring the
+-- account reads with explain-account-reads.sql. Accounts get unique, but not check-digit valid, numbers.
+--
+--   psql -v clients=10000 -v accounts_per_client=50 -v closed_percent=80 -f load-test/sql/seed-accounts.sql <db>
+\set ON_ERROR_STOP on
+\if :{?clients} \else \set clients 10000 \endif
+\if :{?accounts_per_client} \else \set accounts_per_client 50 \endif
+\if :{?closed_percent} \else \set closed_percent 80 \endif
+
+SELECT setseed(0.42);
+
+INSERT INTO clients (first_name, last_name, email)
+SELECT 'Seeded', 'Client ' || i, 'seeded' || i || '@example.com'
+FROM generate_series(1, :clients) AS i;
+
+INSERT INTO accounts (client_id, account_number, balance, status, created_at, updated_at)
+SELECT c.id,
+       lpad(nextval('account_number_seq')::text, 18, '0') || '00',
+       (random() * 1000000)::bigint,
+       CASE WHEN random() * 100 < :closed_percent THEN 'CLOSED' ELSE 'ACTIVE' END,
+       LOCALTIMESTAMP - random() * interval '365 days',
+       LOCALTIMESTAMP - random() * interval '30 days'
+FROM clients c
+CROSS JOIN generate_series(1, :accounts_per_client)
+WHERE c.email LIKE 'seeded%@example.com';
+
+ANALYZE clients;
+ANALYZE accounts;
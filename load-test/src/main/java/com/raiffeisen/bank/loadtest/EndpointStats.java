@@ -0,0 +1,40 @@
+package com.raiffeisen.bank.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Outcomes of one operation. {@link #latency} is measured from the time the request was scheduled to be
+ * sent, so time spent queued behind a stalled app or an overloaded generator counts against it
+ * (coordinated omission correction); {@link #serviceTime} is measured from when it was actually sent.
+ */
+final class EndpointStats {
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+    final Histogram serviceTime = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+    final LongAdder succeeded = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder failed = new LongAdder();
+
+    void record(long scheduledAt, long sentAt, long completedAt, int statusCode) {
+        latency.recordValue(Math.min(completedAt - scheduledAt, HIGHEST_TRACKABLE_NANOS));
+        serviceTime.recordValue(Math.min(completedAt - sentAt, HIGHEST_TRACKABLE_NANOS));
+        switch (statusCode / 100) {
+            case 2 -> succeeded.increment();
+            // 404/409/422 are business outcomes like insufficient funds, not failures of the app
+            case 4 -> rejected.increment();
+            default -> failed.increment();
+        }
+    }
+
+    // timeouts and connection errors, never got a response
+    void recordFailure(long scheduledAt, long completedAt) {
+        latency.recordValue(Math.min(completedAt - scheduledAt, HIGHEST_TRACKABLE_NANOS));
+        failed.increment();
+    }
+}
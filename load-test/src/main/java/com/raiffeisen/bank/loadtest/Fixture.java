@@ -0,0 +1,18 @@
+package com.raiffeisen.bank.loadtest;
+
+import java.util.List;
+
+/**
+ * The clients and accounts requests are aimed at, index i of the account lists is one account. Transfers go
+ * between the first {@code hotAccounts} accounts only, so they contend for the same rows.
+ */
+record Fixture(List<Long> clientIds, List<Long> accountIds, List<String> accountNumbers, int hotAccounts) {
+
+    Fixture(List<Long> clientIds, List<Long> accountIds, List<String> accountNumbers) {
+        this(clientIds, accountIds, accountNumbers, accountNumbers.size());
+    }
+
+    Fixture withHotAccounts(int count) {
+        return new Fixture(clientIds, accountIds, accountNumbers, Math.min(count, accountNumbers.size()));
+    }
+}
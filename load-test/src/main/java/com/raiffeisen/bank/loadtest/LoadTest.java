@@ -0,0 +1,102 @@
+package com.raiffeisen.bank.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Seeds the app at {@code --url} with clients and accounts, then drives a mix of account operations at a
+ * fixed rate and prints per-operation throughput and latency percentiles. See {@link LoadTestOptions}.
+ */
+public final class LoadTest {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        Seeder seeder = new Seeder(httpClient, options.url());
+        long seedStart = System.nanoTime();
+        Fixture fixture = options.seed()
+                ? seeder.seed(options.clients(), options.accountsPerClient())
+                : seeder.discover();
+        if (fixture.accountIds().size() < 2) {
+            throw new IllegalStateException("Need at least two accounts to run against");
+        }
+        fixture = fixture.withHotAccounts(options.hotAccounts());
+        System.out.printf("%s %d clients, %d accounts in %d ms%n", options.seed() ? "Seeded" : "Found",
+                fixture.clientIds().size(), fixture.accountIds().size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - seedStart));
+
+        System.out.printf("Running %d req/s for %ds after a %ds warmup%n", options.rate(),
+                options.duration().toSeconds(), options.warmup().toSeconds());
+        OpenLoopRunner runner = new OpenLoopRunner(httpClient, options, fixture);
+        Map<Operation, EndpointStats> stats = runner.run();
+
+        report(stats, options.duration(), System.out);
+        System.out.printf("max send lag %.1f ms%n", runner.maxSendLagNanos() / NANOS_PER_MILLI);
+        if (options.histograms() != null) {
+            writeHistograms(stats, options);
+        }
+    }
+
+    private static void report(Map<Operation, EndpointStats> stats, Duration duration, PrintStream out) {
+        out.printf("%n%-21s %8s %8s %8s %8s %9s %9s %9s %9s %9s %9s %11s%n", "operation", "count", "ok", "4xx",
+                "failed", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms");
+        Histogram allLatency = new Histogram(3);
+        Histogram allServiceTime = new Histogram(3);
+        long ok = 0;
+        long rejected = 0;
+        long failed = 0;
+        for (Map.Entry<Operation, EndpointStats> entry : stats.entrySet()) {
+            EndpointStats s = entry.getValue();
+            row(out, entry.getKey().name().toLowerCase(), s.latency, s.serviceTime, s.succeeded.sum(),
+                    s.rejected.sum(), s.failed.sum(), duration);
+            allLatency.add(s.latency);
+            allServiceTime.add(s.serviceTime);
+            ok += s.succeeded.sum();
+            rejected += s.rejected.sum();
+            failed += s.failed.sum();
+        }
+        row(out, "all", allLatency, allServiceTime, ok, rejected, failed, duration);
+    }
+
+    private static void row(PrintStream out, String name, Histogram latency, Histogram serviceTime, long ok,
+            long rejected, long failed, Duration duration) {
+        long count = latency.getTotalCount();
+        out.printf("%-21s %8d %8d %8d %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %11.2f%n", name, count, ok, rejected,
+                failed, count / (double) duration.toSeconds(),
+                latency.getValueAtPercentile(50) / NANOS_PER_MILLI,
+                latency.getValueAtPercentile(90) / NANOS_PER_MILLI,
+                latency.getValueAtPercentile(99) / NANOS_PER_MILLI,
+                latency.getValueAtPercentile(99.9) / NANOS_PER_MILLI,
+                latency.getMaxValue() / NANOS_PER_MILLI,
+                serviceTime.getValueAtPercentile(99) / NANOS_PER_MILLI);
+    }
+
+    // the .hgrm format HdrHistogram's plotter reads, in milliseconds
+    private static void writeHistograms(Map<Operation, EndpointStats> stats, LoadTestOptions options)
+            throws IOException {
+        Files.createDirectories(options.histograms());
+        for (Map.Entry<Operation, EndpointStats> entry : stats.entrySet()) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(
+                    options.histograms().resolve(entry.getKey().name().toLowerCase() + ".hgrm")))) {
+                entry.getValue().latency.outputPercentileDistribution(out, NANOS_PER_MILLI);
+            }
+        }
+        System.out.println("Histograms written to " + options.histograms());
+    }
+}
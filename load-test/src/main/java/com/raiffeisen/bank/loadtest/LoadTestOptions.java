@@ -0,0 +1,72 @@
+package com.raiffeisen.bank.loadtest;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options, all given as {@code --name=value}:
+ * <ul>
+ * <li>{@code url} of the app, default http://localhost:8080</li>
+ * <li>{@code clients} and {@code accounts-per-client} to seed, default 100 and 10</li>
+ * <li>{@code seed=false} to run against the accounts already in the database instead</li>
+ * <li>{@code rate} in requests per second, default 200</li>
+ * <li>{@code warmup} and {@code duration} in seconds, default 10 and 60; requests scheduled during the warmup
+ * are sent but not recorded</li>
+ * <li>{@code mix} of operations as relative weights, default
+ * open=2,deposit=30,withdraw=20,get=30,query=8,recent=10</li>
+ * <li>{@code hot-accounts} that transfer and withdraw_then_deposit move money between, default 10</li>
+ * <li>{@code timeout} of a request in seconds, default 10</li>
+ * <li>{@code histograms} directory to write one .hgrm percentile file per operation to, optional</li>
+ * </ul>
+ */
+record LoadTestOptions(URI url, int clients, int accountsPerClient, boolean seed, int rate, Duration warmup,
+        Duration duration, Map<Operation, Integer> mix, int hotAccounts, Duration timeout, Path histograms) {
+
+    private static final String DEFAULT_MIX = "open=2,deposit=30,withdraw=20,get=30,query=8,recent=10";
+
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            values.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        LoadTestOptions options = new LoadTestOptions(
+                URI.create(values.getOrDefault("url", "http://localhost:8080")),
+                Integer.parseInt(values.getOrDefault("clients", "100")),
+                Integer.parseInt(values.getOrDefault("accounts-per-client", "10")),
+                Boolean.parseBoolean(values.getOrDefault("seed", "true")),
+                Integer.parseInt(values.getOrDefault("rate", "200")),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("warmup", "10"))),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("duration", "60"))),
+                parseMix(values.getOrDefault("mix", DEFAULT_MIX)),
+                Integer.parseInt(values.getOrDefault("hot-accounts", "10")),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("timeout", "10"))),
+                values.containsKey("histograms") ? Path.of(values.get("histograms")) : null);
+        if (options.rate() <= 0 || options.duration().isZero() || options.mix().isEmpty()) {
+            throw new IllegalArgumentException("rate, duration and mix must be positive");
+        }
+        if (options.hotAccounts() < 2) {
+            throw new IllegalArgumentException("hot-accounts must be at least 2");
+        }
+        return options;
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] nameAndWeight = entry.trim().split("=");
+            int weight = Integer.parseInt(nameAndWeight[1]);
+            if (weight > 0) {
+                weights.put(Operation.valueOf(nameAndWeight[0].toUpperCase()), weight);
+            }
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,109 @@
+package com.raiffeisen.bank.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests at a fixed rate regardless of how fast responses come back: request i is due at
+ * {@code start + i / rate} and is sent then even if earlier ones are still in flight. A closed loop (send,
+ * wait, send) slows down together with the app and hides exactly the stalls the percentiles should show.
+ */
+final class OpenLoopRunner {
+
+    private final HttpClient httpClient;
+    private final LoadTestOptions options;
+    private final Fixture fixture;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final Map<Operation, EndpointStats> stats = new EnumMap<>(Operation.class);
+    private long maxSendLagNanos;
+
+    OpenLoopRunner(HttpClient httpClient, LoadTestOptions options, Fixture fixture) {
+        this.httpClient = httpClient;
+        this.options = options;
+        this.fixture = fixture;
+        this.operations = options.mix().keySet().toArray(Operation[]::new);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += options.mix().get(operations[i]);
+            cumulativeWeights[i] = total;
+            stats.put(operations[i], new EndpointStats());
+        }
+    }
+
+    Map<Operation, EndpointStats> run() {
+        SplittableRandom random = new SplittableRandom();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.rate();
+        long start = System.nanoTime();
+        long measureFrom = start + options.warmup().toNanos();
+        long end = measureFrom + options.duration().toNanos();
+        Phaser inFlight = new Phaser(1);
+
+        for (long i = 0;; i++) {
+            long scheduledAt = start + i * intervalNanos;
+            if (scheduledAt >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = scheduledAt - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = pick(random);
+            List<HttpRequest> requests = operation.requests(options.url(), fixture, random).stream()
+                    .map(request -> request.timeout(options.timeout()).build())
+                    .toList();
+            EndpointStats endpointStats = scheduledAt >= measureFrom ? stats.get(operation) : null;
+
+            long sentAt = System.nanoTime();
+            maxSendLagNanos = Math.max(maxSendLagNanos, sentAt - scheduledAt);
+            inFlight.register();
+            send(requests, 0).whenComplete((response, e) -> {
+                long completedAt = System.nanoTime();
+                if (endpointStats != null) {
+                    if (e == null) {
+                        endpointStats.record(scheduledAt, sentAt, completedAt, response.statusCode());
+                    } else {
+                        endpointStats.recordFailure(scheduledAt, completedAt);
+                    }
+                }
+                inFlight.arriveAndDeregister();
+            });
+        }
+        // every request has a timeout, so this returns
+        inFlight.arriveAndAwaitAdvance();
+        return stats;
+    }
+
+    // the first response that is not a success, or the last one, decides the outcome
+    private CompletableFuture<HttpResponse<Void>> send(List<HttpRequest> requests, int step) {
+        return httpClient.sendAsync(requests.get(step), HttpResponse.BodyHandlers.discarding())
+                .thenCompose(response -> step + 1 < requests.size() && response.statusCode() / 100 == 2
+                        ? send(requests, step + 1)
+                        : CompletableFuture.completedFuture(response));
+    }
+
+    // how late the generator itself sent a request, a large value means the numbers say more about this machine
+    long maxSendLagNanos() {
+        return maxSendLagNanos;
+    }
+
+    private Operation pick(SplittableRandom random) {
+        int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (r < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException();
+    }
+}
@@ -0,0 +1,140 @@
+package com.raiffeisen.bank.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.raiffeisen.bank.DTO.DepositToAccountRequest;
+import com.raiffeisen.bank.DTO.GetRecentAccountsRequest;
+import com.raiffeisen.bank.DTO.OpenNewAccountRequest;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.DTO.TransferRequest;
+import com.raiffeisen.bank.DTO.WithdrawFromAccountRequest;
+import com.raiffeisen.bank.models.Money;
+
+/** The endpoints the load is spread over, each builds one request against a random client or account. */
+enum Operation {
+
+    OPEN {
+        @Override
+        HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random) {
+            OpenNewAccountRequest r = new OpenNewAccountRequest();
+            r.setClientID(randomClient(fixture, random));
+            return json(url.resolve("/api/accounts/open"), "POST", r);
+        }
+    },
+    DEPOSIT {
+        @Override
+        HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random) {
+            DepositToAccountRequest r = new DepositToAccountRequest();
+            r.setAccountNumber(fixture.accountNumbers().get(random.nextInt(fixture.accountNumbers().size())));
+            r.setAmount(Money.toBigDecimal(random.nextLong(100, 10_000)));
+            return json(url.resolve("/api/accounts/deposit"), "PUT", r);
+        }
+    },
+    WITHDRAW {
+        @Override
+        HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random) {
+            WithdrawFromAccountRequest r = new WithdrawFromAccountRequest();
+            r.setAccountNumber(fixture.accountNumbers().get(random.nextInt(fixture.accountNumbers().size())));
+            // a bit less than deposits on average, so most withdrawals find enough funds
+            r.setAmount(Money.toBigDecimal(random.nextLong(100, 8_000)));
+            return json(url.resolve("/api/accounts/withdraw"), "PUT", r);
+        }
+    },
+    GET {
+        @Override
+        HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random) {
+            long id = fixture.accountIds().get(random.nextInt(fixture.accountIds().size()));
+            return HttpRequest.newBuilder(url.resolve("/api/accounts/" + id)).GET();
+        }
+    },
+    QUERY {
+        @Override
+        HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random) {
+            long balanceLB = random.nextLong(0, 200_000);
+            QueryAccountsRequest r = QueryAccountsRequest.builder()
+                    .balanceLB(Money.toBigDecimal(balanceLB))
+                    .balanceUB(Money.toBigDecimal(balanceLB + 50_000))
+                    .limit(100)
+                    .build();
+            return json(url.resolve("/api/accounts/query"), "GET", r);
+        }
+    },
+    RECENT {
+        @Override
+        HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random) {
+            GetRecentAccountsRequest r = new GetRecentAccountsRequest();
+            r.setClientID(randomClient(fixture, random));
+            r.setLimit(10);
+            return json(url.resolve("/api/accounts/recent"), "GET", r);
+        }
+    },
+    // transfer and withdraw_then_deposit move money between the same few hot accounts, one atomically and
+    // one as two separate calls, to compare the two under contention
+    TRANSFER {
+        @Override
+        HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random) {
+            String[] pair = hotPair(fixture, random);
+            TransferRequest r = new TransferRequest();
+            r.setFromAccountNumber(pair[0]);
+            r.setToAccountNumber(pair[1]);
+            r.setAmount(Money.toBigDecimal(random.nextLong(100, 5_000)));
+            return json(url.resolve("/api/accounts/transfer"), "POST", r);
+        }
+    },
+    WITHDRAW_THEN_DEPOSIT {
+        @Override
+        HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random) {
+            throw new UnsupportedOperationException("Sent as two requests, see requests");
+        }
+
+        @Override
+        List<HttpRequest.Builder> requests(URI url, Fixture fixture, SplittableRandom random) {
+            String[] pair = hotPair(fixture, random);
+            long amount = random.nextLong(100, 5_000);
+            WithdrawFromAccountRequest withdraw = new WithdrawFromAccountRequest();
+            withdraw.setAccountNumber(pair[0]);
+            withdraw.setAmount(Money.toBigDecimal(amount));
+            DepositToAccountRequest deposit = new DepositToAccountRequest();
+            deposit.setAccountNumber(pair[1]);
+            deposit.setAmount(Money.toBigDecimal(amount));
+            return List.of(json(url.resolve("/api/accounts/withdraw"), "PUT", withdraw),
+                    json(url.resolve("/api/accounts/deposit"), "PUT", deposit));
+        }
+    };
+
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().findAndRegisterModules();
+
+    abstract HttpRequest.Builder request(URI url, Fixture fixture, SplittableRandom random);
+
+    // sent one after the other, each once the previous one succeeded, and timed as one operation
+    List<HttpRequest.Builder> requests(URI url, Fixture fixture, SplittableRandom random) {
+        return List.of(request(url, fixture, random));
+    }
+
+    // two different accounts among the hot ones
+    private static String[] hotPair(Fixture fixture, SplittableRandom random) {
+        int from = random.nextInt(fixture.hotAccounts());
+        int to = (from + 1 + random.nextInt(fixture.hotAccounts() - 1)) % fixture.hotAccounts();
+        return new String[] { fixture.accountNumbers().get(from), fixture.accountNumbers().get(to) };
+    }
+
+    private static Long randomClient(Fixture fixture, SplittableRandom random) {
+        return fixture.clientIds().get(random.nextInt(fixture.clientIds().size()));
+    }
+
+    // the query endpoints take their criteria as a GET body
+    static HttpRequest.Builder json(URI uri, String method, Object body) {
+        try {
+            return HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofByteArray(OBJECT_MAPPER.writeValueAsBytes(body)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
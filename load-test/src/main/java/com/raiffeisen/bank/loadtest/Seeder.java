@@ -0,0 +1,142 @@
+package com.raiffeisen.bank.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.raiffeisen.bank.DTO.ClientDTO;
+import com.raiffeisen.bank.DTO.DepositToAccountRequest;
+import com.raiffeisen.bank.DTO.OpenNewAccountsRequest;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+
+/**
+ * Creates the clients and accounts for a run through the API, so the rows look exactly like ones the app
+ * wrote itself, or reads back the accounts that are already there.
+ */
+final class Seeder {
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+    private static final int MAX_BULK_OPEN = 1000; // @Max of OpenNewAccountsRequest.count
+    private static final int PARALLELISM = 16;
+
+    private final HttpClient httpClient;
+    private final URI url;
+
+    Seeder(HttpClient httpClient, URI url) {
+        this.httpClient = httpClient;
+        this.url = url;
+    }
+
+    Fixture seed(int clients, int accountsPerClient) throws Exception {
+        List<Long> clientIds = Collections.synchronizedList(new ArrayList<>());
+        List<Long> accountIds = Collections.synchronizedList(new ArrayList<>());
+        List<String> accountNumbers = Collections.synchronizedList(new ArrayList<>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM);
+        try {
+            List<Future<?>> seeded = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                int n = i;
+                seeded.add(executor.submit(() -> {
+                    long clientId = createClient(n);
+                    clientIds.add(clientId);
+                    for (int opened = 0; opened < accountsPerClient; opened += MAX_BULK_OPEN) {
+                        for (JsonNode account : openAccounts(clientId,
+                                Math.min(MAX_BULK_OPEN, accountsPerClient - opened))) {
+                            deposit(account.get("accountNumber").asText(), INITIAL_BALANCE);
+                            synchronized (accountIds) {
+                                accountIds.add(account.get("id").asLong());
+                                accountNumbers.add(account.get("accountNumber").asText());
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : seeded) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Fixture(List.copyOf(clientIds), List.copyOf(accountIds), List.copyOf(accountNumbers));
+    }
+
+    // streams /api/accounts/export, which covers every account that is not closed
+    Fixture discover() throws IOException, InterruptedException {
+        List<Long> clientIds = new ArrayList<>();
+        List<Long> accountIds = new ArrayList<>();
+        List<String> accountNumbers = new ArrayList<>();
+        HttpResponse<InputStream> response = httpClient.send(
+                Operation.json(url.resolve("/api/accounts/export"), "GET", new QueryAccountsRequest()).build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        try (BufferedReader lines = new BufferedReader(
+                new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            check(response.statusCode(), "export accounts");
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode account = Operation.OBJECT_MAPPER.readTree(line);
+                accountIds.add(account.get("id").asLong());
+                accountNumbers.add(account.get("accountNumber").asText());
+                clientIds.add(account.get("clientID").asLong());
+            }
+        }
+        return new Fixture(clientIds.stream().distinct().toList(), accountIds, accountNumbers);
+    }
+
+    private long createClient(int n) throws IOException, InterruptedException {
+        ClientDTO client = ClientDTO.builder()
+                .firstName("Load")
+                .lastName("Test " + n)
+                .email("load.test." + n + "@example.com")
+                .build();
+        return send(Operation.json(url.resolve("/api/clients/create"), "POST", client), "create client")
+                .get("id").asLong();
+    }
+
+    private JsonNode openAccounts(long clientId, int count) throws IOException, InterruptedException {
+        OpenNewAccountsRequest r = new OpenNewAccountsRequest();
+        r.setClientID(clientId);
+        r.setCount(count);
+        return send(Operation.json(url.resolve("/api/accounts/open_bulk"), "POST", r), "open accounts");
+    }
+
+    private void deposit(String accountNumber, BigDecimal amount) throws IOException, InterruptedException {
+        DepositToAccountRequest r = new DepositToAccountRequest();
+        r.setAccountNumber(accountNumber);
+        r.setAmount(amount);
+        HttpResponse<String> response = httpClient.send(
+                Operation.json(url.resolve("/api/accounts/deposit"), "PUT", r).build(),
+                HttpResponse.BodyHandlers.ofString());
+        check(response.statusCode(), "deposit");
+    }
+
+    private JsonNode send(HttpRequest.Builder request, String what) throws IOException, InterruptedException {
+        HttpResponse<String> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        check(response.statusCode(), what);
+        return Operation.OBJECT_MAPPER.readTree(response.body());
+    }
+
+    private static void check(int statusCode, String what) {
+        if (statusCode / 100 != 2) {
+            throw new IllegalStateException("Seeding failed, " + what + " returned " + statusCode);
+        }
+    }
+}
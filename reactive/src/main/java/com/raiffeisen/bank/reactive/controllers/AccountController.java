@@ -0,0 +1,154 @@
+package com.raiffeisen.bank.reactive.controllers;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.AccountPageDTO;
+import com.raiffeisen.bank.DTO.BalanceOperationResultDTO;
+import com.raiffeisen.bank.DTO.BatchBalanceOperationsRequest;
+import com.raiffeisen.bank.DTO.CloseAccountRequest;
+import com.raiffeisen.bank.DTO.DepositToAccountRequest;
+import com.raiffeisen.bank.DTO.GetAccountByAccountNumberRequest;
+import com.raiffeisen.bank.DTO.GetRecentAccountsRequest;
+import com.raiffeisen.bank.DTO.OpenNewAccountRequest;
+import com.raiffeisen.bank.DTO.OpenNewAccountsRequest;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.DTO.TransferRequest;
+import com.raiffeisen.bank.DTO.WithdrawFromAccountRequest;
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.reactive.services.AccountService;
+
+import jakarta.validation.Valid;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// same paths, bodies and status codes as the servlet AccountController
+@RestController
+@RequestMapping("/api/accounts")
+public class AccountController {
+
+    private static final int DEFAULT_RECENTS_LIMIT = 5;
+    private final AccountService accountService;
+
+    @Autowired
+    public AccountController(AccountService accountService) {
+        this.accountService = accountService;
+    }
+
+    @PostMapping("/open")
+    public Mono<ResponseEntity<AccountDTO>> openNewAccount(@RequestBody @Valid OpenNewAccountRequest r) {
+        return accountService.openNewAccount(r.getClientID())
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/open_bulk")
+    public Mono<ResponseEntity<List<AccountDTO>>> openNewAccounts(@RequestBody @Valid OpenNewAccountsRequest r) {
+        return accountService.openNewAccounts(r.getClientID(), r.getCount())
+                .collectList()
+                .map(opened -> opened.isEmpty()
+                        ? ResponseEntity.notFound().<List<AccountDTO>>build()
+                        : ResponseEntity.ok(opened));
+    }
+
+    @PostMapping("/close")
+    public Mono<ResponseEntity<String>> closeAccount(@RequestBody @Valid CloseAccountRequest r) {
+        return accountService.closeAccountByAccountNumber(r.getAccountNumber())
+                .map(isSuccessful -> isSuccessful
+                        ? ResponseEntity.ok("Account closed successfully.")
+                        : ResponseEntity.notFound().<String>build());
+    }
+
+    @PutMapping("/deposit")
+    public Mono<ResponseEntity<String>> depositToAccount(@RequestBody @Valid DepositToAccountRequest r) {
+        return accountService.applyAccountBalanceDelta(r.getAccountNumber(), Money.toMinorUnits(r.getAmount()))
+                .map(status -> balanceOperationResponse(status, "Deposit successful"));
+    }
+
+    @PutMapping("/withdraw")
+    public Mono<ResponseEntity<String>> withdrawFromAccount(@RequestBody @Valid WithdrawFromAccountRequest r) {
+        return accountService.applyAccountBalanceDelta(r.getAccountNumber(), -Money.toMinorUnits(r.getAmount()))
+                .map(status -> balanceOperationResponse(status, "Withdrawal successful"));
+    }
+
+    @PostMapping("/transfer")
+    public Mono<ResponseEntity<String>> transfer(@RequestBody @Valid TransferRequest r) {
+        if (r.getFromAccountNumber().equals(r.getToAccountNumber())) {
+            return Mono.just(ResponseEntity.badRequest().body("Cannot transfer to the same account"));
+        }
+        return accountService.transfer(r.getFromAccountNumber(), r.getToAccountNumber(),
+                Money.toMinorUnits(r.getAmount()))
+                .map(status -> balanceOperationResponse(status, "Transfer successful"));
+    }
+
+    // always 200, the outcome of every operation is in its own result
+    @PutMapping("/batch")
+    public Mono<ResponseEntity<List<BalanceOperationResultDTO>>> applyBalanceOperations(
+            @RequestBody @Valid BatchBalanceOperationsRequest r) {
+        return accountService.applyAccountBalanceDeltas(r.getOperations())
+                .collectList()
+                .map(ResponseEntity::ok);
+    }
+
+    private ResponseEntity<String> balanceOperationResponse(BalanceOperationStatus status, String successMessage) {
+        return switch (status) {
+            case SUCCESS -> ResponseEntity.ok(successMessage);
+            case ACCOUNT_NOT_FOUND -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("Account with the provided account number doesn't exist");
+            case ACCOUNT_CLOSED -> ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("Account with the provided account number is closed");
+            case INSUFFICIENT_FUNDS -> ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .body("Insufficient funds");
+        };
+    }
+
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<AccountDTO>> getAccountById(@PathVariable Long id) {
+        return accountService.getAccountDTOById(id)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+    }
+
+    @GetMapping("/by_number")
+    public Mono<ResponseEntity<AccountDTO>> getAccountByAccountNumber(
+            @RequestBody @Valid GetAccountByAccountNumberRequest r) {
+        return accountService.getAccountDTOByAccountNumber(r.getAccountNumber())
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.status(HttpStatus.NOT_FOUND).build());
+    }
+
+    @GetMapping("/recent")
+    public Mono<ResponseEntity<List<AccountDTO>>> getRecentAccounts(@RequestBody @Valid GetRecentAccountsRequest r) {
+        int limit = r.getLimit() != null ? r.getLimit() : DEFAULT_RECENTS_LIMIT;
+        return accountService.getRecentAccounts(r.getClientID(), limit)
+                .collectList()
+                .map(ResponseEntity::ok);
+    }
+
+    @GetMapping("/query")
+    public Mono<ResponseEntity<AccountPageDTO>> queryAccounts(@RequestBody @Valid QueryAccountsRequest r) {
+        return accountService.queryAccountDTOs(r)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.badRequest().build());
+    }
+
+    // one AccountDTO per line, WebFlux writes each element as soon as it is read
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<AccountDTO> exportAccounts(@RequestBody @Valid QueryAccountsRequest r) {
+        return accountService.exportAccountDTOs(r);
+    }
+
+}
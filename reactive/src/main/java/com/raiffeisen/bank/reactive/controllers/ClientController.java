@@ -0,0 +1,43 @@
+package com.raiffeisen.bank.reactive.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.raiffeisen.bank.DTO.ClientDTO;
+import com.raiffeisen.bank.reactive.services.ClientService;
+
+import jakarta.validation.Valid;
+import reactor.core.publisher.Mono;
+
+@RestController
+@RequestMapping("/api/clients")
+public class ClientController {
+
+    private final ClientService clientService;
+
+    @Autowired
+    public ClientController(ClientService clientService) {
+        this.clientService = clientService;
+    }
+
+    @PostMapping("/create")
+    public Mono<ResponseEntity<ClientDTO>> createClient(@RequestBody @Valid ClientDTO client) {
+        return clientService.createClient(client)
+                .map(newClient -> ResponseEntity.status(HttpStatus.CREATED).body(newClient));
+    }
+
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<ClientDTO>> getClient(@PathVariable Long id) {
+        return clientService.getClientDTOById(id)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+}
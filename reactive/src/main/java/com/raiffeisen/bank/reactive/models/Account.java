@@ -0,0 +1,42 @@
+package com.raiffeisen.bank.reactive.models;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import com.raiffeisen.bank.models.AccountStatus;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// same accounts table as the JPA entity, the client is kept as a plain id
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table("accounts")
+public class Account {
+
+    @Id
+    private Long id;
+
+    private Long clientId;
+
+    private String accountNumber;
+
+    // minor units, see Money
+    private long balance;
+
+    @Builder.Default
+    private Integer balanceSlots = 0;
+
+    private AccountStatus status;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+
+}
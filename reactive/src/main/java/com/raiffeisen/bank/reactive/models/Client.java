@@ -0,0 +1,27 @@
+package com.raiffeisen.bank.reactive.models;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table("clients")
+public class Client {
+
+    @Id
+    private Long id;
+
+    private String firstName;
+
+    private String lastName;
+
+    private String email;
+
+}
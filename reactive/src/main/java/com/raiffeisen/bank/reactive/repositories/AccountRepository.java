@@ -0,0 +1,62 @@
+package com.raiffeisen.bank.reactive.repositories;
+
+import java.util.Collection;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.reactive.models.Account;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Repository
+public interface AccountRepository extends R2dbcRepository<Account, Long> {
+
+    Mono<Account> findByAccountNumber(String accountNumber);
+
+    // served by the (client_id, status, updated_at DESC) index, reads only one page of rows
+    Flux<Account> findByClientIdAndStatusOrderByUpdatedAtDesc(Long clientId, AccountStatus status, Pageable page);
+
+    // same single round trip as the servlet AccountRepository, empty when missing, closed or overdrawn
+    @Query("""
+            UPDATE accounts
+            SET balance = balance + :delta, updated_at = LOCALTIMESTAMP
+            WHERE account_number = :accountNumber
+              AND status = 'ACTIVE'
+              AND balance + :delta >= 0
+            RETURNING *
+            """)
+    Mono<Account> applyBalanceDelta(String accountNumber, long delta);
+
+    // rows are always locked in id order so that concurrent multi-account writers cannot deadlock
+    @Query("SELECT * FROM accounts WHERE account_number IN (:accountNumbers) ORDER BY id FOR UPDATE")
+    Flux<Account> findAllByAccountNumberInForUpdate(Collection<String> accountNumbers);
+
+    // caller holds the row lock
+    @Modifying
+    @Query("UPDATE accounts SET balance = balance + :delta, updated_at = LOCALTIMESTAMP WHERE id = :id")
+    Mono<Integer> addToBalance(Long id, long delta);
+
+    @Modifying
+    @Query("""
+            UPDATE accounts SET status = 'CLOSED', updated_at = LOCALTIMESTAMP
+            WHERE account_number = :accountNumber AND status = 'ACTIVE'
+            """)
+    Mono<Integer> closeByAccountNumber(String accountNumber);
+
+    @Query("SELECT COALESCE(SUM(balance), 0)::bigint FROM account_balance_slots WHERE account_id = :accountId")
+    Mono<Long> sumBalanceSlots(Long accountId);
+
+    // last id of a block of 50 (the INCREMENT BY of accounts_id_seq), shared with Hibernate's pooled ids
+    @Query("SELECT nextval('accounts_id_seq')")
+    Mono<Long> reserveAccountIdBlock();
+
+    // first serial of a block of 1000, as for SequenceAccountNumberAllocator
+    @Query("SELECT nextval('account_number_seq')")
+    Mono<Long> reserveAccountNumberBlock();
+}
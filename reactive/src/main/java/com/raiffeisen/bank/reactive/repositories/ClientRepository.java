@@ -0,0 +1,10 @@
+package com.raiffeisen.bank.reactive.repositories;
+
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+
+import com.raiffeisen.bank.reactive.models.Client;
+
+@Repository
+public interface ClientRepository extends R2dbcRepository<Client, Long> {
+}
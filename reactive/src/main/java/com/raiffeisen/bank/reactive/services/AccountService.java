@@ -0,0 +1,296 @@
+package com.raiffeisen.bank.reactive.services;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.relational.core.query.Criteria;
+import org.springframework.data.relational.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.AccountPageDTO;
+import com.raiffeisen.bank.DTO.BalanceOperationRequest;
+import com.raiffeisen.bank.DTO.BalanceOperationResultDTO;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.reactive.models.Account;
+import com.raiffeisen.bank.reactive.repositories.AccountRepository;
+import com.raiffeisen.bank.services.AccountNumbers;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of the servlet AccountService over the same tables. An empty Mono stands for the
+ * null the servlet service returns. Hot accounts are not split here: their credits go straight to
+ * accounts.balance, and debits only see that part of the balance until the servlet side consolidates the
+ * slots. There is no DTO cache either, cached servlet nodes still hear about these writes through the
+ * account_changes trigger.
+ */
+@Service
+public class AccountService {
+
+    private static final int DEFAULT_QUERY_PAGE_SIZE = 100;
+    private static final int MAX_QUERY_PAGE_SIZE = 1000;
+    // must match INCREMENT BY of accounts_id_seq and account_number_seq
+    private static final long ACCOUNT_ID_BLOCK_SIZE = 50;
+    private static final long ACCOUNT_NUMBER_BLOCK_SIZE = 1000;
+
+    private final AccountRepository accountRepository;
+    private final R2dbcEntityTemplate entityTemplate;
+    private final ClientService clientService;
+    private final SequenceBlockAllocator accountIds;
+    private final SequenceBlockAllocator accountNumberSerials;
+    private final boolean verifyAccountNumberCheckDigits;
+
+    @Autowired
+    public AccountService(AccountRepository accountRepository, R2dbcEntityTemplate entityTemplate,
+            ClientService clientService,
+            @Value("${bank.account-numbers.verify-check-digits:false}") boolean verifyAccountNumberCheckDigits) {
+        this.accountRepository = accountRepository;
+        this.entityTemplate = entityTemplate;
+        this.clientService = clientService;
+        this.accountIds = new SequenceBlockAllocator(this::reserveAccountIdBlock, ACCOUNT_ID_BLOCK_SIZE);
+        this.accountNumberSerials = new SequenceBlockAllocator(accountRepository::reserveAccountNumberBlock,
+                ACCOUNT_NUMBER_BLOCK_SIZE);
+        this.verifyAccountNumberCheckDigits = verifyAccountNumberCheckDigits;
+    }
+
+    // Hibernate's pooled optimizer owns the 50 ids up to and including each nextval(), this side does the same;
+    // the first values of a fresh sequence are skipped the way Hibernate skips them
+    private Mono<Long> reserveAccountIdBlock() {
+        return accountRepository.reserveAccountIdBlock()
+                .flatMap(last -> last < ACCOUNT_ID_BLOCK_SIZE
+                        ? reserveAccountIdBlock()
+                        : Mono.just(last - ACCOUNT_ID_BLOCK_SIZE + 1));
+    }
+
+    public Mono<AccountDTO> openNewAccount(Long clientID) {
+        return clientService.existsById(clientID)
+                .filter(Boolean::booleanValue)
+                .flatMap(exists -> newAccount(clientID, LocalDateTime.now()))
+                .flatMap(entityTemplate::insert) // the id is already set, save() would take it for an update
+                .map(this::mapToDTO);
+    }
+
+    public Flux<AccountDTO> openNewAccounts(Long clientID, int count) {
+        LocalDateTime now = LocalDateTime.now();
+        return clientService.existsById(clientID)
+                .filter(Boolean::booleanValue)
+                .flatMapMany(exists -> Flux.range(0, count))
+                .concatMap(i -> newAccount(clientID, now))
+                .concatMap(entityTemplate::insert)
+                .map(this::mapToDTO);
+    }
+
+    private Mono<Account> newAccount(Long clientID, LocalDateTime now) {
+        return Mono.zip(accountIds.next(), accountNumberSerials.next())
+                .map(ids -> Account.builder()
+                        .id(ids.getT1())
+                        .clientId(clientID)
+                        .accountNumber(AccountNumbers.format(ids.getT2()))
+                        .status(AccountStatus.ACTIVE)
+                        .createdAt(now)
+                        .updatedAt(now)
+                        .build());
+    }
+
+    private boolean isWellFormedAccountNumber(String accountNumber) {
+        return AccountNumbers.isWellFormed(accountNumber, verifyAccountNumberCheckDigits);
+    }
+
+    public Mono<AccountDTO> getAccountDTOByAccountNumber(String accountNumber) {
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return Mono.empty();
+        }
+        return accountRepository.findByAccountNumber(accountNumber)
+                .filter(account -> account.getStatus() != AccountStatus.CLOSED)
+                .flatMap(this::mapToDTOWithSlots);
+    }
+
+    public Mono<AccountDTO> getAccountDTOById(Long id) {
+        return accountRepository.findById(id)
+                .filter(account -> account.getStatus() != AccountStatus.CLOSED)
+                .flatMap(this::mapToDTOWithSlots);
+    }
+
+    public Mono<Boolean> closeAccountByAccountNumber(String accountNumber) {
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return Mono.just(false);
+        }
+        return accountRepository.closeByAccountNumber(accountNumber).map(updated -> updated > 0);
+    }
+
+    public Mono<BalanceOperationStatus> applyAccountBalanceDelta(String accountNumber, long delta) {
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return Mono.just(BalanceOperationStatus.ACCOUNT_NOT_FOUND);
+        }
+        return accountRepository.applyBalanceDelta(accountNumber, delta)
+                .map(updated -> BalanceOperationStatus.SUCCESS)
+                // the update was rejected, an extra lookup on the failure path only to tell the caller why
+                .switchIfEmpty(Mono.defer(() -> accountRepository.findByAccountNumber(accountNumber)
+                        .map(account -> account.getStatus() == AccountStatus.CLOSED
+                                ? BalanceOperationStatus.ACCOUNT_CLOSED
+                                : BalanceOperationStatus.INSUFFICIENT_FUNDS)
+                        .defaultIfEmpty(BalanceOperationStatus.ACCOUNT_NOT_FOUND)));
+    }
+
+    // both rows are locked in id order, as in the servlet AccountBalanceBatchWriter
+    @Transactional
+    public Mono<BalanceOperationStatus> transfer(String fromAccountNumber, String toAccountNumber, long amount) {
+        if (!isWellFormedAccountNumber(fromAccountNumber) || !isWellFormedAccountNumber(toAccountNumber)) {
+            return Mono.just(BalanceOperationStatus.ACCOUNT_NOT_FOUND);
+        }
+        return accountRepository.findAllByAccountNumberInForUpdate(List.of(fromAccountNumber, toAccountNumber))
+                .collectMap(Account::getAccountNumber)
+                .flatMap(accounts -> transfer(accounts, fromAccountNumber, toAccountNumber, amount));
+    }
+
+    private Mono<BalanceOperationStatus> transfer(Map<String, Account> accounts, String fromAccountNumber,
+            String toAccountNumber, long amount) {
+        Account from = accounts.get(fromAccountNumber);
+        Account to = accounts.get(toAccountNumber);
+        if (from == null || to == null) {
+            return Mono.just(BalanceOperationStatus.ACCOUNT_NOT_FOUND);
+        }
+        if (from.getStatus() == AccountStatus.CLOSED || to.getStatus() == AccountStatus.CLOSED) {
+            return Mono.just(BalanceOperationStatus.ACCOUNT_CLOSED);
+        }
+        if (from.getBalance() < amount) {
+            return Mono.just(BalanceOperationStatus.INSUFFICIENT_FUNDS);
+        }
+        return accountRepository.addToBalance(from.getId(), -amount)
+                .then(accountRepository.addToBalance(to.getId(), amount))
+                .thenReturn(BalanceOperationStatus.SUCCESS);
+    }
+
+    // one operation after another in request order; unlike the servlet batch each one is its own transaction
+    public Flux<BalanceOperationResultDTO> applyAccountBalanceDeltas(List<BalanceOperationRequest> operations) {
+        return Flux.fromIterable(operations)
+                .concatMap(operation -> {
+                    long delta = Money.toMinorUnits(operation.getAmount());
+                    return applyAccountBalanceDelta(operation.getAccountNumber(), delta)
+                            .map(status -> BalanceOperationResultDTO.builder()
+                                    .accountNumber(operation.getAccountNumber())
+                                    .amount(Money.ofMinor(delta))
+                                    .status(status)
+                                    .build());
+                });
+    }
+
+    public Flux<AccountDTO> getRecentAccounts(Long clientID, int limit) {
+        // ACTIVE rather than "not CLOSED" so the status is an equality prefix of the index
+        return accountRepository
+                .findByClientIdAndStatusOrderByUpdatedAtDesc(clientID, AccountStatus.ACTIVE, PageRequest.of(0, limit))
+                .concatMap(this::mapToDTOWithSlots);
+    }
+
+    public AccountDTO mapToDTO(Account account) {
+        return mapToDTO(account, 0);
+    }
+
+    private AccountDTO mapToDTO(Account account, long balanceSlotsSum) {
+        return AccountDTO.builder()
+                .id(account.getId())
+                .clientID(account.getClientId())
+                .accountNumber(account.getAccountNumber())
+                .balance(Money.ofMinor(Money.add(account.getBalance(), balanceSlotsSum)))
+                .status(account.getStatus())
+                .createdAt(account.getCreatedAt())
+                .updatedAt(account.getUpdatedAt())
+                .build();
+    }
+
+    private Mono<AccountDTO> mapToDTOWithSlots(Account account) {
+        if (account.getBalanceSlots() == 0) {
+            return Mono.just(mapToDTO(account));
+        }
+        return accountRepository.sumBalanceSlots(account.getId()).map(sum -> mapToDTO(account, sum));
+    }
+
+    // an empty Mono for a cursor that was not issued by this API
+    public Mono<AccountPageDTO> queryAccountDTOs(QueryAccountsRequest r) {
+        Long afterId = null;
+        if (r.getCursor() != null) {
+            afterId = decodeCursor(r.getCursor());
+            if (afterId == null) {
+                return Mono.empty();
+            }
+        }
+        int pageSize = r.getLimit() == null ? DEFAULT_QUERY_PAGE_SIZE : Math.min(r.getLimit(), MAX_QUERY_PAGE_SIZE);
+
+        Criteria criteria = matching(r);
+        if (afterId != null) {
+            criteria = criteria.and("id").greaterThan(afterId);
+        }
+        // one row past the page tells whether there is a next one without a COUNT
+        return entityTemplate.select(Account.class)
+                .matching(Query.query(criteria).sort(Sort.by("id")).limit(pageSize + 1))
+                .all()
+                .collectList()
+                .flatMap(accounts -> {
+                    boolean hasNext = accounts.size() > pageSize;
+                    List<Account> page = hasNext ? accounts.subList(0, pageSize) : accounts;
+                    String nextCursor = hasNext ? encodeCursor(page.get(page.size() - 1).getId()) : null;
+                    return Flux.fromIterable(page)
+                            .concatMap(this::mapToDTOWithSlots)
+                            .collectList()
+                            .map(dtos -> AccountPageDTO.builder().accounts(dtos).nextCursor(nextCursor).build());
+                });
+    }
+
+    // rows are read as the client consumes them, backpressure reaches the database
+    public Flux<AccountDTO> exportAccountDTOs(QueryAccountsRequest r) {
+        return entityTemplate.select(Account.class)
+                .matching(Query.query(matching(r)).sort(Sort.by("id")))
+                .all()
+                .map(this::mapToDTO);
+    }
+
+    // same bounds as the servlet AccountSpecifications: balance [LB, UB), timestamps (LB, UB]
+    private static Criteria matching(QueryAccountsRequest r) {
+        Criteria criteria = Criteria.where("status").not(AccountStatus.CLOSED);
+        criteria = and(criteria, "clientId", r.getClientID(), Criteria.CriteriaStep::is);
+        if (r.getBalanceLB() != null) {
+            criteria = criteria.and("balance").greaterThanOrEquals(Money.toMinorUnits(r.getBalanceLB()));
+        }
+        if (r.getBalanceUB() != null) {
+            criteria = criteria.and("balance").lessThan(Money.toMinorUnits(r.getBalanceUB()));
+        }
+        criteria = and(criteria, "createdAt", r.getCreatedAtLB(), Criteria.CriteriaStep::greaterThan);
+        criteria = and(criteria, "createdAt", r.getCreatedAtUB(), Criteria.CriteriaStep::lessThanOrEquals);
+        criteria = and(criteria, "updatedAt", r.getUpdatedAtLB(), Criteria.CriteriaStep::greaterThan);
+        criteria = and(criteria, "updatedAt", r.getUpdatedAtUB(), Criteria.CriteriaStep::lessThanOrEquals);
+        return criteria;
+    }
+
+    private static Criteria and(Criteria criteria, String property, Object value,
+            BiFunction<Criteria.CriteriaStep, Object, Criteria> condition) {
+        return value == null ? criteria : condition.apply(criteria.and(property), value);
+    }
+
+    private static String encodeCursor(Long lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Long.toString(lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static Long decodeCursor(String cursor) {
+        try {
+            return Long.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) { // also covers NumberFormatException
+            return null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.raiffeisen.bank.reactive.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.raiffeisen.bank.DTO.ClientDTO;
+import com.raiffeisen.bank.reactive.models.Client;
+import com.raiffeisen.bank.reactive.repositories.ClientRepository;
+
+import reactor.core.publisher.Mono;
+
+@Service
+public class ClientService { // simple client creation and retrieval
+
+    private final ClientRepository clientRepository;
+
+    @Autowired
+    public ClientService(ClientRepository clientRepository) {
+        this.clientRepository = clientRepository;
+    }
+
+    public Mono<ClientDTO> createClient(ClientDTO client) {
+        Client newClient = Client.builder()
+                .firstName(client.getFirstName())
+                .lastName(client.getLastName())
+                .email(client.getEmail())
+                .build();
+        return clientRepository.save(newClient).map(this::mapToDTO);
+    }
+
+    public Mono<ClientDTO> getClientDTOById(Long id) {
+        return clientRepository.findById(id).map(this::mapToDTO);
+    }
+
+    public Mono<Boolean> existsById(Long id) {
+        return clientRepository.existsById(id);
+    }
+
+    public ClientDTO mapToDTO(Client client) {
+        return ClientDTO.builder()
+                .id(client.getId())
+                .firstName(client.getFirstName())
+                .lastName(client.getLastName())
+                .email(client.getEmail())
+                .build();
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.raiffeisen.bank.reactive.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Hands out values from blocks reserved with one nextval(), without blocking: a caller that finds the block
+ * used up reserves a new one and takes its first value. Two callers racing on an empty block both reserve,
+ * the rest of the block installed first is then skipped, which costs numbers but never repeats one.
+ */
+class SequenceBlockAllocator {
+
+    private record Block(AtomicLong next, long end) {
+    }
+
+    private final Supplier<Mono<Long>> reserveBlock;
+    private final long blockSize;
+    private final AtomicReference<Block> current = new AtomicReference<>(new Block(new AtomicLong(), 0));
+
+    // reserveBlock emits the first value of a fresh block of blockSize values
+    SequenceBlockAllocator(Supplier<Mono<Long>> reserveBlock, long blockSize) {
+        this.reserveBlock = reserveBlock;
+        this.blockSize = blockSize;
+    }
+
+    Mono<Long> next() {
+        return Mono.defer(() -> {
+            Block block = current.get();
+            long value = block.next().getAndIncrement();
+            if (value < block.end()) {
+                return Mono.just(value);
+            }
+            return reserveBlock.get().map(first -> {
+                current.set(new Block(new AtomicLong(first + 1), first + blockSize));
+                return first;
+            });
+        });
+    }
+}
@@ -0,0 +1,96 @@
+package com.raiffeisen.bank.reactive;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.reactive.controllers.AccountController;
+import com.raiffeisen.bank.reactive.services.AccountService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@WebFluxTest(AccountController.class)
+public class AccountControllerTest {
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @MockBean
+    AccountService accountService;
+
+    @Test
+    void testGetAccountById() {
+        Mockito.when(accountService.getAccountDTOById(1L)).thenReturn(Mono.just(AccountDTO.builder()
+                .id(1L)
+                .clientID(1L)
+                .balance(Money.ofMinor(10050))
+                .build()));
+        Mockito.when(accountService.getAccountDTOById(2L)).thenReturn(Mono.empty());
+
+        webTestClient.get().uri("/api/accounts/1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.balance").isEqualTo(100.50);
+        webTestClient.get().uri("/api/accounts/2")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void testWithdrawFromAccount() {
+        Map<String, BalanceOperationStatus> statusesByAccountNumber = Map.of(
+                "active", BalanceOperationStatus.SUCCESS,
+                "closed", BalanceOperationStatus.ACCOUNT_CLOSED,
+                "poor", BalanceOperationStatus.INSUFFICIENT_FUNDS);
+        statusesByAccountNumber.forEach((accountNumber, status) -> Mockito
+                .when(accountService.applyAccountBalanceDelta(accountNumber, -10000))
+                .thenReturn(Mono.just(status)));
+
+        Map<String, Integer> expectedStatusCodes = Map.of(
+                "active", 200,
+                "closed", 409,
+                "poor", 422);
+
+        expectedStatusCodes.forEach((accountNumber, statusCode) -> webTestClient.put().uri("/api/accounts/withdraw")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("accountNumber", accountNumber, "amount", 100.0))
+                .exchange()
+                .expectStatus().isEqualTo(statusCode));
+
+        webTestClient.put().uri("/api/accounts/withdraw")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("accountNumber", "active", "amount", -1))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void testExportAccounts() {
+        Mockito.when(accountService.exportAccountDTOs(Mockito.any(QueryAccountsRequest.class))).thenReturn(Flux.just(
+                AccountDTO.builder().id(1L).clientID(1L).build(),
+                AccountDTO.builder().id(2L).clientID(1L).build()));
+
+        webTestClient.method(HttpMethod.GET).uri("/api/accounts/export")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("clientID", 1))
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(AccountDTO.class)
+                .hasSize(2);
+    }
+}
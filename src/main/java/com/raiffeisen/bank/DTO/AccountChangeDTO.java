@@ -0,0 +1,13 @@
+package com.raiffeisen.bank.DTO;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class AccountChangeDTO {
+    // resumes the feed right after this change
+    String offset;
+
+    AccountDTO account;
+}
@@ -0,0 +1,15 @@
+package com.raiffeisen.bank.DTO;
+
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class AccountChangePageDTO {
+    List<AccountChangeDTO> changes;
+
+    // resumes the feed after the last change, or where it was if there are none
+    String offset;
+}
@@ -4,12 +4,13 @@ import java.time.LocalDateTime;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.Money;
 import jakarta.validation.constraints.NotNull;
 import lombok.Builder;
 import lombok.Data;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 public class AccountDTO {
     Long id;
 
@@ -18,7 +19,7 @@ public class AccountDTO {
 
     String accountNumber;
     
-    Double balance;
+    Money balance;
 
     AccountStatus status;
 
@@ -0,0 +1,15 @@
+package com.raiffeisen.bank.DTO;
+
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class AccountPageDTO {
+    List<AccountDTO> accounts;
+
+    // null when there are no more pages
+    String nextCursor;
+}
@@ -0,0 +1,23 @@
+package com.raiffeisen.bank.DTO;
+
+import java.math.BigDecimal;
+
+import jakarta.validation.constraints.Digits;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceOperationRequest {
+    @NotBlank
+    String accountNumber;
+
+    // positive for a deposit, negative for a withdrawal
+    @NotNull
+    @Digits(integer = 15, fraction = 2)
+    BigDecimal amount;
+}
@@ -0,0 +1,17 @@
+package com.raiffeisen.bank.DTO;
+
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.models.Money;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BalanceOperationResultDTO {
+    String accountNumber;
+
+    Money amount;
+
+    BalanceOperationStatus status;
+}
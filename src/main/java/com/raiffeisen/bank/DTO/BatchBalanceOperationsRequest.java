@@ -0,0 +1,15 @@
+package com.raiffeisen.bank.DTO;
+
+import java.util.List;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+@Data
+public class BatchBalanceOperationsRequest {
+    @NotEmpty
+    @Size(max = 10000)
+    List<@Valid BalanceOperationRequest> operations;
+}
@@ -0,0 +1,17 @@
+package com.raiffeisen.bank.DTO;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Data;
+
+@Data
+public class OpenNewAccountsRequest {
+    @NotNull
+    Long clientID;
+
+    @NotNull
+    @Positive
+    @Max(1000)
+    Integer count;
+}
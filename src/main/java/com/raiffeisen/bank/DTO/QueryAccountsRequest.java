@@ -1,29 +1,50 @@
 package com.raiffeisen.bank.DTO;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
+import org.springframework.format.annotation.DateTimeFormat;
+
 import com.fasterxml.jackson.annotation.JsonFormat;
 
+import jakarta.validation.constraints.Digits;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class QueryAccountsRequest {
 
     @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
     LocalDateTime createdAtUB;
     @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
     LocalDateTime createdAtLB;
 
     @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
     LocalDateTime updatedAtUB;
     @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
     LocalDateTime updatedAtLB;
 
-    Double balanceUB;
-    Double balanceLB;
+    @Digits(integer = 15, fraction = 2)
+    BigDecimal balanceUB;
+    @Digits(integer = 15, fraction = 2)
+    BigDecimal balanceLB;
 
     Long clientID;    
+
+    @Positive
+    Integer limit;
+
+    // nextCursor of the previous page, null for the first one
+    String cursor;
 }
 
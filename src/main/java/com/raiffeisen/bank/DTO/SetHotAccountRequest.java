@@ -0,0 +1,19 @@
+package com.raiffeisen.bank.DTO;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Data;
+
+@Data
+public class SetHotAccountRequest {
+    @NotBlank
+    String accountNumber;
+
+    // 0 turns hot account mode off
+    @NotNull
+    @PositiveOrZero
+    @Max(64)
+    Integer slots;
+}
@@ -0,0 +1,23 @@
+package com.raiffeisen.bank.DTO;
+
+import java.math.BigDecimal;
+
+import jakarta.validation.constraints.Digits;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Data;
+
+@Data
+public class TransferRequest {
+    @NotBlank
+    String fromAccountNumber;
+
+    @NotBlank
+    String toAccountNumber;
+
+    @Positive
+    @NotNull
+    @Digits(integer = 15, fraction = 2)
+    BigDecimal amount;
+}
@@ -1,5 +1,8 @@
 package com.raiffeisen.bank.DTO;
 
+import java.math.BigDecimal;
+
+import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.PositiveOrZero;
@@ -12,5 +15,6 @@ public class WithdrawFromAccountRequest {
     
     @PositiveOrZero
     @NotNull
-    Double amount;
+    @Digits(integer = 15, fraction = 2)
+    BigDecimal amount;
 }
@@ -0,0 +1,82 @@
+package com.raiffeisen.bank.controllers;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.raiffeisen.bank.DTO.AccountChangeDTO;
+import com.raiffeisen.bank.DTO.AccountChangePageDTO;
+import com.raiffeisen.bank.services.AccountChangeFeed;
+
+/**
+ * One server-sent event stream of the account change feed. Each change is an "account" event whose id is
+ * the change's offset, so a reconnecting EventSource resumes through its Last-Event-ID header. A dispatch
+ * thread reads the next page and hands it to a writer thread, which sends it and only then registers for
+ * the next one: a stream holds at most one page, and a client that reads slowly holds up only its own writer.
+ * A stream that gets no writer thread is completed; the client reconnects from the last event it received.
+ */
+final class AccountChangeStream {
+
+    private final AccountChangeFeed feed;
+    private final SseEmitter emitter;
+    private String offset;
+    private volatile Runnable cancel;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    AccountChangeStream(AccountChangeFeed feed, SseEmitter emitter, String offset) {
+        this.feed = feed;
+        this.emitter = emitter;
+        this.offset = offset;
+        emitter.onCompletion(this::close);
+        emitter.onTimeout(this::close);
+        emitter.onError(e -> close());
+    }
+
+    // never blocks on the client, it runs on the dispatch threads every stream of the node shares
+    void deliver() {
+        AccountChangePageDTO page;
+        try {
+            page = feed.read(offset, AccountChangeFeed.MAX_PAGE_SIZE);
+        } catch (RuntimeException e) { // the outbox could not be read
+            emitter.completeWithError(e);
+            return;
+        }
+        offset = page.getOffset();
+        if (!feed.write(() -> send(page.getChanges()))) {
+            emitter.complete();
+        }
+    }
+
+    private void send(List<AccountChangeDTO> changes) {
+        try {
+            for (AccountChangeDTO change : changes) {
+                emitter.send(SseEmitter.event()
+                        .id(change.getOffset())
+                        .name("account")
+                        .data(change.getAccount()));
+            }
+        } catch (IOException | RuntimeException e) { // the client went away
+            emitter.completeWithError(e);
+            return;
+        }
+        // right away if a full page left more behind
+        cancel = feed.whenChangedAfter(offset, this::deliver);
+        if (closed.get()) { // closed while registering
+            cancel.run();
+        }
+    }
+
+    // the emitter may report both an error and the completion
+    private void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        feed.closeStream();
+        Runnable pending = cancel;
+        if (pending != null) {
+            pending.run();
+        }
+    }
+}
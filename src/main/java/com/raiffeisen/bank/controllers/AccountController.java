@@ -1,27 +1,58 @@
 package com.raiffeisen.bank.controllers;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import com.raiffeisen.bank.DTO.AccountChangePageDTO;
 import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.AccountPageDTO;
+import com.raiffeisen.bank.DTO.BalanceOperationResultDTO;
+import com.raiffeisen.bank.DTO.BatchBalanceOperationsRequest;
 import com.raiffeisen.bank.DTO.CloseAccountRequest;
 import com.raiffeisen.bank.DTO.DepositToAccountRequest;
 import com.raiffeisen.bank.DTO.GetAccountByAccountNumberRequest;
 import com.raiffeisen.bank.DTO.GetRecentAccountsRequest;
 import com.raiffeisen.bank.DTO.OpenNewAccountRequest;
+import com.raiffeisen.bank.DTO.OpenNewAccountsRequest;
 import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.DTO.SetHotAccountRequest;
+import com.raiffeisen.bank.DTO.TransferRequest;
 import com.raiffeisen.bank.DTO.WithdrawFromAccountRequest;
+import com.raiffeisen.bank.models.AccountVersion;
+import com.raiffeisen.bank.models.AccountVersionPage;
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.routing.ConsistencyToken;
+import com.raiffeisen.bank.routing.Shards;
+import com.raiffeisen.bank.services.AccountChangeFeed;
 import com.raiffeisen.bank.services.AccountService;
+import com.raiffeisen.bank.services.IdempotencyService;
 
 import jakarta.validation.Valid;
 
@@ -30,17 +61,47 @@ import jakarta.validation.Valid;
 public class AccountController {
 
     private static final int DEFAULT_RECENTS_LIMIT = 5;
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final long MAX_CHANGES_WAIT_MILLIS = 60_000;
+    // EventSource reconnects on its own, with the Last-Event-ID to resume from
+    private static final long CHANGE_STREAM_TIMEOUT_MILLIS = 600_000;
     private final AccountService accountService;
+    private final IdempotencyService idempotencyService;
+    private final AccountChangeFeed accountChangeFeed;
+    private final Shards shards;
+    private final ObjectMapper objectMapper;
+    private final CacheControl cacheControl;
 
     @Autowired
-    public AccountController(AccountService accountService) {
+    public AccountController(AccountService accountService, IdempotencyService idempotencyService,
+            AccountChangeFeed accountChangeFeed, Shards shards, ObjectMapper objectMapper,
+            @Value("${bank.http-cache.max-age-seconds:0}") long maxAgeSeconds) {
         this.accountService = accountService;
+        this.idempotencyService = idempotencyService;
+        this.accountChangeFeed = accountChangeFeed;
+        this.shards = shards;
+        this.objectMapper = objectMapper;
+        this.cacheControl = HttpCaching.cacheControl(maxAgeSeconds);
     }
 
     @PostMapping("/open")
-    public ResponseEntity<AccountDTO> openNewAccount(@RequestBody @Valid OpenNewAccountRequest r) {
+    public ResponseEntity<AccountDTO> openNewAccount(@RequestBody @Valid OpenNewAccountRequest r,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        // the key is stored on the shard the operation writes to, in the same transaction
+        return shards.on(shards.ofClient(r.getClientID()), () -> idempotencyService.execute(idempotencyKey, "open", r,
+                AccountDTO.class, () -> {
+                    AccountDTO opened = accountService.openNewAccount(r.getClientID());
+                    if (opened == null) {
+                        return ResponseEntity.notFound().build();
+                    }
+                    return ResponseEntity.ok(opened);
+                }));
+    }
 
-        AccountDTO opened = accountService.openNewAccount(r.getClientID());
+    @PostMapping("/open_bulk")
+    public ResponseEntity<List<AccountDTO>> openNewAccounts(@RequestBody @Valid OpenNewAccountsRequest r) {
+        List<AccountDTO> opened = accountService.openNewAccounts(r.getClientID(), r.getCount());
         if (opened == null) {
             return ResponseEntity.notFound().build();
         }
@@ -48,68 +109,251 @@ public class AccountController {
     }
 
     @PostMapping("/close")
-    public ResponseEntity<String> closeAccount(@RequestBody @Valid CloseAccountRequest r) {
-        boolean isSuccessful = accountService.closeAccountByAccountNumber(r.getAccountNumber());
-        if (!isSuccessful) {
-            return ResponseEntity.notFound().build();
-        }
-        return ResponseEntity.ok("Account closed successfully.");
+    public ResponseEntity<String> closeAccount(@RequestBody @Valid CloseAccountRequest r,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        // a keyed operation runs in the transaction of its key, where journaled credits are not applied
+        accountService.applyJournaledCredits(r.getAccountNumber());
+        return shards.on(shards.ofAccountNumber(r.getAccountNumber()), () -> idempotencyService.execute(idempotencyKey,
+                "close", r, String.class, () -> {
+                    boolean isSuccessful = accountService.closeAccountByAccountNumber(r.getAccountNumber());
+                    if (!isSuccessful) {
+                        return ResponseEntity.notFound().build();
+                    }
+                    return ResponseEntity.ok("Account closed successfully.");
+                }));
     }
 
     @PutMapping("/deposit")
-    public ResponseEntity<String> depositToAccount(@RequestBody @Valid DepositToAccountRequest r) {
+    public ResponseEntity<String> depositToAccount(@RequestBody @Valid DepositToAccountRequest r,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        return shards.on(shards.ofAccountNumber(r.getAccountNumber()), () -> idempotencyService.execute(idempotencyKey,
+                "deposit", r, String.class, () -> {
+                    BalanceOperationStatus status = accountService.applyAccountBalanceDelta(r.getAccountNumber(),
+                            Money.toMinorUnits(r.getAmount()));
+                    return balanceOperationResponse(status, "Deposit successful");
+                }));
+    }
 
-        boolean isSuccessful = accountService.applyAccountBalanceDelta(r.getAccountNumber(), r.getAmount());
-        if (!isSuccessful) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body("Account with the provided account number doesn't exist");
+    @PutMapping("/withdraw")
+    public ResponseEntity<String> withdrawFromAccount(@RequestBody @Valid WithdrawFromAccountRequest r,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        accountService.applyJournaledCredits(r.getAccountNumber());
+        return shards.on(shards.ofAccountNumber(r.getAccountNumber()), () -> idempotencyService.execute(idempotencyKey,
+                "withdraw", r, String.class, () -> {
+                    BalanceOperationStatus status = accountService.applyAccountBalanceDelta(r.getAccountNumber(),
+                            -Money.toMinorUnits(r.getAmount()));
+                    return balanceOperationResponse(status, "Withdrawal successful");
+                }));
+    }
+
+    @PostMapping("/transfer")
+    public ResponseEntity<String> transfer(@RequestBody @Valid TransferRequest r) {
+        if (r.getFromAccountNumber().equals(r.getToAccountNumber())) {
+            return ResponseEntity.badRequest().body("Cannot transfer to the same account");
         }
+        BalanceOperationStatus status = accountService.transfer(r.getFromAccountNumber(), r.getToAccountNumber(),
+                Money.toMinorUnits(r.getAmount()));
+        return balanceOperationResponse(status, "Transfer successful");
+    }
 
-        return ResponseEntity.ok("Deposit successful");
+    // always 200, the outcome of every operation is in its own result
+    @PutMapping("/batch")
+    public ResponseEntity<List<BalanceOperationResultDTO>> applyBalanceOperations(
+            @RequestBody @Valid BatchBalanceOperationsRequest r) {
+        return ResponseEntity.ok(accountService.applyAccountBalanceDeltas(r.getOperations()));
     }
 
-    @PutMapping("/withdraw")
-    public ResponseEntity<String> withdrawFromAccount(@RequestBody @Valid WithdrawFromAccountRequest r) {
-        boolean isSuccessful = accountService.applyAccountBalanceDelta(r.getAccountNumber(), -r.getAmount());
+    private ResponseEntity<String> balanceOperationResponse(BalanceOperationStatus status, String successMessage) {
+        return switch (status) {
+            case SUCCESS -> ResponseEntity.ok(successMessage);
+            case ACCOUNT_NOT_FOUND -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("Account with the provided account number doesn't exist");
+            case ACCOUNT_CLOSED -> ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("Account with the provided account number is closed");
+            case INSUFFICIENT_FUNDS -> ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .body("Insufficient funds");
+        };
+    }
+
+    @PutMapping("/hot")
+    public ResponseEntity<String> setHotAccount(@RequestBody @Valid SetHotAccountRequest r) {
+        boolean isSuccessful = accountService.setHotAccountSlots(r.getAccountNumber(), r.getSlots());
         if (!isSuccessful) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("Account with the provided account number doesn't exist");
         }
-
-        return ResponseEntity.ok("Withdrawal successful");
+        return ResponseEntity.ok(r.getSlots() > 0
+                ? "Account balance split into " + r.getSlots() + " slots"
+                : "Account balance merged into a single slot");
     }
 
+    // a conditional GET is checked against the account's version first, the account is only loaded when it changed
     @GetMapping("/{id}")
-    public ResponseEntity<AccountDTO> getAccountById(@PathVariable Long id) {
+    public ResponseEntity<AccountDTO> getAccountById(@PathVariable Long id,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            AccountVersion version = accountService.getAccountVersionById(id);
+            if (version != null && HttpCaching.matches(ifNoneMatch, HttpCaching.eTag(version))) {
+                return HttpCaching.notModified(HttpCaching.eTag(version), cacheControl);
+            }
+        }
         AccountDTO account = accountService.getAccountDTOById(id);
         if (account == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
         }
-        return ResponseEntity.ok(account);
+        return HttpCaching.ok(account, HttpCaching.eTag(account), cacheControl);
     }
 
+    // by_number, recent and query read their criteria from the query string, which HTTP caches key on; a JSON
+    // body, sent with its Content-Type, is still accepted instead
     @GetMapping("/by_number")
-    public ResponseEntity<AccountDTO> getAccountByAccountNumber(@RequestBody @Valid GetAccountByAccountNumberRequest r) {
+    public ResponseEntity<AccountDTO> getAccountByAccountNumber(@Valid GetAccountByAccountNumberRequest r,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            AccountVersion version = accountService.getAccountVersionByAccountNumber(r.getAccountNumber());
+            if (version != null && HttpCaching.matches(ifNoneMatch, HttpCaching.eTag(version))) {
+                return HttpCaching.notModified(HttpCaching.eTag(version), cacheControl);
+            }
+        }
         AccountDTO account = accountService.getAccountDTOByAccountNumber(r.getAccountNumber());
         if (account == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
         }
-        return ResponseEntity.ok(account);
+        return HttpCaching.ok(account, HttpCaching.eTag(account), cacheControl);
+    }
+
+    @GetMapping(value = "/by_number", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<AccountDTO> getAccountByAccountNumberFromBody(
+            @RequestBody @Valid GetAccountByAccountNumberRequest r,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return getAccountByAccountNumber(r, ifNoneMatch);
     }
 
     @GetMapping("/recent")
-    public ResponseEntity<List<AccountDTO>> getRecentAccounts(@RequestBody @Valid GetRecentAccountsRequest r) {
+    public ResponseEntity<List<AccountDTO>> getRecentAccounts(@Valid GetRecentAccountsRequest r,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 
         int limit = r.getLimit() != null ? r.getLimit() : DEFAULT_RECENTS_LIMIT;
 
-        return ResponseEntity.ok(accountService.getRecentAccounts(r.getClientID(), limit));
+        if (ifNoneMatch != null) {
+            String eTag = HttpCaching.versionsETag(accountService.getRecentAccountVersions(r.getClientID(), limit),
+                    null);
+            if (HttpCaching.matches(ifNoneMatch, eTag)) {
+                return HttpCaching.notModified(eTag, cacheControl);
+            }
+        }
+        List<AccountDTO> accounts = accountService.getRecentAccounts(r.getClientID(), limit);
+        return HttpCaching.ok(accounts, HttpCaching.eTag(accounts, null), cacheControl);
     }
 
-
+    @GetMapping(value = "/recent", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<AccountDTO>> getRecentAccountsFromBody(@RequestBody @Valid GetRecentAccountsRequest r,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return getRecentAccounts(r, ifNoneMatch);
+    }
 
     @GetMapping("/query")
-    public ResponseEntity<List<AccountDTO>> queryAccounts(@RequestBody @Valid QueryAccountsRequest r) {
-        return ResponseEntity.ok(accountService.queryAccountDTOs(r));
+    public ResponseEntity<AccountPageDTO> queryAccounts(@Valid QueryAccountsRequest r,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            AccountVersionPage versions = accountService.queryAccountVersions(r);
+            if (versions != null) {
+                String eTag = HttpCaching.versionsETag(versions.accounts(), versions.nextCursor());
+                if (HttpCaching.matches(ifNoneMatch, eTag)) {
+                    return HttpCaching.notModified(eTag, cacheControl);
+                }
+            }
+        }
+        AccountPageDTO page = accountService.queryAccountDTOs(r);
+        if (page == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return HttpCaching.ok(page, HttpCaching.eTag(page.getAccounts(), page.getNextCursor()), cacheControl);
+    }
+
+    @GetMapping(value = "/query", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<AccountPageDTO> queryAccountsFromBody(@RequestBody @Valid QueryAccountsRequest r,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return queryAccounts(r, ifNoneMatch);
+    }
+
+    // one AccountDTO per line, written while the rows are still being read
+    @GetMapping(value = "/export", produces = NDJSON_MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> exportAccounts(@RequestBody @Valid QueryAccountsRequest r) {
+        ObjectWriter writer = objectMapper.writerFor(AccountDTO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        // written on another thread, which has to see the request's consistency token too
+        Long requiredLsn = ConsistencyToken.required();
+        StreamingResponseBody body = out -> {
+            ConsistencyToken.require(requiredLsn);
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                accountService.exportAccountDTOs(r, account -> {
+                    try {
+                        writer.writeValue(generator, account);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } finally {
+                ConsistencyToken.clear();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON_MEDIA_TYPE))
+                .body(body);
+    }
+
+    // long poll: answers as soon as there are changes after the offset, or with none once waitMs has passed
+    @GetMapping("/changes")
+    public DeferredResult<ResponseEntity<AccountChangePageDTO>> getAccountChanges(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "100") int limit,
+            @RequestParam(defaultValue = "30000") long waitMs) {
+        if (!accountChangeFeed.isEnabled()) {
+            return completed(ResponseEntity.notFound().build());
+        }
+        AccountChangePageDTO page = accountChangeFeed.read(after, limit);
+        if (page == null) {
+            return completed(ResponseEntity.badRequest().build());
+        }
+        if (!page.getChanges().isEmpty() || waitMs <= 0) {
+            return completed(ResponseEntity.ok(page));
+        }
+        DeferredResult<ResponseEntity<AccountChangePageDTO>> waiting = new DeferredResult<>(
+                Math.min(waitMs, MAX_CHANGES_WAIT_MILLIS), ResponseEntity.ok(page));
+        Runnable cancel = accountChangeFeed.whenChangedAfter(page.getOffset(),
+                () -> waiting.setResult(ResponseEntity.ok(accountChangeFeed.read(page.getOffset(), limit))));
+        waiting.onCompletion(cancel);
+        return waiting;
+    }
+
+    private static <T> DeferredResult<T> completed(T result) {
+        DeferredResult<T> completed = new DeferredResult<>();
+        completed.setResult(result);
+        return completed;
     }
 
+    // the same feed as server-sent events, resumed from the Last-Event-ID header or the after parameter
+    @GetMapping(value = "/changes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamAccountChanges(
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(required = false) String after) {
+        if (!accountChangeFeed.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        String offset = lastEventId != null ? lastEventId : after;
+        if (offset == null) {
+            offset = accountChangeFeed.currentOffset();
+        } else if (accountChangeFeed.read(offset, 1) == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!accountChangeFeed.openStream()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        SseEmitter emitter = new SseEmitter(CHANGE_STREAM_TIMEOUT_MILLIS);
+        new AccountChangeStream(accountChangeFeed, emitter, offset).deliver();
+        return ResponseEntity.ok(emitter);
+    }
 }
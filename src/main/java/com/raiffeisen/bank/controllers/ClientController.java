@@ -1,6 +1,8 @@
 package com.raiffeisen.bank.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -20,10 +22,13 @@ import jakarta.validation.Valid;
 public class ClientController {
 
     private final ClientService clientService;
+    private final CacheControl cacheControl;
 
     @Autowired
-    public ClientController(ClientService clientService) {
+    public ClientController(ClientService clientService,
+            @Value("${bank.http-cache.max-age-seconds:0}") long maxAgeSeconds) {
         this.clientService = clientService;
+        this.cacheControl = HttpCaching.cacheControl(maxAgeSeconds);
     }
 
     @PostMapping("/create")
@@ -38,7 +43,7 @@ public class ClientController {
         if (client == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(client);
+        return HttpCaching.ok(client, HttpCaching.eTag(client), cacheControl);
     }
 
 }
@@ -0,0 +1,148 @@
+package com.raiffeisen.bank.controllers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.ClientDTO;
+import com.raiffeisen.bank.models.AccountVersion;
+
+/**
+ * Strong ETags for account and client responses, computed from the DTOs rather than from the serialized
+ * body. Spring answers a GET whose If-None-Match matches the ETag of a 200 ResponseEntity with 304 before
+ * the body is written, so a revalidation costs the lookup but no serialization or transfer.
+ * <p>
+ * An account's version is its updatedAt together with its balance: credits to hot account slots and
+ * journaled deposits change the balance without touching updated_at. Clients are never updated, their
+ * ETag is a digest of their fields.
+ * <p>
+ * Account ETags are computed from {@link AccountVersion}s, which can be read without the accounts: a request
+ * whose If-None-Match already matches is answered with 304 from the version before the body is loaded.
+ */
+final class HttpCaching {
+
+    // 128 bits of SHA-256 for pages and clients
+    private static final int DIGEST_BYTES = 16;
+
+    private HttpCaching() {
+    }
+
+    // balances are per customer, only the client's own cache may store them; no-cache still lets it store the
+    // response, it revalidates it with If-None-Match before every use
+    static CacheControl cacheControl(long maxAgeSeconds) {
+        return maxAgeSeconds > 0
+                ? CacheControl.maxAge(Duration.ofSeconds(maxAgeSeconds)).cachePrivate()
+                : CacheControl.noCache().cachePrivate();
+    }
+
+    // whether If-None-Match lists the ETag, or is *; weak tags compare by value, as they do for a GET
+    static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static <T> ResponseEntity<T> notModified(String eTag, CacheControl cacheControl) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(eTag)
+                .cacheControl(cacheControl)
+                .build();
+    }
+
+    static <T> ResponseEntity<T> ok(T body, String eTag, CacheControl cacheControl) {
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(cacheControl)
+                .body(body);
+    }
+
+    static String eTag(AccountDTO account) {
+        return '"' + version(account) + '"';
+    }
+
+    static String eTag(AccountVersion account) {
+        return '"' + version(account) + '"';
+    }
+
+    // the page's accounts in order, and where the next page starts
+    static String eTag(List<AccountDTO> accounts, String nextCursor) {
+        return pageETag(accounts.stream().map(HttpCaching::version).toList(), nextCursor);
+    }
+
+    static String versionsETag(List<AccountVersion> accounts, String nextCursor) {
+        return pageETag(accounts.stream().map(HttpCaching::version).toList(), nextCursor);
+    }
+
+    private static String pageETag(List<String> versions, String nextCursor) {
+        MessageDigest digest = sha256();
+        for (String version : versions) {
+            update(digest, version);
+        }
+        update(digest, nextCursor);
+        return quotedDigest(digest);
+    }
+
+    static String eTag(ClientDTO client) {
+        MessageDigest digest = sha256();
+        update(digest, String.valueOf(client.getId()));
+        update(digest, client.getFirstName());
+        update(digest, client.getLastName());
+        update(digest, client.getEmail());
+        return quotedDigest(digest);
+    }
+
+    private static String version(AccountDTO account) {
+        return version(account.getId(), account.getUpdatedAt(), account.getBalance().minorUnits());
+    }
+
+    private static String version(AccountVersion account) {
+        return version(account.id(), account.updatedAt(), account.balance());
+    }
+
+    private static String version(Long id, LocalDateTime updatedAt, long balance) {
+        return id + "-" + updatedAt.toEpochSecond(ZoneOffset.UTC) + "." + updatedAt.getNano() + "-" + balance;
+    }
+
+    // length-prefixed, so neither adjacent values nor null and "" can run into each other
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static String quotedDigest(MessageDigest digest) {
+        return '"' + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Arrays.copyOf(digest.digest(), DIGEST_BYTES)) + '"';
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+}
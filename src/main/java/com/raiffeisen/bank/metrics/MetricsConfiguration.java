@@ -0,0 +1,28 @@
+package com.raiffeisen.bank.metrics;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.handler.MappedInterceptor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Metrics beyond what Actuator binds on its own (HTTP server requests, Hikari, repository invocations);
+ * histogram buckets for all of them are set in application.properties.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    // handler mappings pick MappedInterceptor beans up by themselves
+    @Bean
+    public MappedInterceptor statementCountInterceptor(MeterRegistry meterRegistry) {
+        return new MappedInterceptor(new String[] { "/api/**" }, new StatementCountInterceptor(meterRegistry));
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer statementCounterCustomizer() {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, new StatementCounter());
+    }
+}
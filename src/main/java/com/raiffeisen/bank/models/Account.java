@@ -6,11 +6,13 @@ import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -25,19 +27,28 @@ import lombok.NoArgsConstructor;
 @Table(name = "accounts")
 public class Account {
 
+    // pooled ids let Hibernate batch inserts, IDENTITY needs a round trip per row to learn the id
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "accounts_id_seq")
+    @SequenceGenerator(name = "accounts_id_seq", sequenceName = "accounts_id_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne
+    // only the id is ever read on the account paths, and a proxy answers that without a query
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "client_id")
     private Client client;
 
     @Column(nullable = false, unique = true)
     private String accountNumber;
 
+    // minor units, see Money
     @Column(nullable = false)
-    private Double balance;
+    private long balance;
+
+    // number of account_balance_slots rows holding the rest of the balance, 0 for a regular account
+    @Builder.Default
+    @Column(nullable = false)
+    private Integer balanceSlots = 0;
 
     @Column(nullable = false)
     @Enumerated(EnumType.STRING)
@@ -0,0 +1,10 @@
+package com.raiffeisen.bank.models;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+
+/**
+ * A row of account_change_outbox: the state of an account right after a write. Changes of one shard are
+ * ordered by (txid, id).
+ */
+public record AccountChange(long txid, long id, AccountDTO account) {
+}
@@ -0,0 +1,17 @@
+package com.raiffeisen.bank.models;
+
+import java.time.LocalDateTime;
+
+/**
+ * What an account's ETag is computed from, read without the rest of the row so that a conditional GET can be
+ * answered before the account is loaded. Rows of a hot account still count their balance slots in
+ * balanceSlots; AccountService adds the slots, and pending journal credits, to the balance before handing
+ * a version out.
+ */
+public record AccountVersion(Long id, String accountNumber, LocalDateTime updatedAt, Long balance,
+        Integer balanceSlots) {
+
+    public AccountVersion withBalance(long balance) {
+        return new AccountVersion(id, accountNumber, updatedAt, balance, 0);
+    }
+}
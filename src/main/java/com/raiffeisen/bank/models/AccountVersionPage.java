@@ -0,0 +1,7 @@
+package com.raiffeisen.bank.models;
+
+import java.util.List;
+
+// the versions of a page of /api/accounts/query, with the cursor of the next page like AccountPageDTO
+public record AccountVersionPage(List<AccountVersion> accounts, String nextCursor) {
+}
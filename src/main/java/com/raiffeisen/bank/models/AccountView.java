@@ -0,0 +1,18 @@
+package com.raiffeisen.bank.models;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read-only projection of an accounts row for the read endpoints. clientId is taken straight from the
+ * client_id column, so reading accounts this way never loads a Client. Built by the constructor expressions
+ * in AccountRepository and AccountViewQueriesImpl.
+ */
+public record AccountView(Long id, Long clientId, String accountNumber, Long balance, Integer balanceSlots,
+        AccountStatus status, LocalDateTime createdAt, LocalDateTime updatedAt) {
+
+    public static AccountView of(Account account) {
+        return new AccountView(account.getId(), account.getClient().getId(), account.getAccountNumber(),
+                account.getBalance(), account.getBalanceSlots(), account.getStatus(), account.getCreatedAt(),
+                account.getUpdatedAt());
+    }
+}
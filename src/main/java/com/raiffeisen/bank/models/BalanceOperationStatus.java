@@ -0,0 +1,5 @@
+package com.raiffeisen.bank.models;
+
+public enum BalanceOperationStatus {
+    SUCCESS, ACCOUNT_NOT_FOUND, ACCOUNT_CLOSED, INSUFFICIENT_FUNDS
+}
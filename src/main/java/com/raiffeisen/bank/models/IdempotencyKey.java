@@ -0,0 +1,39 @@
+package com.raiffeisen.bank.models;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "idempotency_keys")
+public class IdempotencyKey {
+
+    // "<operation>:<Idempotency-Key header>"
+    @Id
+    @Column(name = "idempotency_key")
+    private String key;
+
+    // hex SHA-256 of the canonical request, tells a retry apart from a different request reusing the key
+    @Column(nullable = false, length = 64)
+    private String requestHash;
+
+    private Integer statusCode;
+
+    // JSON of the response body, null for an empty one
+    private String body;
+
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+}
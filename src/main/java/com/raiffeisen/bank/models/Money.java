@@ -0,0 +1,59 @@
+package com.raiffeisen.bank.models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * An amount of money as a whole number of minor units (cents). Balances are stored and computed as plain
+ * {@code long}s, the static helpers below do the arithmetic without boxing or allocating; an instance only
+ * wraps the value at the JSON boundary, where it is written as an exact decimal such as {@code 100.50}.
+ */
+public record Money(long minorUnits) {
+
+    public static final int SCALE = 2;
+
+    public static final Money ZERO = new Money(0);
+
+    public static Money ofMinor(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    /**
+     * @throws ArithmeticException if the amount has more than {@link #SCALE} decimal places or does not
+     *                             fit into a long
+     */
+    @JsonCreator
+    public static Money of(BigDecimal amount) {
+        return ofMinor(toMinorUnits(amount));
+    }
+
+    public static long toMinorUnits(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    // overflow throws instead of silently wrapping a balance around
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    @JsonValue
+    public BigDecimal toBigDecimal() {
+        return toBigDecimal(minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.raiffeisen.bank.models;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "parked_credits")
+public class ParkedCredit {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, updatable = false)
+    private String accountNumber;
+
+    // minor units
+    @Column(nullable = false, updatable = false)
+    private long amount;
+
+    // the balance journal and the sequence of the entry the credit came from
+    @Column(nullable = false, updatable = false)
+    private String journal;
+
+    @Column(nullable = false, updatable = false)
+    private long journalSequence;
+
+    // why the database rejected it
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, updatable = false)
+    private BalanceOperationStatus reason;
+
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+}
@@ -0,0 +1,43 @@
+package com.raiffeisen.bank.models;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "transfer_refunds")
+public class TransferRefund {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // the account the transfer was withdrawn from, on this shard
+    @Column(nullable = false, updatable = false)
+    private String accountNumber;
+
+    // where the deposit failed, for the logs
+    @Column(nullable = false, updatable = false)
+    private String toAccountNumber;
+
+    // minor units
+    @Column(nullable = false, updatable = false)
+    private long amount;
+
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+}
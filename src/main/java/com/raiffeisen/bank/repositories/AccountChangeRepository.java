@@ -0,0 +1,65 @@
+package com.raiffeisen.bank.repositories;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.models.AccountChange;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.Money;
+
+/**
+ * Reads account_change_outbox, which a trigger on accounts fills. Only rows of transactions that ended before
+ * the oldest one still running are returned: ordered by (txid, id), nothing can show up later in front of them.
+ */
+@Repository
+public class AccountChangeRepository {
+
+    private static final String SELECT_CHANGE = """
+            SELECT txid, id, account_id, client_id, account_number, balance, status, created_at, updated_at
+            FROM account_change_outbox
+            WHERE txid < txid_snapshot_xmin(txid_current_snapshot())
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public AccountChangeRepository(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public List<AccountChange> findAfter(long txid, long id, int limit) {
+        return jdbcTemplate.query(SELECT_CHANGE + " AND (txid, id) > (?, ?) ORDER BY txid, id LIMIT ?",
+                (rs, rowNum) -> mapRow(rs), txid, id, limit);
+    }
+
+    public Optional<AccountChange> findLast() {
+        return jdbcTemplate.query(SELECT_CHANGE + " ORDER BY txid DESC, id DESC LIMIT 1",
+                (rs, rowNum) -> mapRow(rs)).stream().findFirst();
+    }
+
+    public int deleteRecordedBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.update("DELETE FROM account_change_outbox WHERE recorded_at < ?", cutoff);
+    }
+
+    private static AccountChange mapRow(ResultSet rs) throws SQLException {
+        return new AccountChange(rs.getLong("txid"), rs.getLong("id"), AccountDTO.builder()
+                .id(rs.getLong("account_id"))
+                .clientID(rs.getLong("client_id"))
+                .accountNumber(rs.getString("account_number"))
+                .balance(Money.ofMinor(rs.getLong("balance")))
+                .status(AccountStatus.valueOf(rs.getString("status")))
+                .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
+                .updatedAt(rs.getTimestamp("updated_at").toLocalDateTime())
+                .build());
+    }
+}
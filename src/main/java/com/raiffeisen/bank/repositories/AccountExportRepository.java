@@ -0,0 +1,82 @@
+package com.raiffeisen.bank.repositories;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.Money;
+
+/**
+ * Forward-only reads for bulk exports. Rows are mapped straight from the {@link ResultSet} into
+ * {@link AccountDTO}s and handed to the caller one by one, nothing is kept in a persistence context.
+ * Postgres only streams with a fetch size inside a transaction, callers must run in one.
+ */
+@Repository
+public class AccountExportRepository {
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public AccountExportRepository(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    // same bounds as AccountSpecifications.matching, cursor and limit are ignored: an export is the whole result
+    public void streamAccountDTOs(QueryAccountsRequest r, Consumer<AccountDTO> consumer) {
+        StringBuilder sql = new StringBuilder("""
+                SELECT id, client_id, account_number, balance, status, created_at, updated_at
+                FROM accounts
+                WHERE status = 'ACTIVE'""");
+        List<Object> args = new ArrayList<>();
+
+        appendCondition(sql, args, " AND client_id = ?", r.getClientID());
+        if (r.getBalanceLB() != null) {
+            appendCondition(sql, args, " AND balance >= ?", Money.toMinorUnits(r.getBalanceLB()));
+        }
+        if (r.getBalanceUB() != null) {
+            appendCondition(sql, args, " AND balance < ?", Money.toMinorUnits(r.getBalanceUB()));
+        }
+        appendCondition(sql, args, " AND created_at > ?", r.getCreatedAtLB());
+        appendCondition(sql, args, " AND created_at <= ?", r.getCreatedAtUB());
+        appendCondition(sql, args, " AND updated_at > ?", r.getUpdatedAtLB());
+        appendCondition(sql, args, " AND updated_at <= ?", r.getUpdatedAtUB());
+        sql.append(" ORDER BY id");
+
+        jdbcTemplate.query(sql.toString(), rs -> {
+            consumer.accept(mapRow(rs));
+        }, args.toArray());
+    }
+
+    private static void appendCondition(StringBuilder sql, List<Object> args, String condition, Object value) {
+        if (value != null) {
+            sql.append(condition);
+            args.add(value);
+        }
+    }
+
+    private static AccountDTO mapRow(ResultSet rs) throws SQLException {
+        return AccountDTO.builder()
+                .id(rs.getLong("id"))
+                .clientID(rs.getLong("client_id"))
+                .accountNumber(rs.getString("account_number"))
+                .balance(Money.ofMinor(rs.getLong("balance")))
+                .status(AccountStatus.valueOf(rs.getString("status")))
+                .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
+                .updatedAt(rs.getTimestamp("updated_at").toLocalDateTime())
+                .build();
+    }
+}
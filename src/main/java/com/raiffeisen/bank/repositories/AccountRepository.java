@@ -1,22 +1,156 @@
 package com.raiffeisen.bank.repositories;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.raiffeisen.bank.models.Account;
 import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.AccountVersion;
+import com.raiffeisen.bank.models.AccountView;
+
+import jakarta.persistence.LockModeType;
 
 @Repository
-public interface AccountRepository extends JpaRepository<Account, Long> {
+public interface AccountRepository extends JpaRepository<Account, Long>, JpaSpecificationExecutor<Account>,
+        AccountViewQueries {
+
+    // a.client.id reads the foreign key column, it does not join clients
+    String SELECT_ACCOUNT_VIEW = """
+            SELECT new com.raiffeisen.bank.models.AccountView(a.id, a.client.id, a.accountNumber, a.balance,
+                a.balanceSlots, a.status, a.createdAt, a.updatedAt)
+            FROM Account a
+            """;
+
+    String SELECT_ACCOUNT_VERSION = """
+            SELECT new com.raiffeisen.bank.models.AccountVersion(a.id, a.accountNumber, a.updatedAt, a.balance,
+                a.balanceSlots)
+            FROM Account a
+            """;
 
     Optional<Account> findByAccountNumber(String accountNumber);
 
     List<Account> findByClient_Id(Long clientId);
 
-    List<Account> findByClient_IdAndStatusNot(Long clientID, AccountStatus status);
+    // the status lets the planner skip the accounts_closed partition
+    @Query(SELECT_ACCOUNT_VIEW + "WHERE a.id = :id AND a.status = com.raiffeisen.bank.models.AccountStatus.ACTIVE")
+    Optional<AccountView> findActiveViewById(@Param("id") Long id);
+
+    @Query(SELECT_ACCOUNT_VIEW
+            + "WHERE a.accountNumber = :accountNumber AND a.status = com.raiffeisen.bank.models.AccountStatus.ACTIVE")
+    Optional<AccountView> findActiveViewByAccountNumber(@Param("accountNumber") String accountNumber);
+
+    // served by the (client_id, updated_at DESC) index of accounts_active, reads only `limit` rows
+    @Query(SELECT_ACCOUNT_VIEW + "WHERE a.client.id = :clientId AND a.status = :status ORDER BY a.updatedAt DESC")
+    List<AccountView> findRecentViews(@Param("clientId") Long clientId, @Param("status") AccountStatus status,
+            Limit limit);
+
+    // the same lookups reading only what an ETag needs, for conditional GETs
+    @Query(SELECT_ACCOUNT_VERSION + "WHERE a.id = :id AND a.status = com.raiffeisen.bank.models.AccountStatus.ACTIVE")
+    Optional<AccountVersion> findActiveVersionById(@Param("id") Long id);
+
+    @Query(SELECT_ACCOUNT_VERSION
+            + "WHERE a.accountNumber = :accountNumber AND a.status = com.raiffeisen.bank.models.AccountStatus.ACTIVE")
+    Optional<AccountVersion> findActiveVersionByAccountNumber(@Param("accountNumber") String accountNumber);
+
+    @Query(SELECT_ACCOUNT_VERSION + "WHERE a.client.id = :clientId AND a.status = :status ORDER BY a.updatedAt DESC")
+    List<AccountVersion> findRecentVersions(@Param("clientId") Long clientId, @Param("status") AccountStatus status,
+            Limit limit);
+
+    // single round trip: the row lock taken by the UPDATE makes the balance check and the write atomic,
+    // empty result means the account is missing, closed or would go below zero
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE accounts
+            SET balance = balance + :delta, updated_at = LOCALTIMESTAMP
+            WHERE account_number = :accountNumber
+              AND status = 'ACTIVE'
+              AND balance + :delta >= 0
+            RETURNING *
+            """)
+    Optional<Account> applyBalanceDelta(@Param("accountNumber") String accountNumber, @Param("delta") long delta);
+
+    // touches only status and updated_at, so it cannot write back a stale balance; empty if the account is missing
+    // or already closed
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE accounts
+            SET status = 'CLOSED', updated_at = LOCALTIMESTAMP
+            WHERE account_number = :accountNumber
+              AND status = 'ACTIVE'
+            RETURNING id
+            """)
+    Optional<Long> closeByAccountNumber(@Param("accountNumber") String accountNumber);
+
+    // rows are always locked in id order so that concurrent multi-account writers cannot deadlock
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a WHERE a.accountNumber IN :accountNumbers ORDER BY a.id")
+    List<Account> findAllByAccountNumberInForUpdate(@Param("accountNumbers") Collection<String> accountNumbers);
+
+    List<Account> findByBalanceSlotsGreaterThan(Integer balanceSlots);
+
+    // credit to one sub-balance of a hot account, the accounts row itself is only read, never locked
+    @Transactional
+    @Query(nativeQuery = true, value = """
+            UPDATE account_balance_slots s
+            SET balance = s.balance + :delta
+            FROM accounts a
+            WHERE a.account_number = :accountNumber
+              AND a.status = 'ACTIVE'
+              AND s.account_id = a.id
+              AND s.slot = :slot
+            RETURNING s.account_id
+            """)
+    Optional<Long> creditBalanceSlot(@Param("accountNumber") String accountNumber, @Param("slot") int slot,
+            @Param("delta") long delta);
+
+    @Query(nativeQuery = true, value = "SELECT COALESCE(SUM(balance), 0)::bigint FROM account_balance_slots WHERE account_id = :accountId")
+    long sumBalanceSlots(@Param("accountId") Long accountId);
+
+    // zeroes every sub-balance and returns what they held, callers add it to accounts.balance
+    @Query(nativeQuery = true, value = """
+            UPDATE account_balance_slots s
+            SET balance = 0
+            FROM (SELECT account_id, slot, balance FROM account_balance_slots
+                  WHERE account_id = :accountId FOR UPDATE) old
+            WHERE s.account_id = old.account_id AND s.slot = old.slot
+            RETURNING old.balance
+            """)
+    List<Long> sweepBalanceSlots(@Param("accountId") Long accountId);
+
+    @Query(nativeQuery = true, value = "DELETE FROM account_balance_slots WHERE account_id = :accountId RETURNING balance")
+    List<Long> removeBalanceSlots(@Param("accountId") Long accountId);
+
+    @Modifying
+    @Query(nativeQuery = true, value = """
+            INSERT INTO account_balance_slots (account_id, slot, balance)
+            SELECT :accountId, slot, 0 FROM generate_series(0, :slots - 1) AS slot
+            """)
+    void createBalanceSlots(@Param("accountId") Long accountId, @Param("slots") int slots);
+
+    // last sequence of the named balance journal applied to this database, see BalanceJournal
+    @Query(nativeQuery = true, value = "SELECT applied_sequence FROM balance_journal_positions WHERE journal = :journal")
+    Optional<Long> findJournalPosition(@Param("journal") String journal);
+
+    @Modifying
+    @Query(nativeQuery = true, value = """
+            INSERT INTO balance_journal_positions (journal, applied_sequence)
+            VALUES (:journal, :sequence)
+            ON CONFLICT (journal) DO UPDATE SET applied_sequence = EXCLUDED.applied_sequence
+            """)
+    void saveJournalPosition(@Param("journal") String journal, @Param("sequence") long sequence);
 
-    List<Account> findByStatusNot(AccountStatus status);
+    // first serial of a freshly reserved block of account numbers
+    @Query(nativeQuery = true, value = "SELECT nextval('account_number_seq')")
+    Long reserveAccountNumberBlock();
 }
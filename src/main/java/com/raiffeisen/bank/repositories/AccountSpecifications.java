@@ -0,0 +1,56 @@
+package com.raiffeisen.bank.repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.Money;
+
+import jakarta.persistence.criteria.Predicate;
+
+public final class AccountSpecifications { // dynamic WHERE clauses for AccountRepository
+
+    private AccountSpecifications() {
+    }
+
+    // same bounds the in-memory filters used to apply: balance [LB, UB), timestamps (LB, UB]
+    public static Specification<Account> matching(QueryAccountsRequest r) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            // an equality on the partition key, so only accounts_active is scanned
+            predicates.add(cb.equal(root.get("status"), AccountStatus.ACTIVE));
+
+            if (r.getClientID() != null) {
+                predicates.add(cb.equal(root.get("client").get("id"), r.getClientID()));
+            }
+            if (r.getBalanceLB() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("balance"), Money.toMinorUnits(r.getBalanceLB())));
+            }
+            if (r.getBalanceUB() != null) {
+                predicates.add(cb.lessThan(root.get("balance"), Money.toMinorUnits(r.getBalanceUB())));
+            }
+            if (r.getCreatedAtLB() != null) {
+                predicates.add(cb.greaterThan(root.get("createdAt"), r.getCreatedAtLB()));
+            }
+            if (r.getCreatedAtUB() != null) {
+                predicates.add(cb.lessThanOrEqualTo(root.get("createdAt"), r.getCreatedAtUB()));
+            }
+            if (r.getUpdatedAtLB() != null) {
+                predicates.add(cb.greaterThan(root.get("updatedAt"), r.getUpdatedAtLB()));
+            }
+            if (r.getUpdatedAtUB() != null) {
+                predicates.add(cb.lessThanOrEqualTo(root.get("updatedAt"), r.getUpdatedAtUB()));
+            }
+            return cb.and(predicates.toArray(Predicate[]::new));
+        };
+    }
+
+    // keyset pagination: seek past the last id of the previous page instead of OFFSET
+    public static Specification<Account> idGreaterThan(Long id) {
+        return (root, query, cb) -> id == null ? null : cb.greaterThan(root.get("id"), id);
+    }
+}
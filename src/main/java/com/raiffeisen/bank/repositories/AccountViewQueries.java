@@ -0,0 +1,17 @@
+package com.raiffeisen.bank.repositories;
+
+import java.util.List;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountVersion;
+import com.raiffeisen.bank.models.AccountView;
+
+// AccountRepository fragment for projections Spring Data cannot derive from a Specification
+public interface AccountViewQueries {
+
+    List<AccountView> findViewsOrderedById(Specification<Account> spec, int limit);
+
+    List<AccountVersion> findVersionsOrderedById(Specification<Account> spec, int limit);
+}
@@ -0,0 +1,52 @@
+package com.raiffeisen.bank.repositories;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountVersion;
+import com.raiffeisen.bank.models.AccountView;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+
+public class AccountViewQueriesImpl implements AccountViewQueries {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // findBy(spec, q -> q.as(...)) would still select whole entities, this selects the columns only
+    @Override
+    public List<AccountView> findViewsOrderedById(Specification<Account> spec, int limit) {
+        return findOrderedById(AccountView.class, spec, limit, a -> new Selection<?>[] { a.get("id"),
+                a.get("client").get("id"), a.get("accountNumber"), a.get("balance"), a.get("balanceSlots"),
+                a.get("status"), a.get("createdAt"), a.get("updatedAt") });
+    }
+
+    @Override
+    public List<AccountVersion> findVersionsOrderedById(Specification<Account> spec, int limit) {
+        return findOrderedById(AccountVersion.class, spec, limit, a -> new Selection<?>[] { a.get("id"),
+                a.get("accountNumber"), a.get("updatedAt"), a.get("balance"), a.get("balanceSlots") });
+    }
+
+    private <T> List<T> findOrderedById(Class<T> type, Specification<Account> spec, int limit,
+            Function<Root<Account>, Selection<?>[]> columns) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(type);
+        Root<Account> a = query.from(Account.class);
+        query.select(cb.construct(type, columns.apply(a)));
+        Predicate predicate = spec.toPredicate(a, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.orderBy(cb.asc(a.get("id")));
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+}
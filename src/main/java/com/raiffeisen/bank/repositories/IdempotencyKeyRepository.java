@@ -0,0 +1,37 @@
+package com.raiffeisen.bank.repositories;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.raiffeisen.bank.models.IdempotencyKey;
+
+@Repository
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, String> {
+
+    // 0 when the key is taken; if its owner has not committed yet this blocks on the primary key until it does
+    @Modifying
+    @Query(nativeQuery = true, value = """
+            INSERT INTO idempotency_keys (idempotency_key, request_hash, created_at)
+            VALUES (:key, :requestHash, LOCALTIMESTAMP)
+            ON CONFLICT DO NOTHING
+            """)
+    int claim(@Param("key") String key, @Param("requestHash") String requestHash);
+
+    @Modifying
+    @Query(nativeQuery = true, value = """
+            UPDATE idempotency_keys SET status_code = :statusCode, body = :body
+            WHERE idempotency_key = :key
+            """)
+    void complete(@Param("key") String key, @Param("statusCode") int statusCode, @Param("body") String body);
+
+    @Transactional
+    @Modifying
+    @Query(nativeQuery = true, value = "DELETE FROM idempotency_keys WHERE created_at < :cutoff")
+    int deleteCreatedBefore(@Param("cutoff") LocalDateTime cutoff);
+}
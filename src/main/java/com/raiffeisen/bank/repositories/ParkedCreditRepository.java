@@ -0,0 +1,10 @@
+package com.raiffeisen.bank.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.raiffeisen.bank.models.ParkedCredit;
+
+@Repository
+public interface ParkedCreditRepository extends JpaRepository<ParkedCredit, Long> {
+}
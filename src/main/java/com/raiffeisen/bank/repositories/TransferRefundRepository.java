@@ -0,0 +1,26 @@
+package com.raiffeisen.bank.repositories;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.raiffeisen.bank.models.TransferRefund;
+
+import jakarta.persistence.LockModeType;
+
+@Repository
+public interface TransferRefundRepository extends JpaRepository<TransferRefund, Long> {
+
+    List<TransferRefund> findByOrderById(Limit limit);
+
+    // a second node retrying the same refund waits here and then finds it gone
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM TransferRefund r WHERE r.id = :id")
+    Optional<TransferRefund> findByIdForUpdate(@Param("id") Long id);
+}
@@ -0,0 +1,64 @@
+package com.raiffeisen.bank.routing;
+
+/**
+ * Read-your-writes tokens. Writes answer with the primary's WAL position (an LSN such as {@code 16/B374D848})
+ * in the {@value #HEADER} header; a read that sends it back is only served by a replica that has replayed
+ * at least that far, otherwise by the primary. The requirement of the current request is kept per thread.
+ */
+public final class ConsistencyToken {
+
+    public static final String HEADER = "Consistency-Token";
+
+    private static final ThreadLocal<Long> REQUIRED_LSN = new ThreadLocal<>();
+
+    private ConsistencyToken() {
+    }
+
+    /** @return the LSN the current request must see, null when any replica will do */
+    public static Long required() {
+        return REQUIRED_LSN.get();
+    }
+
+    public static void require(Long lsn) {
+        if (lsn == null) {
+            REQUIRED_LSN.remove();
+        } else {
+            REQUIRED_LSN.set(lsn);
+        }
+    }
+
+    public static void clear() {
+        REQUIRED_LSN.remove();
+    }
+
+    /** @throws IllegalArgumentException if the token is null or not an LSN */
+    public static long parse(String token) {
+        int slash = token == null ? -1 : token.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Not a consistency token: " + token);
+        }
+        // Postgres prints an LSN as the high and low 32 bits in hex
+        return word(token, 0, slash) << 32 | word(token, slash + 1, token.length());
+    }
+
+    // 1 to 8 ASCII hex digits, no sign
+    private static long word(String token, int from, int to) {
+        if (to - from < 1 || to - from > 8) {
+            throw new IllegalArgumentException("Not a consistency token: " + token);
+        }
+        long word = 0;
+        for (int i = from; i < to; i++) {
+            char c = token.charAt(i);
+            int digit = c < 128 ? Character.digit(c, 16) : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not a consistency token: " + token);
+            }
+            word = word << 4 | digit;
+        }
+        return word;
+    }
+
+    public static String format(long lsn) {
+        return Long.toHexString(lsn >>> 32).toUpperCase() + "/" + Long.toHexString(lsn & 0xFFFFFFFFL).toUpperCase();
+    }
+}
@@ -0,0 +1,45 @@
+package com.raiffeisen.bank.routing;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Adds the primary's current WAL position to every successful write as the {@value ConsistencyToken#HEADER}
+ * header. It is read after the write committed, so it is at or past the write.
+ */
+@ControllerAdvice
+@ConditionalOnProperty(name = "bank.replicas.urls")
+public class ConsistencyTokenAdvice implements ResponseBodyAdvice<Object> {
+
+    private final ReplicaMonitor replicaMonitor;
+
+    @Autowired
+    public ConsistencyTokenAdvice(ReplicaMonitor replicaMonitor) {
+        this.replicaMonitor = replicaMonitor;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+            Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request,
+            ServerHttpResponse response) {
+        if (request.getMethod() != HttpMethod.GET && response instanceof ServletServerHttpResponse servletResponse
+                && servletResponse.getServletResponse().getStatus() / 100 == 2) {
+            response.getHeaders().set(ConsistencyToken.HEADER, replicaMonitor.currentPrimaryLsn());
+        }
+        return body;
+    }
+}
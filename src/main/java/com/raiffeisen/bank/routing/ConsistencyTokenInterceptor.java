@@ -0,0 +1,38 @@
+package com.raiffeisen.bank.routing;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+// takes the Consistency-Token header of a request into ConsistencyToken for the routing DataSource
+public class ConsistencyTokenInterceptor implements AsyncHandlerInterceptor {
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String token = request.getHeader(ConsistencyToken.HEADER);
+        if (token == null) {
+            return true;
+        }
+        try {
+            ConsistencyToken.require(ConsistencyToken.parse(token));
+            return true;
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return false;
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        ConsistencyToken.clear();
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+            Object handler) {
+        ConsistencyToken.clear();
+    }
+}
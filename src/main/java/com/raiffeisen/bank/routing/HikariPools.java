@@ -0,0 +1,24 @@
+package com.raiffeisen.bank.routing;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// pools for further databases with the credentials and settings of spring.datasource
+final class HikariPools {
+
+    private HikariPools() {
+    }
+
+    static HikariConfig copyOf(HikariDataSource template, String url, String poolName, MeterRegistry meterRegistry) {
+        HikariConfig config = new HikariConfig();
+        template.copyStateTo(config);
+        config.setJdbcUrl(url.trim());
+        config.setPoolName(poolName);
+        // copied pools are not beans, so Actuator would not bind their hikaricp.* meters
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return config;
+    }
+}
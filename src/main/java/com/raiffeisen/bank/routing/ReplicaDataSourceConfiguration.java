@@ -0,0 +1,66 @@
+package com.raiffeisen.bank.routing;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.servlet.handler.MappedInterceptor;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Only active with {@code bank.replicas.urls} set. The application DataSource then hands out connections
+ * lazily, on the first statement, by which time the transaction has declared itself read-only or not:
+ * read-write work and everything outside a transaction goes to the primary (spring.datasource.*),
+ * {@code @Transactional(readOnly = true)} work to a replica. Replicas share the primary's credentials and
+ * pool settings.
+ */
+@Configuration
+@ConditionalOnProperty(name = "bank.replicas.urls")
+public class ReplicaDataSourceConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ReplicaMonitor replicaMonitor(HikariDataSource primaryDataSource, MeterRegistry meterRegistry,
+            @Value("${bank.replicas.urls}") List<String> urls,
+            @Value("${bank.replicas.max-lag-ms:5000}") long maxLagMillis) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            HikariConfig config = HikariPools.copyOf(primaryDataSource, urls.get(i), "replica-" + i, meterRegistry);
+            config.setReadOnly(true);
+            replicas.put(config.getPoolName(), new HikariDataSource(config));
+        }
+        return new ReplicaMonitor(primaryDataSource, replicas, maxLagMillis, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaMonitor replicaMonitor) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(new ReplicaRoutingDataSource(primaryDataSource, replicaMonitor));
+        return dataSource;
+    }
+
+    @Bean
+    public MappedInterceptor consistencyTokenInterceptor() {
+        return new MappedInterceptor(new String[] { "/api/**" }, new ConsistencyTokenInterceptor());
+    }
+}
@@ -0,0 +1,131 @@
+package com.raiffeisen.bank.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Polls every replica for how far it has replayed the primary's WAL and picks the replica a read-only
+ * transaction should use. A replica more than {@code bank.replicas.max-lag-ms} behind, or one that did not
+ * answer the last check, is skipped until it catches up; with none left, reads go to the primary.
+ */
+public class ReplicaMonitor implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaMonitor.class);
+
+    private static final String REPLAY_POSITION = """
+            SELECT pg_last_wal_replay_lsn()::text AS lsn,
+                   EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 AS lag_ms
+            """;
+
+    // what the last check saw, replaced as a whole so readers never see half an update
+    private record Position(long replayedLsn, long lagMillis, boolean reachable) {
+    }
+
+    private final class Replica {
+        final String name;
+        final DataSource dataSource;
+        final JdbcTemplate jdbcTemplate;
+        volatile Position position = new Position(0, Long.MAX_VALUE, false);
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+        }
+    }
+
+    private final JdbcTemplate primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMillis;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaMonitor(DataSource primary, Map<String, DataSource> replicas, long maxLagMillis,
+            MeterRegistry meterRegistry) {
+        this.primary = new JdbcTemplate(primary);
+        this.maxLagMillis = maxLagMillis;
+        replicas.forEach((name, dataSource) -> {
+            Replica replica = new Replica(name, dataSource);
+            this.replicas.add(replica);
+            Gauge.builder("bank.replicas.lag", replica, r -> r.position.reachable() ? r.position.lagMillis() : -1)
+                    .description("Replication lag in milliseconds at the last check, -1 if unreachable")
+                    .baseUnit("milliseconds")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+        });
+    }
+
+    public String currentPrimaryLsn() {
+        return primary.queryForObject("SELECT pg_current_wal_lsn()::text", String.class);
+    }
+
+    @Scheduled(fixedDelayString = "${bank.replicas.check-interval-ms:1000}")
+    public void check() {
+        long primaryLsn;
+        try {
+            primaryLsn = ConsistencyToken.parse(currentPrimaryLsn());
+        } catch (DataAccessException e) {
+            log.warn("Could not read the primary's WAL position", e);
+            return;
+        }
+        for (Replica replica : replicas) {
+            try {
+                replica.position = replica.jdbcTemplate.queryForObject(REPLAY_POSITION, (rs, i) -> {
+                    long replayed = ConsistencyToken.parse(rs.getString("lsn"));
+                    // the replay timestamp stands still while the primary is idle, a replica that has
+                    // replayed everything is not behind however old its last transaction is
+                    long lag = replayed >= primaryLsn ? 0 : (long) rs.getDouble("lag_ms");
+                    return new Position(replayed, lag, true);
+                });
+            } catch (DataAccessException | IllegalArgumentException e) {
+                // not a replica (pg_last_wal_replay_lsn() is null on a primary) or not reachable
+                if (replica.position.reachable()) {
+                    log.warn("Replica {} is unavailable, reads fall back to the primary", replica.name, e);
+                }
+                replica.position = new Position(replica.position.replayedLsn(), Long.MAX_VALUE, false);
+            }
+        }
+    }
+
+    /**
+     * @param requiredLsn position the replica must have replayed, null for none
+     * @return the replica to read from, null when none qualifies and the primary has to serve the read
+     */
+    public DataSource pick(Long requiredLsn) {
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            Position position = replica.position;
+            if (position.reachable() && position.lagMillis() <= maxLagMillis
+                    && (requiredLsn == null || position.replayedLsn() >= requiredLsn)) {
+                return replica.dataSource;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
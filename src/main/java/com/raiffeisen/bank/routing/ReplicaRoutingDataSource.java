@@ -0,0 +1,39 @@
+package com.raiffeisen.bank.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * The read-only side of the application DataSource: each connection comes from the replica
+ * {@link ReplicaMonitor} picks for the current request's consistency token, or from the primary when no
+ * replica is caught up far enough.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+    private final DataSource primary;
+    private final ReplicaMonitor replicaMonitor;
+
+    public ReplicaRoutingDataSource(DataSource primary, ReplicaMonitor replicaMonitor) {
+        this.primary = primary;
+        this.replicaMonitor = replicaMonitor;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return target().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return target().getConnection(username, password);
+    }
+
+    private DataSource target() {
+        DataSource replica = replicaMonitor.pick(ConsistencyToken.required());
+        return replica != null ? replica : primary;
+    }
+}
@@ -0,0 +1,28 @@
+package com.raiffeisen.bank.routing;
+
+/**
+ * The shard the current thread works on, read by {@link ShardRoutingDataSource} when a connection is first
+ * used. Unset means shard 0. Set through {@link Shards}, which also restores the previous value.
+ */
+final class ShardContext {
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    static int current() {
+        Integer shard = CURRENT.get();
+        return shard == null ? 0 : shard;
+    }
+
+    static Integer set(Integer shard) {
+        Integer previous = CURRENT.get();
+        if (shard == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(shard);
+        }
+        return previous;
+    }
+}
@@ -0,0 +1,103 @@
+package com.raiffeisen.bank.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.raiffeisen.bank.services.AccountNumbers;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Only active with {@code bank.shards.urls} set, see {@link Shards}. The application DataSource then
+ * routes each connection to the current thread's shard. Shard 0 is spring.datasource, the other shards
+ * share its credentials and pool settings. Flyway migrates every shard and moves each shard's sequences
+ * into its range, then the accounts numbered before sharding that have to stay on shard 0 are looked up.
+ */
+@Configuration
+@ConditionalOnProperty(name = "bank.shards.urls")
+public class ShardDataSourceConfiguration {
+
+    public ShardDataSourceConfiguration(@Value("${bank.replicas.urls:}") String replicaUrls) {
+        if (!replicaUrls.isBlank()) {
+            throw new IllegalStateException("bank.shards.urls and bank.replicas.urls cannot be used together");
+        }
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource firstShardDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(HikariDataSource firstShardDataSource,
+            MeterRegistry meterRegistry, @Value("${bank.shards.urls}") List<String> urls) {
+        List<HikariDataSource> shards = new ArrayList<>();
+        shards.add(firstShardDataSource);
+        for (String url : urls) {
+            shards.add(new HikariDataSource(
+                    HikariPools.copyOf(firstShardDataSource, url, "shard-" + shards.size(), meterRegistry)));
+        }
+        return new ShardRoutingDataSource(shards);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+
+    @Bean
+    public FlywayMigrationStrategy shardMigrationStrategy(ShardRoutingDataSource shardRoutingDataSource,
+            ObjectProvider<Shards> shards) {
+        return flyway -> {
+            List<HikariDataSource> dataSources = shardRoutingDataSource.getShards();
+            for (int shard = 0; shard < dataSources.size(); shard++) {
+                Flyway.configure()
+                        .configuration(flyway.getConfiguration())
+                        .dataSource(dataSources.get(shard))
+                        .load()
+                        .migrate();
+                moveSequencesIntoRange(new JdbcTemplate(dataSources.get(shard)), shard);
+            }
+            shards.getObject().setUnshardedAccountNumbers(
+                    unshardedAccountNumbers(new JdbcTemplate(dataSources.get(0)), dataSources.size()));
+        };
+    }
+
+    // random numbers from before sharding that start with 001 up to the last shard's prefix
+    private static Set<String> unshardedAccountNumbers(JdbcTemplate firstShard, int shardCount) {
+        return Set.copyOf(firstShard.queryForList(
+                "SELECT account_number FROM accounts WHERE account_number >= ? AND account_number < ?",
+                String.class, AccountNumbers.prefixOf(1), AccountNumbers.prefixOf(shardCount)));
+    }
+
+    private static void moveSequencesIntoRange(JdbcTemplate jdbcTemplate, int shard) {
+        moveSequence(jdbcTemplate, "clients_id_seq", shard * Shards.ID_RANGE);
+        moveSequence(jdbcTemplate, "accounts_id_seq", shard * Shards.ID_RANGE);
+        moveSequence(jdbcTemplate, "account_number_seq", shard * AccountNumbers.SERIALS_PER_SHARD);
+    }
+
+    // a no-op once the sequence has reached the range, so restarts leave it alone
+    private static void moveSequence(JdbcTemplate jdbcTemplate, String sequence, long rangeStart) {
+        jdbcTemplate.queryForList("SELECT setval('" + sequence + "', ?) FROM " + sequence + " WHERE last_value < ?",
+                Long.class, rangeStart, rangeStart);
+    }
+}
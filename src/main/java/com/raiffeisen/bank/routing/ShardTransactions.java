@@ -0,0 +1,15 @@
+package com.raiffeisen.bank.routing;
+
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+@Component
+public class ShardTransactions { // the transactional half of Shards
+
+    @Transactional(readOnly = true)
+    public <T> T readOnly(Supplier<T> read) {
+        return read.get();
+    }
+}
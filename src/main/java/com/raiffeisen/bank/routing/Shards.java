@@ -0,0 +1,166 @@
+package com.raiffeisen.bank.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.raiffeisen.bank.services.AccountNumbers;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Places clients and their accounts on shards and runs work on them. Shard 0 is spring.datasource, the
+ * others are listed in {@code bank.shards.urls}; without it there is just shard 0 and everything here
+ * runs inline.
+ * <p>
+ * Each shard hands out client and account ids from its own range of {@link #ID_RANGE}, so a client's id
+ * names its shard, and account number serials carry it in their leading digits (see
+ * {@link AccountNumbers#shardOf}). Accounts opened before sharding have random numbers and all live on
+ * shard 0; the few whose leading digits name another shard are listed with
+ * {@link #setUnshardedAccountNumbers}. Account ids are unique across shards but do not name one, since
+ * Hibernate pools them. Lookups by account id ask every shard.
+ * <p>
+ * The shard has to be chosen before a transaction runs its first statement, and a transaction never
+ * leaves the shard it started on.
+ */
+@Component
+public class Shards {
+
+    // clients.id and accounts.id are INTEGER, which leaves room for 21 ranges
+    public static final long ID_RANGE = 100_000_000L;
+    public static final int MAX_COUNT = (int) (Integer.MAX_VALUE / ID_RANGE);
+
+    private final ShardTransactions shardTransactions;
+    private final int count;
+    private final ExecutorService fanOut;
+    private final AtomicInteger nextForClient = new AtomicInteger();
+    private volatile Set<String> unshardedAccountNumbers = Set.of();
+
+    @Autowired
+    public Shards(ShardTransactions shardTransactions, @Value("${bank.shards.urls:}") List<String> urls,
+            @Value("${bank.shards.fan-out-threads:16}") int fanOutThreads) {
+        if (urls.size() >= MAX_COUNT) {
+            throw new IllegalArgumentException("At most " + MAX_COUNT + " shards are supported, got " + (urls.size() + 1));
+        }
+        this.shardTransactions = shardTransactions;
+        this.count = urls.size() + 1;
+        AtomicInteger threads = new AtomicInteger();
+        this.fanOut = count == 1 ? null : Executors.newFixedThreadPool(fanOutThreads, task -> {
+            Thread thread = new Thread(task, "shard-fan-out-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        if (fanOut != null) {
+            fanOut.shutdownNow();
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    // the shard the current thread works on
+    public static int current() {
+        return ShardContext.current();
+    }
+
+    // ids outside every shard's range, which belong to no client, are looked up on shard 0
+    public int ofClient(Long clientId) {
+        return clientId == null ? 0 : inRange(clientId / ID_RANGE);
+    }
+
+    public int ofAccountNumber(String accountNumber) {
+        if (accountNumber != null && unshardedAccountNumbers.contains(accountNumber)) {
+            return 0;
+        }
+        return inRange(AccountNumbers.shardOf(accountNumber));
+    }
+
+    /**
+     * Numbers of accounts on shard 0 whose leading digits name another shard. Only accounts numbered
+     * before sharding can be among them, since shard 0 issues serials starting with 000, so the set does
+     * not change once shard 0 is migrated.
+     */
+    public void setUnshardedAccountNumbers(Set<String> accountNumbers) {
+        this.unshardedAccountNumbers = Set.copyOf(accountNumbers);
+    }
+
+    private int inRange(long shard) {
+        return shard >= 0 && shard < count ? (int) shard : 0;
+    }
+
+    public int forNewClient() {
+        return Math.floorMod(nextForClient.getAndIncrement(), count);
+    }
+
+    public <T> T on(int shard, Supplier<T> action) {
+        Integer previous = ShardContext.set(shard);
+        try {
+            return action.get();
+        } finally {
+            ShardContext.set(previous);
+        }
+    }
+
+    public void run(int shard, Runnable action) {
+        on(shard, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // one shard after the other on the calling thread
+    public void forEach(IntConsumer action) {
+        for (int shard = 0; shard < count; shard++) {
+            int s = shard;
+            run(s, () -> action.accept(s));
+        }
+    }
+
+    // like forEach, each shard in its own read-only transaction
+    public void readInTurn(IntConsumer read) {
+        forEach(shard -> shardTransactions.readOnly(() -> {
+            read.accept(shard);
+            return null;
+        }));
+    }
+
+    // every shard in parallel, results in shard order; null results are kept
+    public <T> List<T> onEach(IntFunction<T> action) {
+        if (count == 1) {
+            return Collections.singletonList(on(0, () -> action.apply(0)));
+        }
+        List<CompletableFuture<T>> results = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            int s = shard;
+            results.add(CompletableFuture.supplyAsync(() -> on(s, () -> action.apply(s)), fanOut));
+        }
+        try {
+            return results.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    // like onEach, each shard in its own read-only transaction
+    public <T> List<T> readEach(IntFunction<T> read) {
+        return onEach(shard -> shardTransactions.readOnly(() -> read.apply(shard)));
+    }
+}
@@ -0,0 +1,249 @@
+package com.raiffeisen.bank.services;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.models.ParkedCredit;
+import com.raiffeisen.bank.models.TransferRefund;
+import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.repositories.ParkedCreditRepository;
+import com.raiffeisen.bank.repositories.TransferRefundRepository;
+
+@Component
+public class AccountBalanceBatchWriter { // balance writes that span several deltas or accounts under row locks
+
+    private final AccountRepository accountRepository;
+    private final TransferRefundRepository transferRefundRepository;
+    private final ParkedCreditRepository parkedCreditRepository;
+    private final AccountDTOCache accountDTOCache;
+
+    @Autowired
+    public AccountBalanceBatchWriter(AccountRepository accountRepository,
+            TransferRefundRepository transferRefundRepository, ParkedCreditRepository parkedCreditRepository,
+            AccountDTOCache accountDTOCache) {
+        this.accountRepository = accountRepository;
+        this.transferRefundRepository = transferRefundRepository;
+        this.parkedCreditRepository = parkedCreditRepository;
+        this.accountDTOCache = accountDTOCache;
+    }
+
+    /**
+     * Locks every affected account, folds its deltas in the given order and writes each account once.
+     * A delta that would overdraw the account is rejected on its own, later deltas still apply.
+     *
+     * @return statuses per account number, in the same order as the deltas
+     */
+    @Transactional
+    public Map<String, List<BalanceOperationStatus>> applyDeltas(Map<String, long[]> deltasByAccountNumber) {
+        Map<String, Account> accounts = accountRepository
+                .findAllByAccountNumberInForUpdate(deltasByAccountNumber.keySet()).stream()
+                .collect(Collectors.toMap(Account::getAccountNumber, Function.identity()));
+
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, List<BalanceOperationStatus>> results = new HashMap<>();
+        deltasByAccountNumber.forEach((accountNumber, deltas) -> results.put(accountNumber,
+                fold(accounts.get(accountNumber), deltas, now)));
+        invalidateAfterCommit(accounts.values());
+        return results;
+    }
+
+    /**
+     * {@link #applyDeltas} for credits from {@link BalanceJournal}, recording the journal's {@code sequence}
+     * in the same transaction so that recovery knows they are applied. Credits the database rejects were
+     * already acknowledged, they are parked in parked_credits by the same transaction, each exactly once.
+     * Always a transaction of its own.
+     *
+     * @param sequencesByAccountNumber the journal sequence of each delta, in the same order
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Map<String, List<BalanceOperationStatus>> applyJournaled(Map<String, long[]> deltasByAccountNumber,
+            Map<String, long[]> sequencesByAccountNumber, String journal, long sequence) {
+        Map<String, List<BalanceOperationStatus>> results = applyDeltas(deltasByAccountNumber);
+        LocalDateTime now = LocalDateTime.now();
+        List<ParkedCredit> parked = new ArrayList<>();
+        results.forEach((accountNumber, statuses) -> {
+            for (int i = 0; i < statuses.size(); i++) {
+                if (statuses.get(i) != BalanceOperationStatus.SUCCESS) {
+                    parked.add(ParkedCredit.builder()
+                            .accountNumber(accountNumber)
+                            .amount(deltasByAccountNumber.get(accountNumber)[i])
+                            .journal(journal)
+                            .journalSequence(sequencesByAccountNumber.get(accountNumber)[i])
+                            .reason(statuses.get(i))
+                            .createdAt(now)
+                            .build());
+                }
+            }
+        });
+        if (!parked.isEmpty()) {
+            parkedCreditRepository.saveAll(parked);
+        }
+        accountRepository.saveJournalPosition(journal, sequence);
+        return results;
+    }
+
+    /**
+     * Moves {@code amount} between two accounts in one transaction. Both rows are locked in id order, so
+     * two transfers going opposite ways between the same accounts queue up instead of deadlocking.
+     */
+    @Transactional
+    public BalanceOperationStatus transfer(String fromAccountNumber, String toAccountNumber, long amount) {
+        Map<String, Account> accounts = accountRepository
+                .findAllByAccountNumberInForUpdate(List.of(fromAccountNumber, toAccountNumber)).stream()
+                .collect(Collectors.toMap(Account::getAccountNumber, Function.identity()));
+        Account from = accounts.get(fromAccountNumber);
+        Account to = accounts.get(toAccountNumber);
+
+        if (from == null || to == null) {
+            return BalanceOperationStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (from.getStatus() == AccountStatus.CLOSED || to.getStatus() == AccountStatus.CLOSED) {
+            return BalanceOperationStatus.ACCOUNT_CLOSED;
+        }
+        if (from.getBalanceSlots() > 0) {
+            sweepBalanceSlots(from);
+        }
+        if (from.getBalance() < amount) {
+            return BalanceOperationStatus.INSUFFICIENT_FUNDS;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        from.setBalance(Money.subtract(from.getBalance(), amount));
+        from.setUpdatedAt(now);
+        to.setBalance(Money.add(to.getBalance(), amount));
+        to.setUpdatedAt(now);
+        invalidateAfterCommit(List.of(from, to));
+        return BalanceOperationStatus.SUCCESS;
+    }
+
+    /**
+     * Credits a stored refund back to its account and deletes it in the same transaction, so however often
+     * it is retried it is paid once. The refund row is locked before the account.
+     *
+     * @return SUCCESS also when another node has applied it already
+     */
+    @Transactional
+    public BalanceOperationStatus applyRefund(Long refundId) {
+        TransferRefund refund = transferRefundRepository.findByIdForUpdate(refundId).orElse(null);
+        if (refund == null) {
+            return BalanceOperationStatus.SUCCESS;
+        }
+        String accountNumber = refund.getAccountNumber();
+        BalanceOperationStatus status = applyDeltas(Map.of(accountNumber, new long[] { refund.getAmount() }))
+                .get(accountNumber).get(0);
+        if (status == BalanceOperationStatus.SUCCESS) {
+            transferRefundRepository.delete(refund);
+        }
+        return status;
+    }
+
+    // moves a hot account's sub-balances back into accounts.balance, the total does not change
+    @Transactional
+    public boolean consolidate(String accountNumber) {
+        Account account = lockAccount(accountNumber);
+        if (account == null || account.getBalanceSlots() == 0) {
+            return false;
+        }
+        sweepBalanceSlots(account);
+        invalidateAfterCommit(List.of(account));
+        return true;
+    }
+
+    /**
+     * Splits the balance of an account across {@code slots} sub-balances, or merges it back into a single
+     * one for 0. Existing slots are always folded into the main balance first.
+     */
+    @Transactional
+    public boolean setBalanceSlots(String accountNumber, int slots) {
+        Account account = lockAccount(accountNumber);
+        if (account == null || account.getStatus() == AccountStatus.CLOSED) {
+            return false;
+        }
+        long removed = sum(accountRepository.removeBalanceSlots(account.getId()));
+        if (slots > 0) {
+            accountRepository.createBalanceSlots(account.getId(), slots);
+        }
+        account.setBalance(Money.add(account.getBalance(), removed));
+        account.setBalanceSlots(slots);
+        account.setUpdatedAt(LocalDateTime.now());
+        invalidateAfterCommit(List.of(account));
+        return true;
+    }
+
+    private Account lockAccount(String accountNumber) {
+        List<Account> accounts = accountRepository.findAllByAccountNumberInForUpdate(List.of(accountNumber));
+        return accounts.isEmpty() ? null : accounts.get(0);
+    }
+
+    // the caller holds the account row lock, credits keep landing in the slots until the sweep locks them
+    private void sweepBalanceSlots(Account account) {
+        long swept = sum(accountRepository.sweepBalanceSlots(account.getId()));
+        // updatedAt filters and the change feed only see slot credits from here on
+        if (swept != 0) {
+            account.setBalance(Money.add(account.getBalance(), swept));
+            account.setUpdatedAt(LocalDateTime.now());
+        }
+    }
+
+    private static long sum(List<Long> balances) {
+        long sum = 0;
+        for (long balance : balances) {
+            sum = Money.add(sum, balance);
+        }
+        return sum;
+    }
+
+    private void invalidateAfterCommit(Collection<Account> accounts) {
+        accounts.forEach(account -> accountDTOCache.invalidateAfterCommit(account.getId(), account.getAccountNumber()));
+    }
+
+    private List<BalanceOperationStatus> fold(Account account, long[] deltas, LocalDateTime now) {
+        if (account == null) {
+            return Collections.nCopies(deltas.length, BalanceOperationStatus.ACCOUNT_NOT_FOUND);
+        }
+        if (account.getStatus() == AccountStatus.CLOSED) {
+            return Collections.nCopies(deltas.length, BalanceOperationStatus.ACCOUNT_CLOSED);
+        }
+
+        if (account.getBalanceSlots() > 0 && Arrays.stream(deltas).anyMatch(delta -> delta < 0)) {
+            sweepBalanceSlots(account); // debits may need what credits left in the slots
+        }
+
+        List<BalanceOperationStatus> statuses = new ArrayList<>(deltas.length);
+        long balance = account.getBalance();
+        boolean changed = false;
+        for (long delta : deltas) {
+            long updated = Money.add(balance, delta);
+            if (updated < 0) {
+                statuses.add(BalanceOperationStatus.INSUFFICIENT_FUNDS);
+                continue;
+            }
+            balance = updated;
+            changed = true;
+            statuses.add(BalanceOperationStatus.SUCCESS);
+        }
+
+        if (changed) { // flushed as a single UPDATE on commit
+            account.setBalance(balance);
+            account.setUpdatedAt(now);
+        }
+        return statuses;
+    }
+}
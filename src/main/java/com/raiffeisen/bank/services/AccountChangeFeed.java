@@ -0,0 +1,389 @@
+package com.raiffeisen.bank.services;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.raiffeisen.bank.DTO.AccountChangeDTO;
+import com.raiffeisen.bank.DTO.AccountChangePageDTO;
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.models.AccountChange;
+import com.raiffeisen.bank.repositories.AccountChangeRepository;
+import com.raiffeisen.bank.routing.Shards;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Feed of account changes, read from the account_change_outbox of every shard. One poller thread per shard
+ * reads new changes and keeps the latest {@code buffer-size} of them in memory, subscribers read from there,
+ * so the outbox is queried once per poll interval however many subscribers there are. Only a subscriber
+ * resuming from an offset older than the buffer reads the outbox itself, until it has caught up.
+ * <p>
+ * An offset holds a position in each shard's outbox; every change carries the offset that resumes the feed
+ * right after it. Changes of one shard keep their order, changes of different shards are interleaved.
+ * <p>
+ * At most {@code max-streams} streams are open at a time, and writes to them run on at most as many threads.
+ * A write that finds every writer thread busy is rejected rather than queued, so slow clients cannot make the
+ * node start threads without limit. That can happen only while closed streams still block on their last write.
+ */
+@Service
+public class AccountChangeFeed {
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(AccountChangeFeed.class);
+
+    private record Position(long txid, long id) implements Comparable<Position> {
+
+        static final Position START = new Position(0, 0);
+
+        static Position of(AccountChange change) {
+            return new Position(change.txid(), change.id());
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int byTxid = Long.compare(txid, other.txid);
+            return byTxid != 0 ? byTxid : Long.compare(id, other.id);
+        }
+    }
+
+    private static final class ShardLog {
+
+        final ConcurrentSkipListMap<Position, AccountDTO> recent = new ConcurrentSkipListMap<>();
+        // only the poller writes; everything after oldest is in recent, head is the last change polled
+        volatile Position oldest = Position.START;
+        volatile Position head = Position.START;
+        int size;
+    }
+
+    private static final class Waiter {
+
+        final Position[] after;
+        final Runnable onChange;
+
+        Waiter(Position[] after, Runnable onChange) {
+            this.after = after;
+            this.onChange = onChange;
+        }
+    }
+
+    private final AccountChangeRepository accountChangeRepository;
+    private final Shards shards;
+    private final boolean enabled;
+    private final long pollIntervalMillis;
+    private final int bufferSize;
+    private final Duration retention;
+    private final ShardLog[] logs;
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    private final ExecutorService dispatch;
+    private final ThreadPoolExecutor writers;
+    private final int maxStreams;
+    private final AtomicInteger streams = new AtomicInteger();
+    private final List<Thread> pollers = new ArrayList<>();
+
+    @Autowired
+    public AccountChangeFeed(AccountChangeRepository accountChangeRepository, Shards shards,
+            @Value("${bank.account-changes.enabled:true}") boolean enabled,
+            @Value("${bank.account-changes.poll-interval-ms:200}") long pollIntervalMillis,
+            @Value("${bank.account-changes.buffer-size:10000}") int bufferSize,
+            @Value("${bank.account-changes.retention-hours:24}") long retentionHours,
+            @Value("${bank.account-changes.dispatch-threads:4}") int dispatchThreads,
+            @Value("${bank.account-changes.max-streams:256}") int maxStreams) {
+        this.accountChangeRepository = accountChangeRepository;
+        this.shards = shards;
+        this.enabled = enabled;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.bufferSize = bufferSize;
+        this.retention = Duration.ofHours(retentionHours);
+        this.maxStreams = maxStreams;
+        this.logs = new ShardLog[shards.count()];
+        for (int shard = 0; shard < logs.length; shard++) {
+            logs[shard] = new ShardLog();
+        }
+        AtomicInteger threads = new AtomicInteger();
+        this.dispatch = Executors.newFixedThreadPool(dispatchThreads, task -> {
+            Thread thread = new Thread(task, "account-change-dispatch-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger writerThreads = new AtomicInteger();
+        // a stream has at most one write in flight, so max-streams threads; idle ones are let go
+        this.writers = new ThreadPoolExecutor(0, maxStreams, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), task -> {
+            Thread thread = new Thread(task, "account-change-writer-" + writerThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        for (int shard = 0; shard < logs.length; shard++) {
+            ShardLog shardLog = logs[shard];
+            // subscribers without an offset start from here, older changes are only in the outbox
+            Position last = shards.on(shard, () -> accountChangeRepository.findLast())
+                    .map(Position::of)
+                    .orElse(Position.START);
+            shardLog.oldest = last;
+            shardLog.head = last;
+
+            int s = shard;
+            Thread poller = new Thread(() -> shards.run(s, () -> pollContinuously(s)),
+                    "account-change-poller-" + shard);
+            poller.setDaemon(true);
+            poller.start();
+            pollers.add(poller);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        pollers.forEach(Thread::interrupt);
+        dispatch.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private void pollContinuously(int shard) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // a full batch means there is more right away
+                if (poll(shard) == MAX_PAGE_SIZE) {
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to read account changes of shard {}", shard, e);
+            }
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // called on the shard's poller thread only
+    int poll(int shard) {
+        ShardLog shardLog = logs[shard];
+        Position head = shardLog.head;
+        List<AccountChange> changes = accountChangeRepository.findAfter(head.txid(), head.id(), MAX_PAGE_SIZE);
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        for (AccountChange change : changes) {
+            shardLog.recent.put(Position.of(change), change.account());
+        }
+        shardLog.size += changes.size();
+        // oldest moves before the change is dropped, readers check it after reading, see changesAfter
+        while (shardLog.size > bufferSize) {
+            Position first = shardLog.recent.firstKey();
+            shardLog.oldest = first;
+            shardLog.recent.remove(first);
+            shardLog.size--;
+        }
+        shardLog.head = Position.of(changes.get(changes.size() - 1));
+        waiters.forEach(waiter -> {
+            if (hasChangesAfter(waiter.after)) {
+                wake(waiter);
+            }
+        });
+        return changes.size();
+    }
+
+    public String currentOffset() {
+        Position[] heads = new Position[logs.length];
+        for (int shard = 0; shard < logs.length; shard++) {
+            heads[shard] = logs[shard].head;
+        }
+        return encodeOffset(heads);
+    }
+
+    /**
+     * Up to {@code limit} changes after the offset, from memory or, for an offset older than what is buffered,
+     * from the outbox.
+     *
+     * @param offset an offset handed out by the feed, or null for the current end
+     * @return null for an offset this feed did not hand out
+     */
+    public AccountChangePageDTO read(String offset, int limit) {
+        Position[] positions = offset == null ? decodeOffset(currentOffset()) : decodeOffset(offset);
+        if (positions == null) {
+            return null;
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<AccountChangeDTO> changes = new ArrayList<>();
+        for (int shard = 0; shard < logs.length && changes.size() < pageSize; shard++) {
+            int rest = pageSize - changes.size();
+            for (Map.Entry<Position, AccountDTO> change : changesAfter(shard, positions[shard], rest)) {
+                positions[shard] = change.getKey();
+                changes.add(AccountChangeDTO.builder()
+                        .offset(encodeOffset(positions))
+                        .account(change.getValue())
+                        .build());
+            }
+        }
+        return AccountChangePageDTO.builder()
+                .changes(changes)
+                .offset(encodeOffset(positions))
+                .build();
+    }
+
+    private List<Map.Entry<Position, AccountDTO>> changesAfter(int shard, Position after, int limit) {
+        ShardLog shardLog = logs[shard];
+        if (after.compareTo(shardLog.oldest) >= 0) {
+            List<Map.Entry<Position, AccountDTO>> buffered = shardLog.recent.tailMap(after, false).entrySet()
+                    .stream()
+                    .limit(limit)
+                    .toList();
+            // the poller may have dropped some of them meanwhile, the outbox still has them
+            if (after.compareTo(shardLog.oldest) >= 0) {
+                return buffered;
+            }
+        }
+        return shards.on(shard, () -> accountChangeRepository.findAfter(after.txid(), after.id(), limit)).stream()
+                .map(change -> Map.entry(Position.of(change), change.account()))
+                .toList();
+    }
+
+    /**
+     * Runs {@code onChange} once, on a dispatch thread, as soon as there are changes after the offset. It
+     * should only read the feed and hand the changes on, to {@link #write} if sending them can block: every
+     * waiter of the node is dispatched by the same few threads.
+     *
+     * @param offset an offset handed out by the feed
+     * @return cancels the wait
+     */
+    public Runnable whenChangedAfter(String offset, Runnable onChange) {
+        Position[] after = decodeOffset(offset);
+        if (after == null) {
+            throw new IllegalArgumentException("Not an account change offset: " + offset);
+        }
+        Waiter waiter = new Waiter(after, onChange);
+        waiters.add(waiter);
+        // a poll that ended before the waiter was added did not see it
+        if (hasChangesAfter(after)) {
+            wake(waiter);
+        }
+        return () -> waiters.remove(waiter);
+    }
+
+    /**
+     * Takes one of the {@code max-streams} places for a stream, released through {@link #closeStream}.
+     *
+     * @return false if all of them are taken
+     */
+    public boolean openStream() {
+        if (streams.incrementAndGet() > maxStreams) {
+            streams.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void closeStream() {
+        streams.decrementAndGet();
+    }
+
+    /**
+     * Runs a write to a subscriber that may block on a slow client, on a thread of its own for as long as it
+     * takes. A subscriber hands over its next write only once the previous one has finished.
+     *
+     * @return false if every writer thread is busy and the write was not run
+     */
+    public boolean write(Runnable write) {
+        try {
+            writers.execute(write);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private boolean hasChangesAfter(Position[] after) {
+        for (int shard = 0; shard < logs.length; shard++) {
+            if (logs[shard].head.compareTo(after[shard]) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void wake(Waiter waiter) {
+        if (waiters.remove(waiter)) {
+            dispatch.execute(waiter.onChange);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${bank.account-changes.purge-interval-ms:600000}")
+    public void purgeExpired() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime expiredBefore = LocalDateTime.now().minus(retention);
+        shards.forEach(shard -> {
+            int purged = accountChangeRepository.deleteRecordedBefore(expiredBefore);
+            if (purged > 0) {
+                log.debug("Purged {} expired account changes on shard {}", purged, shard);
+            }
+        });
+    }
+
+    // "txid.id" per shard, comma separated
+    private static String encodeOffset(Position[] positions) {
+        StringBuilder offset = new StringBuilder();
+        for (Position position : positions) {
+            if (!offset.isEmpty()) {
+                offset.append(',');
+            }
+            offset.append(position.txid()).append('.').append(position.id());
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(offset.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Position[] decodeOffset(String offset) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(offset), StandardCharsets.US_ASCII).split(",");
+            if (parts.length != logs.length) {
+                return null;
+            }
+            Position[] positions = new Position[parts.length];
+            for (int shard = 0; shard < parts.length; shard++) {
+                int separator = parts[shard].indexOf('.');
+                positions[shard] = new Position(Long.parseLong(parts[shard].substring(0, separator)),
+                        Long.parseLong(parts[shard].substring(separator + 1)));
+            }
+            return positions;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) { // also covers NumberFormatException
+            return null;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.raiffeisen.bank.services;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.raiffeisen.bank.routing.Shards;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps one pooled connection per shard LISTENing on the channel fed by the accounts_notify_change trigger
+ * and evicts every account written by any node, this one included, from {@link AccountDTOCache}.
+ */
+@Component
+@ConditionalOnProperty(name = "bank.account-cache.listen", havingValue = "true", matchIfMissing = true)
+public class AccountChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountChangeListener.class);
+
+    private static final String CHANNEL = "account_changes";
+    private static final int POLL_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final DataSource dataSource;
+    private final AccountDTOCache accountDTOCache;
+    private final Shards shards;
+    private final List<Thread> listeners = new ArrayList<>();
+
+    @Autowired
+    public AccountChangeListener(DataSource dataSource, AccountDTOCache accountDTOCache, Shards shards) {
+        this.dataSource = dataSource;
+        this.accountDTOCache = accountDTOCache;
+        this.shards = shards;
+    }
+
+    @PostConstruct
+    void start() {
+        for (int shard = 0; shard < shards.count(); shard++) {
+            int s = shard;
+            // the shard is set for the thread's lifetime, every connection it opens comes from that shard
+            Thread listener = new Thread(() -> shards.run(s, this::listen), "account-change-listener-" + shard);
+            listener.setDaemon(true);
+            listener.start();
+            listeners.add(listener);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        listeners.forEach(Thread::interrupt);
+    }
+
+    private void listen() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Connection connection = dataSource.getConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                // anything written while we were not listening may be cached by now
+                accountDTOCache.invalidateAll();
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (!Thread.currentThread().isInterrupted()) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            evict(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                log.warn("Lost the {} listener connection, reconnecting", CHANNEL, e);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // payload is "<id>:<account number>"
+    private void evict(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator < 0) {
+            log.warn("Ignoring malformed {} payload '{}'", CHANNEL, payload);
+            return;
+        }
+        accountDTOCache.invalidate(Long.valueOf(payload.substring(0, separator)), payload.substring(separator + 1));
+    }
+}
@@ -0,0 +1,142 @@
+package com.raiffeisen.bank.services;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.raiffeisen.bank.DTO.AccountDTO;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Size and TTL bounded copies of open accounts, looked up by id or by account number.
+ * Entries are dropped by the local write paths and, for writes made on other nodes, by
+ * {@link AccountChangeListener}; the TTL bounds staleness if a notification is ever missed.
+ * Hits, misses and evictions are published as the usual {@code cache.*} meters.
+ * <p>
+ * The caches hold futures so that a load runs on the calling thread outside of Caffeine's map lock:
+ * a loader blocked on the database inside that lock would pin a virtual thread to its carrier.
+ * Concurrent misses on the same key still share one load.
+ * <p>
+ * A load also fills the entry under the account's other key, unless an invalidation ran since the load began:
+ * the loaded DTO may predate that invalidation, and only the key's own loading future is dropped by it.
+ */
+@Component
+public class AccountDTOCache {
+
+    private final AsyncCache<Long, AccountDTO> byId;
+    private final AsyncCache<String, AccountDTO> byAccountNumber;
+    // bumped before every invalidation, see fill
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Autowired
+    public AccountDTOCache(MeterRegistry meterRegistry,
+            @Value("${bank.account-cache.max-size:10000}") long maxSize,
+            @Value("${bank.account-cache.ttl-seconds:30}") long ttlSeconds) {
+        this.byId = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .buildAsync();
+        this.byAccountNumber = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "accounts.by_id");
+        CaffeineCacheMetrics.monitor(meterRegistry, byAccountNumber, "accounts.by_number");
+    }
+
+    // a null from the loader (missing or closed account) is passed through and not cached
+    public AccountDTO getById(Long id, Function<Long, AccountDTO> loader) {
+        return get(byId, id, loader,
+                (account, stamp) -> fill(byAccountNumber, account.getAccountNumber(), account, stamp));
+    }
+
+    public AccountDTO getByAccountNumber(String accountNumber, Function<String, AccountDTO> loader) {
+        return get(byAccountNumber, accountNumber, loader,
+                (account, stamp) -> fill(byId, account.getId(), account, stamp));
+    }
+
+    // what is cached, without starting a load; null while one is still running
+    public AccountDTO peekById(Long id) {
+        return peek(byId.getIfPresent(id));
+    }
+
+    public AccountDTO peekByAccountNumber(String accountNumber) {
+        return peek(byAccountNumber.getIfPresent(accountNumber));
+    }
+
+    private static AccountDTO peek(CompletableFuture<AccountDTO> cached) {
+        return cached != null && cached.isDone() && !cached.isCompletedExceptionally() ? cached.join() : null;
+    }
+
+    private <K> AccountDTO get(AsyncCache<K, AccountDTO> cache, K key, Function<K, AccountDTO> loader,
+            ObjLongConsumer<AccountDTO> onLoaded) {
+        CompletableFuture<AccountDTO> loading = new CompletableFuture<>();
+        CompletableFuture<AccountDTO> cached = cache.get(key, (k, executor) -> loading);
+        if (cached == loading) { // a miss, this thread does the load
+            try {
+                long stamp = invalidations.get();
+                AccountDTO account = loader.apply(key);
+                if (account != null) {
+                    onLoaded.accept(account, stamp);
+                }
+                loading.complete(account); // Caffeine drops entries completed with null or exceptionally
+            } catch (RuntimeException e) {
+                loading.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return cached.join();
+    }
+
+    // never replaces an entry, and takes its own back if an invalidation ran since the stamp was taken: that
+    // invalidation either came before the check below, or comes after the put and removes it
+    private <K> void fill(AsyncCache<K, AccountDTO> cache, K key, AccountDTO account, long stamp) {
+        if (invalidations.get() != stamp) {
+            return;
+        }
+        CompletableFuture<AccountDTO> filled = CompletableFuture.completedFuture(account);
+        if (cache.asMap().putIfAbsent(key, filled) == null && invalidations.get() != stamp) {
+            cache.asMap().remove(key, filled);
+        }
+    }
+
+    public void invalidate(Long id, String accountNumber) {
+        invalidations.incrementAndGet();
+        byId.synchronous().invalidate(id);
+        byAccountNumber.synchronous().invalidate(accountNumber);
+    }
+
+    // evicting before the commit would let a concurrent read cache the old state again
+    public void invalidateAfterCommit(Long id, String accountNumber) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(id, accountNumber);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(id, accountNumber);
+            }
+        });
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        byId.synchronous().invalidateAll();
+        byAccountNumber.synchronous().invalidateAll();
+    }
+}
@@ -0,0 +1,7 @@
+package com.raiffeisen.bank.services;
+
+public interface AccountNumberAllocator {
+
+    // a number no other account has or will get, in the AccountNumbers format
+    String allocate();
+}
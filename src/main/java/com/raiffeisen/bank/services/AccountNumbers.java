@@ -0,0 +1,77 @@
+package com.raiffeisen.bank.services;
+
+/**
+ * Account number format: 18 digit zero-padded serial followed by two ISO 7064 MOD 97-10 check digits
+ * (the same scheme IBANs use), so a mistyped number can be told apart from an unknown one without a lookup.
+ * The first three digits of the serial are the shard holding the account.
+ */
+public final class AccountNumbers {
+
+    public static final int LENGTH = 20;
+    public static final int SERIAL_LENGTH = LENGTH - 2;
+    public static final long MAX_SERIAL = 999_999_999_999_999_999L;
+    public static final long SERIALS_PER_SHARD = 1_000_000_000_000_000L;
+
+    private static final int SHARD_DIGITS = 3;
+
+    private AccountNumbers() {
+    }
+
+    public static String format(long serial) {
+        if (serial < 0 || serial > MAX_SERIAL) {
+            throw new IllegalArgumentException("Account number serial out of range: " + serial);
+        }
+        char[] digits = new char[LENGTH];
+        long rest = serial;
+        for (int i = SERIAL_LENGTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + rest % 10);
+            rest /= 10;
+        }
+        int check = 98 - (int) (serial % 97 * 100 % 97);
+        digits[SERIAL_LENGTH] = (char) ('0' + check / 10);
+        digits[SERIAL_LENGTH + 1] = (char) ('0' + check % 10);
+        return new String(digits);
+    }
+
+    public static boolean isWellFormed(String accountNumber, boolean verifyCheckDigits) {
+        if (accountNumber == null || accountNumber.length() != LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return !verifyCheckDigits || mod97(accountNumber) == 1;
+    }
+
+    // 0 for anything that is not an account number, such a lookup finds nothing on any shard
+    public static int shardOf(String accountNumber) {
+        if (accountNumber == null || accountNumber.length() != LENGTH) {
+            return 0;
+        }
+        int shard = 0;
+        for (int i = 0; i < SHARD_DIGITS; i++) {
+            char c = accountNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            shard = shard * 10 + c - '0';
+        }
+        return shard;
+    }
+
+    // the leading digits of the shard's account numbers
+    public static String prefixOf(int shard) {
+        return format((long) shard * SERIALS_PER_SHARD).substring(0, SHARD_DIGITS);
+    }
+
+    private static int mod97(String digits) {
+        int remainder = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            remainder = (remainder * 10 + digits.charAt(i) - '0') % 97;
+        }
+        return remainder;
+    }
+}
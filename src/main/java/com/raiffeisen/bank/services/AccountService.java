@@ -1,165 +1,641 @@
 package com.raiffeisen.bank.services;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.AccountPageDTO;
+import com.raiffeisen.bank.DTO.BalanceOperationRequest;
+import com.raiffeisen.bank.DTO.BalanceOperationResultDTO;
 import com.raiffeisen.bank.DTO.QueryAccountsRequest;
 import com.raiffeisen.bank.models.Account;
 import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.AccountVersion;
+import com.raiffeisen.bank.models.AccountVersionPage;
+import com.raiffeisen.bank.models.AccountView;
+import com.raiffeisen.bank.models.BalanceOperationStatus;
 import com.raiffeisen.bank.models.Client;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.repositories.AccountExportRepository;
 import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.repositories.AccountSpecifications;
+import com.raiffeisen.bank.routing.Shards;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Service
 public class AccountService {
 
-    private static final int ACCOUNT_NUMBER_LENGTH = 20;
+    private static final int DEFAULT_QUERY_PAGE_SIZE = 100;
+    private static final int MAX_QUERY_PAGE_SIZE = 1000;
+    private static final int ACCOUNTS_PER_BATCH_TRANSACTION = 500;
 
     private final AccountRepository accountRepository;
+    private final AccountExportRepository accountExportRepository;
     private final ClientService clientService;
+    private final BalanceWriteCombiner balanceWriteCombiner;
+    private final BalanceJournal balanceJournal;
+    private final AccountBalanceBatchWriter accountBalanceBatchWriter;
+    private final TransferRefundService transferRefundService;
+    private final AccountNumberAllocator accountNumberAllocator;
+    private final AccountDTOCache accountDTOCache;
+    private final HotAccountService hotAccountService;
+    private final Shards shards;
+    private final boolean verifyAccountNumberCheckDigits;
+    private final Map<BalanceOperationStatus, Counter> depositOutcomes;
+    private final Map<BalanceOperationStatus, Counter> withdrawalOutcomes;
+    private final Map<BalanceOperationStatus, Counter> transferOutcomes;
+    private final Map<BalanceOperationStatus, Counter> batchOutcomes;
 
     @Autowired
-    public AccountService(AccountRepository accountRepository, ClientService clientService) {
+    public AccountService(AccountRepository accountRepository, AccountExportRepository accountExportRepository,
+            ClientService clientService, BalanceWriteCombiner balanceWriteCombiner, BalanceJournal balanceJournal,
+            AccountBalanceBatchWriter accountBalanceBatchWriter, TransferRefundService transferRefundService,
+            AccountNumberAllocator accountNumberAllocator, AccountDTOCache accountDTOCache,
+            HotAccountService hotAccountService, Shards shards, MeterRegistry meterRegistry,
+            @Value("${bank.account-numbers.verify-check-digits:false}") boolean verifyAccountNumberCheckDigits) {
         this.accountRepository = accountRepository;
+        this.accountExportRepository = accountExportRepository;
         this.clientService = clientService;
+        this.balanceWriteCombiner = balanceWriteCombiner;
+        this.balanceJournal = balanceJournal;
+        this.accountBalanceBatchWriter = accountBalanceBatchWriter;
+        this.transferRefundService = transferRefundService;
+        this.accountNumberAllocator = accountNumberAllocator;
+        this.accountDTOCache = accountDTOCache;
+        this.hotAccountService = hotAccountService;
+        this.shards = shards;
+        this.verifyAccountNumberCheckDigits = verifyAccountNumberCheckDigits;
+        this.depositOutcomes = outcomeCounters(meterRegistry, "deposit");
+        this.withdrawalOutcomes = outcomeCounters(meterRegistry, "withdraw");
+        this.transferOutcomes = outcomeCounters(meterRegistry, "transfer");
+        this.batchOutcomes = outcomeCounters(meterRegistry, "batch");
     }
 
-    public AccountDTO openNewAccount(Long clientID) {
-        Client client = clientService.getClientById(clientID);
-        if (client == null) {
-            return null;
+    // registered up front, so every outcome is exported from the start, even at zero
+    private static Map<BalanceOperationStatus, Counter> outcomeCounters(MeterRegistry meterRegistry,
+            String operation) {
+        Map<BalanceOperationStatus, Counter> counters = new EnumMap<>(BalanceOperationStatus.class);
+        for (BalanceOperationStatus status : BalanceOperationStatus.values()) {
+            counters.put(status, Counter.builder("bank.balance.operations")
+                    .description("Balance operations by outcome")
+                    .tag("operation", operation)
+                    .tag("outcome", status.name().toLowerCase())
+                    .register(meterRegistry));
         }
-        Account account = Account.builder()
+        return counters;
+    }
+
+    // one transaction, so the client lookup is a read-write one and never goes to a lagging replica
+    @Transactional
+    public AccountDTO openNewAccount(Long clientID) {
+        // accounts live on their client's shard
+        return shards.on(shards.ofClient(clientID), () -> {
+            Client client = clientService.getClientById(clientID);
+            if (client == null) {
+                return null;
+            }
+            Account account = newAccount(client, LocalDateTime.now());
+
+            accountRepository.save(account);
+            accountDTOCache.invalidateAfterCommit(account.getId(), account.getAccountNumber());
+            return mapToDTO(account);
+        });
+    }
+
+    // inserts are flushed on commit as JDBC batches of hibernate.jdbc.batch_size rows
+    @Transactional
+    public List<AccountDTO> openNewAccounts(Long clientID, int count) {
+        return shards.on(shards.ofClient(clientID), () -> {
+            Client client = clientService.getClientById(clientID);
+            if (client == null) {
+                return null;
+            }
+            LocalDateTime now = LocalDateTime.now();
+            List<Account> accounts = IntStream.range(0, count)
+                    .mapToObj(i -> newAccount(client, now))
+                    .toList();
+
+            accountRepository.saveAll(accounts);
+            return accounts.stream().map(this::mapToDTO).toList();
+        });
+    }
+
+    private Account newAccount(Client client, LocalDateTime now) {
+        return Account.builder()
                 .client(client)
-                .accountNumber(generateUniqueAccountNumber())
-                .balance(Double.valueOf(0))
+                .accountNumber(accountNumberAllocator.allocate())
                 .status(AccountStatus.ACTIVE)
-                .createdAt(LocalDateTime.now())
-                .updatedAt(LocalDateTime.now())
+                .createdAt(now)
+                .updatedAt(now)
                 .build();
-
-        accountRepository.save(account);
-        return mapToDTO(account);
     }
 
-    private String generateUniqueAccountNumber() {
-        Random random = new Random();
-        String accountNumber;
-        do {
-            accountNumber = random.ints()
-                    .limit(ACCOUNT_NUMBER_LENGTH)
-                    .mapToObj(i -> String.valueOf(Math.abs(i % 10)))
-                    .collect(Collectors.joining());
-        } while (getAccountByAccountNumber(accountNumber) != null);
-        return accountNumber;
+    // malformed numbers cannot belong to any account, no need to ask the database
+    private boolean isWellFormedAccountNumber(String accountNumber) {
+        return AccountNumbers.isWellFormed(accountNumber, verifyAccountNumberCheckDigits);
     }
 
     public Account getAccountByAccountNumber(String accountNumber) {
-        return accountRepository.findByAccountNumber(accountNumber).orElse(null);
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return null;
+        }
+        return shards.on(shards.ofAccountNumber(accountNumber),
+                () -> accountRepository.findByAccountNumber(accountNumber).orElse(null));
     }
 
     public AccountDTO getAccountDTOByAccountNumber(String accountNumber) {
-        Account account = accountRepository.findByAccountNumber(accountNumber).orElse(null);
-        return account == null || account.getStatus() == AccountStatus.CLOSED
-                ? null
-                : mapToDTO(account);
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return null;
+        }
+        return balanceJournal.read(() -> {
+            // slot credits never touch the accounts row, so nothing would evict a cached hot account
+            if (hotAccountService.isHot(accountNumber)) {
+                return withJournaledCredits(loadAccountDTOByAccountNumber(accountNumber));
+            }
+            return withJournaledCredits(
+                    accountDTOCache.getByAccountNumber(accountNumber, this::loadAccountDTOByAccountNumber));
+        });
+    }
+
+    private AccountDTO loadAccountDTOByAccountNumber(String accountNumber) {
+        return shards.on(shards.ofAccountNumber(accountNumber), () -> accountRepository
+                .findActiveViewByAccountNumber(accountNumber)
+                .map(this::mapToDTO)
+                .orElse(null));
     }
 
+    // an account id does not tell its shard, every shard is asked and at most one has it
     public Account getAccountById(Long id) {
-        return accountRepository.findById(id).orElse(null);
+        return firstFound(shards.onEach(shard -> accountRepository.findById(id).orElse(null)));
     }
 
     public AccountDTO getAccountDTOById(Long id) {
-        Account account = accountRepository.findById(id).orElse(null);
-        return account == null || account.getStatus() == AccountStatus.CLOSED
-                ? null
-                : mapToDTO(account);
+        return balanceJournal.read(() -> withJournaledCredits(hotAccountService.isHot(id)
+                ? loadAccountDTOById(id)
+                : accountDTOCache.getById(id, this::loadAccountDTOById)));
+    }
+
+    private AccountDTO loadAccountDTOById(Long id) {
+        return firstFound(shards.onEach(shard -> accountRepository.findActiveViewById(id)
+                .map(this::mapToDTO)
+                .orElse(null)));
+    }
+
+    /**
+     * The version of an open account, as its ETag is computed from, from the cache or from the version columns
+     * only; never loads or caches the account. Null if it is missing or closed.
+     */
+    public AccountVersion getAccountVersionById(Long id) {
+        return balanceJournal.read(() -> {
+            AccountDTO cached = hotAccountService.isHot(id) ? null : accountDTOCache.peekById(id);
+            return withJournaledCredits(cached != null ? versionOf(cached) : firstFound(shards.onEach(shard ->
+                    accountRepository.findActiveVersionById(id).map(this::withBalanceSlots).orElse(null))));
+        });
+    }
+
+    public AccountVersion getAccountVersionByAccountNumber(String accountNumber) {
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return null;
+        }
+        return balanceJournal.read(() -> {
+            AccountDTO cached = hotAccountService.isHot(accountNumber)
+                    ? null
+                    : accountDTOCache.peekByAccountNumber(accountNumber);
+            return withJournaledCredits(cached != null ? versionOf(cached)
+                    : shards.on(shards.ofAccountNumber(accountNumber), () -> accountRepository
+                            .findActiveVersionByAccountNumber(accountNumber)
+                            .map(this::withBalanceSlots)
+                            .orElse(null)));
+        });
+    }
+
+    private static AccountVersion versionOf(AccountDTO account) {
+        return new AccountVersion(account.getId(), account.getAccountNumber(), account.getUpdatedAt(),
+                account.getBalance().minorUnits(), 0);
+    }
+
+    // on the account's shard
+    private AccountVersion withBalanceSlots(AccountVersion version) {
+        return version.balanceSlots() > 0
+                ? version.withBalance(Money.add(version.balance(), accountRepository.sumBalanceSlots(version.id())))
+                : version;
+    }
+
+    private static <T> T firstFound(List<T> perShard) {
+        return perShard.stream().filter(Objects::nonNull).findFirst().orElse(null);
     }
 
     public boolean closeAccountByAccountNumber(String accountNumber) {
-        Account account = getAccountByAccountNumber(accountNumber);
-        if (account == null || account.getStatus() == AccountStatus.CLOSED) {
+        applyJournaledCredits(accountNumber);
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return false;
+        }
+        Long closedId = shards.on(shards.ofAccountNumber(accountNumber),
+                () -> retryIfMoved(() -> accountRepository.closeByAccountNumber(accountNumber).orElse(null)));
+        if (closedId == null) {
             return false;
         }
-        // TODO: rework into exception or DTO
-        account.setStatus(AccountStatus.CLOSED);
-        account.setUpdatedAt(LocalDateTime.now());
-        accountRepository.save(account);
+        accountDTOCache.invalidateAfterCommit(closedId, accountNumber);
         return true;
     }
 
-    public boolean applyAccountBalanceDelta(String accountNumber, Double delta) {
+    public BalanceOperationStatus applyAccountBalanceDelta(String accountNumber, long delta) {
+        BalanceOperationStatus status = shards.on(shards.ofAccountNumber(accountNumber),
+                () -> retryIfMoved(() -> applyBalanceDelta(accountNumber, delta)));
+        (delta >= 0 ? depositOutcomes : withdrawalOutcomes).get(status).increment();
+        return status;
+    }
+
+    /**
+     * Runs a write on the accounts table again if it failed with a serialization error. Accounts are partitioned
+     * by status (V12), so a write that waited on a concurrent close of the same account finds the row moved to
+     * accounts_closed. Postgres rejects such a write with SQLSTATE 40001 instead of skipping the row. The second
+     * run sees the account closed and reports it like any other write to a closed account. The failed run was
+     * rolled back, so nothing is applied twice. Inside a transaction the error has already aborted it, so the
+     * owner of the transaction has to retry it; {@link IdempotencyService} does that for keyed requests.
+     */
+    private <T> T retryIfMoved(Supplier<T> write) {
+        try {
+            return write.get();
+        } catch (ConcurrencyFailureException e) {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                throw e;
+            }
+            return write.get();
+        }
+    }
+
+    private BalanceOperationStatus applyBalanceDelta(String accountNumber, long delta) {
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return BalanceOperationStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (delta < 0) {
+            applyJournaledCredits(accountNumber);
+        }
+        if (hotAccountService.isHot(accountNumber)) {
+            if (delta >= 0 && hotAccountService.credit(accountNumber, delta)) {
+                return BalanceOperationStatus.SUCCESS;
+            }
+            // debits have to see what is in the slots, the locked path sweeps them first
+            return accountBalanceBatchWriter.applyDeltas(Map.of(accountNumber, new long[] { delta }))
+                    .get(accountNumber).get(0);
+        }
+        // acknowledged once it is on local disk, rejections are left to the synchronous path below; a credit in
+        // a transaction has to commit or roll back with it, and must not wait on the journal holding a connection
+        if (delta >= 0 && balanceJournal.canAppend() && !TransactionSynchronizationManager.isActualTransactionActive()
+                && getAccountDTOByAccountNumber(accountNumber) != null) {
+            balanceJournal.append(accountNumber, delta);
+            return BalanceOperationStatus.SUCCESS;
+        }
+        // the combiner commits in a transaction of its own, a keyed delta has to commit with its key
+        if (balanceWriteCombiner.isEnabled() && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return balanceWriteCombiner.submit(accountNumber, delta).join();
+        }
+        Account updated = accountRepository.applyBalanceDelta(accountNumber, delta).orElse(null);
+        if (updated != null) {
+            accountDTOCache.invalidateAfterCommit(updated.getId(), accountNumber);
+            return BalanceOperationStatus.SUCCESS;
+        }
+        // the update was rejected, an extra lookup on the failure path only to tell the caller why
         Account account = getAccountByAccountNumber(accountNumber);
-        if (account == null || account.getStatus() == AccountStatus.CLOSED) {
-            return false;
+        if (account == null) {
+            return BalanceOperationStatus.ACCOUNT_NOT_FOUND;
         }
-        // TODO: rework into exception or DTO
-        Double balance = account.getBalance();
-        if (balance + delta < 0) {
-            return false;
+        if (account.getStatus() == AccountStatus.CLOSED) {
+            return BalanceOperationStatus.ACCOUNT_CLOSED;
+        }
+        return BalanceOperationStatus.INSUFFICIENT_FUNDS;
+    }
+
+    public BalanceOperationStatus transfer(String fromAccountNumber, String toAccountNumber, long amount) {
+        if (!isWellFormedAccountNumber(fromAccountNumber) || !isWellFormedAccountNumber(toAccountNumber)) {
+            transferOutcomes.get(BalanceOperationStatus.ACCOUNT_NOT_FOUND).increment();
+            return BalanceOperationStatus.ACCOUNT_NOT_FOUND;
         }
+        applyJournaledCredits(fromAccountNumber);
+        int fromShard = shards.ofAccountNumber(fromAccountNumber);
+        int toShard = shards.ofAccountNumber(toAccountNumber);
+        BalanceOperationStatus status = fromShard == toShard
+                ? shards.on(fromShard, () -> retryIfMoved(
+                        () -> accountBalanceBatchWriter.transfer(fromAccountNumber, toAccountNumber, amount)))
+                : transferAcrossShards(fromAccountNumber, fromShard, toAccountNumber, toShard, amount);
+        transferOutcomes.get(status).increment();
+        return status;
+    }
 
-        account.setBalance(balance + delta);
-        account.setUpdatedAt(LocalDateTime.now());
-        accountRepository.save(account);
-        return true;
+    /**
+     * A withdrawal on one shard followed by a deposit on the other, in two transactions. A deposit that fails
+     * is refunded through {@link TransferRefundService}, which keeps retrying a refund it could not apply.
+     * The two are not atomic: in between, and for good if the node dies there, the amount is only withdrawn.
+     */
+    private BalanceOperationStatus transferAcrossShards(String fromAccountNumber, int fromShard,
+            String toAccountNumber, int toShard, long amount) {
+        // saves withdrawing and refunding in the common failure cases
+        Account to = getAccountByAccountNumber(toAccountNumber);
+        if (to == null) {
+            return BalanceOperationStatus.ACCOUNT_NOT_FOUND;
+        }
+        if (to.getStatus() == AccountStatus.CLOSED) {
+            return BalanceOperationStatus.ACCOUNT_CLOSED;
+        }
+        BalanceOperationStatus withdrawn = applyOn(fromShard, fromAccountNumber, -amount);
+        if (withdrawn != BalanceOperationStatus.SUCCESS) {
+            return withdrawn;
+        }
+        BalanceOperationStatus deposited = applyOn(toShard, toAccountNumber, amount);
+        if (deposited != BalanceOperationStatus.SUCCESS) {
+            transferRefundService.refund(fromShard, fromAccountNumber, toAccountNumber, amount);
+        }
+        return deposited;
+    }
+
+    /**
+     * Applies the journaled credits of the account: debits and closes decide on the balance in the database,
+     * which has to include them. Callers that run the operation in a transaction, such as one keyed by an
+     * Idempotency-Key, call this before it starts. Inside a transaction it does nothing, a flush could wait for
+     * the flusher while this thread holds a connection and the flusher waits for one.
+     */
+    public void applyJournaledCredits(String accountNumber) {
+        if (balanceJournal.hasPending(accountNumber)
+                && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            balanceJournal.flush();
+        }
+    }
+
+    private AccountVersion withJournaledCredits(AccountVersion version) {
+        long pending = version == null ? 0 : balanceJournal.pending(version.accountNumber());
+        return pending == 0 ? version : version.withBalance(Money.add(version.balance(), pending));
+    }
+
+    private AccountDTO withJournaledCredits(AccountDTO account) {
+        long pending = account == null ? 0 : balanceJournal.pending(account.getAccountNumber());
+        if (pending == 0) {
+            return account;
+        }
+        // cached DTOs are shared, the overlay goes on a copy
+        return account.toBuilder()
+                .balance(Money.ofMinor(Money.add(account.getBalance().minorUnits(), pending)))
+                .build();
+    }
+
+    private BalanceOperationStatus applyOn(int shard, String accountNumber, long delta) {
+        return shards.on(shard, () -> retryIfMoved(() -> accountBalanceBatchWriter
+                .applyDeltas(Map.of(accountNumber, new long[] { delta }))
+                .get(accountNumber).get(0)));
+    }
+
+    /**
+     * Applies the operations in as few transactions as possible: each account is locked once and gets a
+     * single UPDATE for all of its operations, which keep their relative order. Results are in request order.
+     */
+    public List<BalanceOperationResultDTO> applyAccountBalanceDeltas(List<BalanceOperationRequest> operations) {
+        BalanceOperationStatus[] statuses = new BalanceOperationStatus[operations.size()];
+        // sorted so that every chunk, and so every transaction, covers a stable range of accounts
+        SortedMap<String, List<Integer>> positionsByAccountNumber = new TreeMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            String accountNumber = operations.get(i).getAccountNumber();
+            if (!isWellFormedAccountNumber(accountNumber)) {
+                statuses[i] = BalanceOperationStatus.ACCOUNT_NOT_FOUND;
+                continue;
+            }
+            positionsByAccountNumber.computeIfAbsent(accountNumber, k -> new ArrayList<>()).add(i);
+        }
+        if (positionsByAccountNumber.keySet().stream().anyMatch(balanceJournal::hasPending)) {
+            balanceJournal.flush();
+        }
+
+        long[] deltas = operations.stream().mapToLong(operation -> Money.toMinorUnits(operation.getAmount())).toArray();
+        Map<String, long[]> chunk = new LinkedHashMap<>();
+        int chunkShard = 0;
+        for (Map.Entry<String, List<Integer>> entry : positionsByAccountNumber.entrySet()) {
+            // the shard leads the account number, so sorting has grouped the accounts by shard
+            int shard = shards.ofAccountNumber(entry.getKey());
+            if (shard != chunkShard && !chunk.isEmpty()) {
+                applyChunk(chunkShard, chunk, positionsByAccountNumber, statuses);
+                chunk.clear();
+            }
+            chunkShard = shard;
+            chunk.put(entry.getKey(), entry.getValue().stream().mapToLong(i -> deltas[i]).toArray());
+            if (chunk.size() == ACCOUNTS_PER_BATCH_TRANSACTION) {
+                applyChunk(chunkShard, chunk, positionsByAccountNumber, statuses);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            applyChunk(chunkShard, chunk, positionsByAccountNumber, statuses);
+        }
+        for (BalanceOperationStatus status : statuses) {
+            batchOutcomes.get(status).increment();
+        }
+
+        return IntStream.range(0, operations.size())
+                .mapToObj(i -> BalanceOperationResultDTO.builder()
+                        .accountNumber(operations.get(i).getAccountNumber())
+                        .amount(Money.ofMinor(deltas[i]))
+                        .status(statuses[i])
+                        .build())
+                .toList();
     }
 
+    private void applyChunk(int shard, Map<String, long[]> chunk, Map<String, List<Integer>> positionsByAccountNumber,
+            BalanceOperationStatus[] statuses) {
+        shards.on(shard, () -> retryIfMoved(() -> accountBalanceBatchWriter.applyDeltas(chunk))).forEach((accountNumber, results) -> {
+            List<Integer> positions = positionsByAccountNumber.get(accountNumber);
+            for (int i = 0; i < positions.size(); i++) {
+                statuses[positions.get(i)] = results.get(i);
+            }
+        });
+    }
+
+    @Transactional(readOnly = true)
     public List<AccountDTO> getRecentAccounts(Long clientID, int limit) {
-        return accountRepository.findByClient_IdAndStatusNot(clientID, AccountStatus.CLOSED).stream()
-                .sorted(Comparator.comparing(Account::getUpdatedAt).reversed())
-                .limit(limit)
+        // ACTIVE rather than "not CLOSED" so the status is an equality prefix of the index
+        return balanceJournal.read(() -> shards.on(shards.ofClient(clientID), () -> accountRepository
+                .findRecentViews(clientID, AccountStatus.ACTIVE, Limit.of(limit)).stream()
                 .map(this::mapToDTO)
-                .toList();
+                .map(this::withJournaledCredits)
+                .toList()));
+    }
+
+    @Transactional(readOnly = true)
+    public List<AccountVersion> getRecentAccountVersions(Long clientID, int limit) {
+        return balanceJournal.read(() -> shards.on(shards.ofClient(clientID), () -> accountRepository
+                .findRecentVersions(clientID, AccountStatus.ACTIVE, Limit.of(limit)).stream()
+                .map(this::withBalanceSlots)
+                .map(this::withJournaledCredits)
+                .toList()));
+    }
+
+    public boolean setHotAccountSlots(String accountNumber, int slots) {
+        if (!isWellFormedAccountNumber(accountNumber)) {
+            return false;
+        }
+        return hotAccountService.setBalanceSlots(accountNumber, slots);
     }
 
     public AccountDTO mapToDTO(Account account) {
+        return mapToDTO(AccountView.of(account));
+    }
+
+    public AccountDTO mapToDTO(AccountView account) {
+        long balance = account.balanceSlots() > 0
+                ? Money.add(account.balance(), accountRepository.sumBalanceSlots(account.id()))
+                : account.balance();
         return AccountDTO.builder()
-                .id(account.getId())
-                .clientID(account.getClient().getId())
-                .accountNumber(account.getAccountNumber())
-                .balance(account.getBalance())
-                .status(account.getStatus())
-                .createdAt(account.getCreatedAt())
-                .updatedAt(account.getUpdatedAt())
+                .id(account.id())
+                .clientID(account.clientId())
+                .accountNumber(account.accountNumber())
+                .balance(Money.ofMinor(balance))
+                .status(account.status())
+                .createdAt(account.createdAt())
+                .updatedAt(account.updatedAt())
                 .build();
     }
 
-    public List<AccountDTO> queryAccountDTOs(QueryAccountsRequest r) {
-        Stream<Account> accounts;
-        if (r.getClientID() != null) {
-            accounts = accountRepository.findByClient_IdAndStatusNot(r.getClientID(), AccountStatus.CLOSED).stream();
-        } else {
-            accounts = accountRepository.findByStatusNot(AccountStatus.CLOSED).stream();
+    public AccountPageDTO queryAccountDTOs(QueryAccountsRequest r) {
+        int pageSize = pageSize(r);
+        List<AccountDTO> accounts = query(r, pageSize, AccountDTO::getId, (spec, limit) -> accountRepository
+                .findViewsOrderedById(spec, limit).stream()
+                .map(this::mapToDTO)
+                .map(this::withJournaledCredits)
+                .toList());
+        if (accounts == null) {
+            return null;
         }
+        boolean hasNext = accounts.size() > pageSize;
+        List<AccountDTO> page = hasNext ? accounts.subList(0, pageSize) : accounts;
+        return AccountPageDTO.builder()
+                .accounts(page)
+                .nextCursor(hasNext ? encodeCursor(page.get(page.size() - 1).getId()) : null)
+                .build();
+    }
 
-        if (r.getBalanceLB() != null) {
-            accounts = accounts.filter(acc -> acc.getBalance() >= r.getBalanceLB());
+    // the same page as queryAccountDTOs, reading only what its ETag needs
+    public AccountVersionPage queryAccountVersions(QueryAccountsRequest r) {
+        int pageSize = pageSize(r);
+        List<AccountVersion> accounts = query(r, pageSize, AccountVersion::id, (spec, limit) -> accountRepository
+                .findVersionsOrderedById(spec, limit).stream()
+                .map(this::withBalanceSlots)
+                .map(this::withJournaledCredits)
+                .toList());
+        if (accounts == null) {
+            return null;
         }
-        if (r.getBalanceUB() != null) {
-            accounts = accounts.filter(acc -> acc.getBalance() < r.getBalanceUB());
+        boolean hasNext = accounts.size() > pageSize;
+        List<AccountVersion> page = hasNext ? accounts.subList(0, pageSize) : accounts;
+        return new AccountVersionPage(page, hasNext ? encodeCursor(page.get(page.size() - 1).id()) : null);
+    }
+
+    private static int pageSize(QueryAccountsRequest r) {
+        return r.getLimit() == null ? DEFAULT_QUERY_PAGE_SIZE : Math.min(r.getLimit(), MAX_QUERY_PAGE_SIZE);
+    }
+
+    // every shard is queried in parallel for a page of its own, the first page of the merged result is returned
+    // together with one row past it; null for a malformed cursor
+    private <T> List<T> query(QueryAccountsRequest r, int pageSize, Function<T, Long> id,
+            BiFunction<Specification<Account>, Integer, List<T>> rows) {
+        Long afterId = null;
+        if (r.getCursor() != null) {
+            afterId = decodeCursor(r.getCursor());
+            if (afterId == null) {
+                return null;
+            }
         }
-        if (r.getCreatedAtLB() != null) {
-            accounts = accounts.filter(acc -> acc.getCreatedAt().compareTo(r.getCreatedAtLB()) > 0);
+        // one row past the page tells whether there is a next one without a COUNT
+        Specification<Account> spec = AccountSpecifications.matching(r).and(AccountSpecifications.idGreaterThan(afterId));
+        return balanceJournal.read(() -> mergeById(shards.readEach(shard -> rows.apply(spec, pageSize + 1)), id,
+                pageSize + 1));
+    }
+
+    // k-way merge of lists sorted by id, up to limit elements
+    private static <T> List<T> mergeById(List<List<T>> sorted, Function<T, Long> id, int limit) {
+        if (sorted.size() == 1) {
+            return sorted.get(0);
         }
-        if (r.getCreatedAtUB() != null) {
-            accounts = accounts.filter(acc -> acc.getCreatedAt().compareTo(r.getCreatedAtUB()) <= 0);
+        PriorityQueue<PeekingIterator<T>> heads = new PriorityQueue<>(
+                Comparator.comparing(head -> id.apply(head.peek())));
+        for (List<T> rows : sorted) {
+            if (!rows.isEmpty()) {
+                heads.add(new PeekingIterator<>(rows.iterator()));
+            }
         }
-        if (r.getUpdatedAtLB() != null) {
-            accounts = accounts.filter(acc -> acc.getUpdatedAt().compareTo(r.getUpdatedAtLB()) > 0);
+        List<T> merged = new ArrayList<>(limit);
+        while (merged.size() < limit && !heads.isEmpty()) {
+            PeekingIterator<T> head = heads.poll();
+            merged.add(head.next());
+            if (head.peek() != null) {
+                heads.add(head);
+            }
         }
-        if (r.getUpdatedAtUB() != null) {
-            accounts = accounts.filter(acc -> acc.getUpdatedAt().compareTo(r.getUpdatedAtUB()) <= 0);
+        return merged;
+    }
+
+    private static final class PeekingIterator<T> {
+
+        private final Iterator<T> rest;
+        private T next;
+
+        PeekingIterator(Iterator<T> rows) {
+            this.rest = rows;
+            this.next = rows.next();
+        }
+
+        T peek() {
+            return next;
+        }
+
+        T next() {
+            T current = next;
+            next = rest.hasNext() ? rest.next() : null;
+            return current;
         }
+    }
+
+    private static String encodeCursor(Long lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Long.toString(lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static Long decodeCursor(String cursor) {
+        try {
+            return Long.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) { // also covers NumberFormatException
+            return null;
+        }
+    }
 
-        return accounts.map(this::mapToDTO).toList();
+    // rows are streamed through a server-side cursor, the transaction keeps it open; one shard after another.
+    // Balances are the committed ones, an export cannot hold off the journal flusher for its whole duration
+    public void exportAccountDTOs(QueryAccountsRequest r, Consumer<AccountDTO> consumer) {
+        shards.readInTurn(shard -> accountExportRepository.streamAccountDTOs(r, consumer));
     }
 
 }
@@ -0,0 +1,547 @@
+package com.raiffeisen.bank.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.routing.Shards;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Write-behind journal for credits. {@link #append} writes the credit to a local memory-mapped file and
+ * returns once it is on disk; concurrent appends share one fsync. A background flusher applies what is on
+ * disk to Postgres every {@code flush-interval-ms}, through {@link AccountBalanceBatchWriter}, one
+ * transaction per shard that also records the last journal sequence applied on that shard in
+ * balance_journal_positions. On startup every entry past those positions is applied again, so a crash
+ * loses no acknowledged credit and applies none twice.
+ * <p>
+ * Until a credit is applied its amount is kept in memory per account and {@link #pending} adds it to
+ * balances read inside {@link #read}. A flush holds off those reads while it commits, so a read sees a credit
+ * either as pending or as committed, never both.
+ * <p>
+ * The file starts with a header holding the journal's name, followed by a sequence of fixed size entries.
+ * The entries are filled from the start again once all of them are applied; on recovery they are read up to
+ * the first one that is torn or does not continue the sequence. A file whose header names another journal is
+ * refused: its positions in the database are another journal's, so every entry in it would be applied again.
+ */
+@Component
+public class BalanceJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceJournal.class);
+
+    // sequence, delta, account number, then a CRC32 of those
+    private static final int ENTRY_SIZE = Long.BYTES + Long.BYTES + AccountNumbers.LENGTH + Integer.BYTES;
+    private static final int CHECKSUMMED_SIZE = ENTRY_SIZE - Integer.BYTES;
+    // magic, name length, name, then a CRC32 of those; entries start right after it
+    private static final int HEADER_SIZE = 256;
+    private static final int HEADER_MAGIC = 0x424A4E4C; // "BJNL"
+    private static final int MAX_NAME_LENGTH = HEADER_SIZE - 3 * Integer.BYTES;
+
+    private record Entry(long sequence, String accountNumber, long delta) {
+    }
+
+    private final AccountBalanceBatchWriter batchWriter;
+    private final AccountRepository accountRepository;
+    private final Shards shards;
+    private final boolean enabled;
+    private final Path path;
+    private final int capacity;
+    private final String name;
+    private final int maxBatchSize;
+    private final long flushIntervalMillis;
+    private final Counter rejected;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition written = appendLock.newCondition();
+    private final Condition synced = appendLock.newCondition();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ReadWriteLock overlayLock = new ReentrantReadWriteLock();
+
+    // guarded by appendLock
+    private int position;
+    private long nextSequence = 1;
+    private long syncedSequence;
+    private List<Entry> unsynced = new ArrayList<>();
+    private boolean stopped;
+    private Throwable failure;
+
+    // on disk, not yet applied
+    private final BlockingDeque<Entry> unapplied = new LinkedBlockingDeque<>();
+    private final Map<String, Long> pendingByAccountNumber = new ConcurrentHashMap<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private Thread syncer;
+    private Thread flusher;
+
+    @Autowired
+    public BalanceJournal(AccountBalanceBatchWriter batchWriter, AccountRepository accountRepository, Shards shards,
+            MeterRegistry meterRegistry,
+            @Value("${bank.balance-journal.enabled:false}") boolean enabled,
+            @Value("${bank.balance-journal.file:balance-journal.wal}") Path path,
+            @Value("${bank.balance-journal.size-mb:64}") int sizeMb,
+            @Value("${bank.balance-journal.name:local}") String name,
+            @Value("${bank.balance-journal.max-batch:1000}") int maxBatchSize,
+            @Value("${bank.balance-journal.flush-interval-ms:50}") long flushIntervalMillis) {
+        this.batchWriter = batchWriter;
+        this.accountRepository = accountRepository;
+        this.shards = shards;
+        this.enabled = enabled;
+        this.path = path;
+        this.capacity = HEADER_SIZE + (int) Math.min((long) sizeMb * 1024 * 1024 / ENTRY_SIZE * ENTRY_SIZE,
+                (Integer.MAX_VALUE - HEADER_SIZE) / ENTRY_SIZE * ENTRY_SIZE);
+        this.name = name;
+        this.maxBatchSize = maxBatchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.rejected = Counter.builder("bank.balance.journal.rejected")
+                .description("Journaled credits the database rejected, e.g. because the account was closed meanwhile")
+                .register(meterRegistry);
+        Gauge.builder("bank.balance.journal.pending", pendingCount, AtomicLong::get)
+                .description("Acknowledged credits not yet applied to the database")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map balance journal " + path, e);
+        }
+        try {
+            checkHeader();
+        } catch (RuntimeException e) {
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        recover();
+        syncer = new Thread(this::syncContinuously, "balance-journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        flusher = new Thread(this::flushContinuously, "balance-journal-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (!enabled) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            stopped = true;
+            synced.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+        syncer.interrupt();
+        flusher.interrupt();
+        try {
+            syncer.join();
+            flusher.join();
+            // what cannot be applied now is applied on the next start
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Could not apply {} journaled credits before shutting down", pendingCount.get(), e);
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close balance journal {}", path, e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // false once the journal is stopped or failed to sync, credits then take the synchronous path
+    public boolean canAppend() {
+        if (!enabled) {
+            return false;
+        }
+        appendLock.lock();
+        try {
+            return !stopped && failure == null;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns once the credit is durable in the journal; the database has it within about one flush interval.
+     *
+     * @throws CancellationException if the journal is shutting down, the credit may then still be applied
+     * @throws IllegalStateException if the journal could not be synced, the credit is then not applied
+     */
+    public void append(String accountNumber, long delta) {
+        long sequence;
+        appendLock.lock();
+        try {
+            if (stopped) {
+                throw new CancellationException("Balance journal stopped");
+            }
+            checkNotFailed();
+            makeRoom();
+            sequence = nextSequence++;
+            write(position, new Entry(sequence, accountNumber, delta));
+            position += ENTRY_SIZE;
+            unsynced.add(new Entry(sequence, accountNumber, delta));
+            written.signal();
+            while (syncedSequence < sequence) {
+                if (stopped) {
+                    throw new CancellationException("Balance journal stopped before the credit was synced");
+                }
+                checkNotFailed();
+                synced.awaitUninterruptibly();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // a full file starts over once everything in it is applied, appends wait until then
+    private void makeRoom() {
+        while (position + ENTRY_SIZE > capacity) {
+            if (syncedSequence == nextSequence - 1 && pendingCount.get() == 0) {
+                position = HEADER_SIZE;
+                return;
+            }
+            LockSupport.unpark(flusher);
+            try {
+                synced.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while the balance journal was full");
+            }
+            if (stopped) {
+                throw new CancellationException("Balance journal stopped");
+            }
+            checkNotFailed();
+        }
+    }
+
+    // the caller holds appendLock
+    private void checkNotFailed() {
+        if (failure != null) {
+            throw new IllegalStateException("Balance journal " + path + " failed", failure);
+        }
+    }
+
+    // credits on disk that are not in the database yet
+    public long pending(String accountNumber) {
+        return pendingByAccountNumber.getOrDefault(accountNumber, 0L);
+    }
+
+    public boolean hasPending(String accountNumber) {
+        return pendingByAccountNumber.containsKey(accountNumber);
+    }
+
+    // runs a read that adds pending credits to balances from the database, see the class comment
+    public <T> T read(Supplier<T> read) {
+        if (!enabled) {
+            return read.get();
+        }
+        overlayLock.readLock().lock();
+        try {
+            return read.get();
+        } finally {
+            overlayLock.readLock().unlock();
+        }
+    }
+
+    private void syncContinuously() {
+        while (true) {
+            List<Entry> group;
+            appendLock.lock();
+            try {
+                while (unsynced.isEmpty()) {
+                    written.await();
+                }
+                group = unsynced;
+                unsynced = new ArrayList<>();
+            } catch (InterruptedException e) {
+                return; // stop() wakes the appenders still waiting
+            } finally {
+                appendLock.unlock();
+            }
+            // everything appended while the previous force ran goes to disk in this one
+            try {
+                buffer.force();
+            } catch (RuntimeException | Error e) {
+                fail(group, e);
+                return;
+            }
+            for (Entry entry : group) {
+                pendingByAccountNumber.merge(entry.accountNumber(), entry.delta(), Money::add);
+                pendingCount.incrementAndGet();
+            }
+            unapplied.addAll(group);
+            appendLock.lock();
+            try {
+                syncedSequence = group.get(group.size() - 1).sequence();
+                synced.signalAll();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Rejects the credits waiting for this sync and every later append. Credits synced before stay pending
+     * and are still applied. The first rejected entry is zeroed, so recovery stops before it even if the
+     * page reaches the disk later.
+     */
+    private void fail(List<Entry> group, Throwable cause) {
+        log.error("Could not sync balance journal {}, credits are no longer journaled", path, cause);
+        appendLock.lock();
+        try {
+            failure = cause;
+            synced.signalAll();
+            // entries since the last sync are contiguous, the file only starts over when all are synced
+            buffer.put(position - (group.size() + unsynced.size()) * ENTRY_SIZE, new byte[ENTRY_SIZE]);
+        } catch (RuntimeException e) {
+            log.warn("Could not invalidate the unsynced entries of balance journal {}", path, e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void flushContinuously() {
+        while (!Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.warn("Failed to apply journaled credits, {} pending, retrying", pendingCount.get(), e);
+            }
+        }
+    }
+
+    /**
+     * Applies every credit that is on disk. Called by the flusher, and before anything that has to see the
+     * database balance including the pending credits, such as a debit.
+     */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            List<Entry> batch = new ArrayList<>(maxBatchSize);
+            while (unapplied.drainTo(batch, maxBatchSize) > 0) {
+                flushByShard(batch);
+                batch.clear();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushByShard(List<Entry> batch) {
+        Map<Integer, List<Entry>> batchesByShard = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            batchesByShard.computeIfAbsent(shards.ofAccountNumber(entry.accountNumber()), k -> new ArrayList<>())
+                    .add(entry);
+        }
+        Set<Integer> applied = new HashSet<>();
+        try {
+            for (Map.Entry<Integer, List<Entry>> shardBatch : batchesByShard.entrySet()) {
+                apply(shardBatch.getKey(), shardBatch.getValue());
+                applied.add(shardBatch.getKey());
+            }
+        } catch (RuntimeException e) {
+            // back to the front in their order, the shards that did commit are not applied twice
+            List<Entry> retry = batch.stream()
+                    .filter(entry -> !applied.contains(shards.ofAccountNumber(entry.accountNumber())))
+                    .toList();
+            for (int i = retry.size() - 1; i >= 0; i--) {
+                unapplied.addFirst(retry.get(i));
+            }
+            throw e;
+        }
+    }
+
+    private void apply(int shard, List<Entry> entries) {
+        Map<String, List<Entry>> entriesByAccountNumber = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            entriesByAccountNumber.computeIfAbsent(entry.accountNumber(), k -> new ArrayList<>()).add(entry);
+        }
+        Map<String, long[]> deltasByAccountNumber = new LinkedHashMap<>();
+        Map<String, long[]> sequencesByAccountNumber = new LinkedHashMap<>();
+        entriesByAccountNumber.forEach((accountNumber, pending) -> {
+            deltasByAccountNumber.put(accountNumber, pending.stream().mapToLong(Entry::delta).toArray());
+            sequencesByAccountNumber.put(accountNumber, pending.stream().mapToLong(Entry::sequence).toArray());
+        });
+        long lastSequence = entries.get(entries.size() - 1).sequence();
+
+        Map<String, List<BalanceOperationStatus>> statuses;
+        overlayLock.writeLock().lock();
+        try {
+            statuses = shards.on(shard, () -> batchWriter.applyJournaled(deltasByAccountNumber,
+                    sequencesByAccountNumber, name, lastSequence));
+            for (Entry entry : entries) {
+                pendingByAccountNumber.computeIfPresent(entry.accountNumber(), (k, pending) -> {
+                    long rest = Money.subtract(pending, entry.delta());
+                    return rest == 0 ? null : rest;
+                });
+                pendingCount.decrementAndGet();
+            }
+        } finally {
+            overlayLock.writeLock().unlock();
+        }
+
+        entriesByAccountNumber.forEach((accountNumber, pending) -> {
+            List<BalanceOperationStatus> results = statuses.get(accountNumber);
+            for (int i = 0; i < pending.size(); i++) {
+                if (results.get(i) != BalanceOperationStatus.SUCCESS) {
+                    rejected.increment();
+                    log.error("Journaled credit #{} of {} to account {} was acknowledged but not applied, parked: {}",
+                            pending.get(i).sequence(), Money.ofMinor(pending.get(i).delta()), accountNumber,
+                            results.get(i));
+                }
+            }
+        });
+    }
+
+    private void recover() {
+        List<Long> appliedByShard = shards.onEach(shard -> accountRepository.findJournalPosition(name).orElse(0L));
+        long previous = 0;
+        int end = HEADER_SIZE;
+        for (int offset = HEADER_SIZE; offset + ENTRY_SIZE <= capacity; offset += ENTRY_SIZE) {
+            Entry entry = read(offset);
+            if (entry == null || entry.sequence() <= 0
+                    || (offset > HEADER_SIZE && entry.sequence() != previous + 1)) {
+                break;
+            }
+            previous = entry.sequence();
+            end = offset + ENTRY_SIZE;
+            if (entry.sequence() > appliedByShard.get(shards.ofAccountNumber(entry.accountNumber()))) {
+                pendingByAccountNumber.merge(entry.accountNumber(), entry.delta(), Money::add);
+                pendingCount.incrementAndGet();
+                unapplied.add(entry);
+            }
+        }
+        // sequences stay above every position recorded in the database, or new entries would count as applied
+        long applied = appliedByShard.stream().mapToLong(Long::longValue).max().orElse(0);
+        nextSequence = Math.max(previous, applied) + 1;
+        syncedSequence = nextSequence - 1;
+        // entries still to be applied stay where they are, new ones go after them
+        position = unapplied.isEmpty() ? HEADER_SIZE : end;
+        if (!unapplied.isEmpty()) {
+            log.info("Replaying {} journaled credits from {}", unapplied.size(), path);
+        }
+    }
+
+    // a new file gets this journal's name, an existing one has to carry it
+    private void checkHeader() {
+        byte[] name = this.name.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Balance journal name longer than " + MAX_NAME_LENGTH + " bytes");
+        }
+        ByteBuffer header = buffer.slice(0, HEADER_SIZE);
+        if (header.equals(ByteBuffer.allocate(HEADER_SIZE))) { // a new file is all zeros
+            header.putInt(HEADER_MAGIC).putInt(name.length).put(name);
+            header.putInt(HEADER_SIZE - Integer.BYTES, headerChecksum(header));
+            buffer.force(0, HEADER_SIZE);
+            return;
+        }
+        int length = header.getInt(Integer.BYTES);
+        if (header.getInt(0) != HEADER_MAGIC || length < 0 || length > MAX_NAME_LENGTH
+                || header.getInt(HEADER_SIZE - Integer.BYTES) != headerChecksum(header)) {
+            throw new IllegalStateException("Balance journal " + path + " has no valid header, refusing to replay it");
+        }
+        byte[] stored = new byte[length];
+        header.get(2 * Integer.BYTES, stored);
+        if (!Arrays.equals(stored, name)) {
+            throw new IllegalStateException("Balance journal " + path + " belongs to journal '"
+                    + new String(stored, StandardCharsets.UTF_8) + "', not '" + this.name
+                    + "'; replaying it here would apply its credits again");
+        }
+    }
+
+    private static int headerChecksum(ByteBuffer header) {
+        CRC32 crc = new CRC32();
+        crc.update(header.slice(0, HEADER_SIZE - Integer.BYTES));
+        return (int) crc.getValue();
+    }
+
+    private void write(int offset, Entry entry) {
+        ByteBuffer slice = buffer.slice(offset, ENTRY_SIZE);
+        slice.putLong(entry.sequence())
+                .putLong(entry.delta())
+                .put(entry.accountNumber().getBytes(StandardCharsets.US_ASCII))
+                .putInt(checksum(slice));
+    }
+
+    // null for a torn, zeroed or otherwise unreadable entry
+    private Entry read(int offset) {
+        ByteBuffer slice = buffer.slice(offset, ENTRY_SIZE);
+        if (slice.getInt(CHECKSUMMED_SIZE) != checksum(slice)) {
+            return null;
+        }
+        byte[] accountNumber = new byte[AccountNumbers.LENGTH];
+        slice.get(Long.BYTES + Long.BYTES, accountNumber);
+        return new Entry(slice.getLong(0), new String(accountNumber, StandardCharsets.US_ASCII),
+                slice.getLong(Long.BYTES));
+    }
+
+    private static int checksum(ByteBuffer entry) {
+        CRC32 crc = new CRC32();
+        crc.update(entry.slice(0, CHECKSUMMED_SIZE));
+        return (int) crc.getValue();
+    }
+}
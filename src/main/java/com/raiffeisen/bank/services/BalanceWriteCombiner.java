@@ -0,0 +1,178 @@
+package com.raiffeisen.bank.services;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.routing.Shards;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Group commit for balance deltas. Account numbers are hashed onto a fixed number of stripes, each stripe
+ * is drained by one worker that collects whatever arrived within {@code max-delay-ms} (at most
+ * {@code max-batch} deltas) and hands it to {@link AccountBalanceBatchWriter} as a single transaction,
+ * so a burst on a hot account costs one row lock and one UPDATE instead of one per request. A batch spanning
+ * several shards is written as one transaction per shard.
+ * <p>
+ * A delta still queued after {@code timeout-ms} fails with a TimeoutException and is never applied. Once a
+ * delta is taken into a batch it no longer times out: its caller waits for the transaction and gets the real
+ * outcome, so a posting that commits is never reported as failed. How long that takes is then bounded by the
+ * database and pool timeouts.
+ */
+@Component
+public class BalanceWriteCombiner {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceWriteCombiner.class);
+
+    // taken by either the worker or the timeout, whichever comes first
+    private record PendingDelta(String accountNumber, long delta, CompletableFuture<BalanceOperationStatus> result,
+            AtomicBoolean taken) {
+    }
+
+    private final AccountBalanceBatchWriter batchWriter;
+    private final Shards shards;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long timeoutMillis;
+    private final List<BlockingQueue<PendingDelta>> stripes = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    @Autowired
+    public BalanceWriteCombiner(AccountBalanceBatchWriter batchWriter, Shards shards,
+            @Value("${bank.balance-combiner.enabled:false}") boolean enabled,
+            @Value("${bank.balance-combiner.stripes:4}") int stripeCount,
+            @Value("${bank.balance-combiner.max-batch:64}") int maxBatchSize,
+            @Value("${bank.balance-combiner.max-delay-ms:2}") long maxDelayMillis,
+            @Value("${bank.balance-combiner.timeout-ms:5000}") long timeoutMillis) {
+        this.batchWriter = batchWriter;
+        this.shards = shards;
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.timeoutMillis = timeoutMillis;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes.add(new LinkedBlockingQueue<>());
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < stripes.size(); i++) {
+            BlockingQueue<PendingDelta> queue = stripes.get(i);
+            Thread worker = new Thread(() -> drain(queue), "balance-combiner-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        workers.forEach(Thread::interrupt);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CompletableFuture<BalanceOperationStatus> submit(String accountNumber, long delta) {
+        PendingDelta pending = new PendingDelta(accountNumber, delta, new CompletableFuture<>(), new AtomicBoolean());
+        CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (pending.taken().compareAndSet(false, true)) {
+                pending.result().completeExceptionally(new TimeoutException(
+                        "Balance delta still queued after " + timeoutMillis + " ms"));
+            }
+        });
+        stripes.get(Math.floorMod(accountNumber.hashCode(), stripes.size())).add(pending);
+        return pending.result();
+    }
+
+    private void drain(BlockingQueue<PendingDelta> queue) {
+        List<PendingDelta> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingDelta next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                try {
+                    flushByShard(batch);
+                } catch (Throwable e) {
+                    // the worker has to survive, every later delta of the stripe waits on it
+                    log.error("Failed to apply {} combined balance deltas", batch.size(), e);
+                    batch.forEach(pending -> pending.result().completeExceptionally(e));
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // shutting down, nothing left will be applied
+        queue.drainTo(batch);
+        batch.forEach(pending -> pending.result().completeExceptionally(
+                new CancellationException("Balance write combiner stopped")));
+    }
+
+    private void flushByShard(List<PendingDelta> batch) {
+        Map<Integer, List<PendingDelta>> batchesByShard = new LinkedHashMap<>();
+        for (PendingDelta pending : batch) {
+            // timed out while queued, the caller has been told it failed
+            if (!pending.taken().compareAndSet(false, true)) {
+                continue;
+            }
+            batchesByShard.computeIfAbsent(shards.ofAccountNumber(pending.accountNumber()), k -> new ArrayList<>())
+                    .add(pending);
+        }
+        batchesByShard.forEach((shard, shardBatch) -> shards.run(shard, () -> flush(shardBatch)));
+    }
+
+    private void flush(List<PendingDelta> batch) {
+        Map<String, List<PendingDelta>> pendingByAccountNumber = new LinkedHashMap<>();
+        for (PendingDelta pending : batch) {
+            pendingByAccountNumber.computeIfAbsent(pending.accountNumber(), k -> new ArrayList<>()).add(pending);
+        }
+        Map<String, long[]> deltasByAccountNumber = new LinkedHashMap<>();
+        pendingByAccountNumber.forEach((accountNumber, pending) -> deltasByAccountNumber.put(accountNumber,
+                pending.stream().mapToLong(PendingDelta::delta).toArray()));
+
+        Map<String, Iterator<BalanceOperationStatus>> statuses = new LinkedHashMap<>();
+        try {
+            batchWriter.applyDeltas(deltasByAccountNumber)
+                    .forEach((accountNumber, results) -> statuses.put(accountNumber, results.iterator()));
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply {} combined balance deltas", batch.size(), e);
+            batch.forEach(pending -> pending.result().completeExceptionally(e));
+            return;
+        }
+        // the writer keeps the per-account order, so handing results out in arrival order matches them up
+        batch.forEach(pending -> pending.result().complete(statuses.get(pending.accountNumber()).next()));
+    }
+}
@@ -6,15 +6,18 @@ import org.springframework.stereotype.Service;
 import com.raiffeisen.bank.DTO.ClientDTO;
 import com.raiffeisen.bank.models.Client;
 import com.raiffeisen.bank.repositories.ClientRepository;
+import com.raiffeisen.bank.routing.Shards;
 
 @Service
 public class ClientService { // simple client creation and retrieval
 
     private final ClientRepository clientRepository;
+    private final Shards shards;
 
     @Autowired
-    public ClientService(ClientRepository clientRepository) {
+    public ClientService(ClientRepository clientRepository, Shards shards) {
         this.clientRepository = clientRepository;
+        this.shards = shards;
     }
 
     public ClientDTO createClient(ClientDTO client) {
@@ -23,21 +26,22 @@ public class ClientService { // simple client creation and retrieval
             .lastName(client.getLastName())
             .email(client.getEmail())
             .build();
-        clientRepository.save(newClient);
+        // the id comes from the shard's own range, so it names the shard from now on
+        shards.on(shards.forNewClient(), () -> clientRepository.save(newClient));
 
         return mapToDTO(newClient);
 
     }
 
     public ClientDTO getClientDTOById(Long id) {
-        Client client = clientRepository.findById(id).orElse(null);
+        Client client = getClientById(id);
         
         return client == null ? null : mapToDTO(client);
     }
 
 
     public Client getClientById(Long id) {
-        return clientRepository.findById(id).orElse(null);
+        return shards.on(shards.ofClient(id), () -> clientRepository.findById(id).orElse(null));
     }
 
 
@@ -0,0 +1,98 @@
+package com.raiffeisen.bank.services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.routing.Shards;
+
+/**
+ * Opt-in "hot account" mode. A hot account's balance is split between accounts.balance and a number of
+ * account_balance_slots rows: credits go to a random slot so they do not contend on one row, debits go
+ * through {@link AccountBalanceBatchWriter}, which sweeps the slots into the main balance under the account
+ * lock first. A periodic job consolidates the slots and refreshes which accounts are hot, so promotions made
+ * on another node are picked up within one interval.
+ */
+@Service
+public class HotAccountService {
+
+    private static final Logger log = LoggerFactory.getLogger(HotAccountService.class);
+
+    private final AccountRepository accountRepository;
+    private final AccountBalanceBatchWriter accountBalanceBatchWriter;
+    private final Shards shards;
+
+    private volatile Map<String, Integer> slotsByAccountNumber = Map.of();
+    private volatile Set<Long> hotAccountIds = Set.of();
+
+    @Autowired
+    public HotAccountService(AccountRepository accountRepository, AccountBalanceBatchWriter accountBalanceBatchWriter,
+            Shards shards) {
+        this.accountRepository = accountRepository;
+        this.accountBalanceBatchWriter = accountBalanceBatchWriter;
+        this.shards = shards;
+    }
+
+    public boolean isHot(String accountNumber) {
+        return slotsByAccountNumber.containsKey(accountNumber);
+    }
+
+    public boolean isHot(Long id) {
+        return hotAccountIds.contains(id);
+    }
+
+    // false when the account is not (or no longer) hot, or not active, the caller then takes the regular path
+    public boolean credit(String accountNumber, long delta) {
+        Integer slots = slotsByAccountNumber.get(accountNumber);
+        if (slots == null) {
+            return false;
+        }
+        int slot = ThreadLocalRandom.current().nextInt(slots);
+        return shards.on(shards.ofAccountNumber(accountNumber),
+                () -> accountRepository.creditBalanceSlot(accountNumber, slot, delta).isPresent());
+    }
+
+    // 0 demotes the account back to a single balance row
+    public boolean setBalanceSlots(String accountNumber, int slots) {
+        boolean updated = shards.on(shards.ofAccountNumber(accountNumber),
+                () -> accountBalanceBatchWriter.setBalanceSlots(accountNumber, slots));
+        if (updated) {
+            refresh();
+        }
+        return updated;
+    }
+
+    @Scheduled(fixedDelayString = "${bank.hot-accounts.consolidation-interval-ms:5000}")
+    public void consolidate() {
+        refresh();
+        for (String accountNumber : slotsByAccountNumber.keySet()) {
+            try {
+                shards.on(shards.ofAccountNumber(accountNumber),
+                        () -> accountBalanceBatchWriter.consolidate(accountNumber));
+            } catch (RuntimeException e) {
+                log.warn("Failed to consolidate balance slots of account {}", accountNumber, e);
+            }
+        }
+    }
+
+    private void refresh() {
+        List<Account> hotAccounts = shards.onEach(shard -> accountRepository.findByBalanceSlotsGreaterThan(0)).stream()
+                .flatMap(List::stream)
+                .toList();
+        slotsByAccountNumber = hotAccounts.stream()
+                .collect(Collectors.toUnmodifiableMap(Account::getAccountNumber, Account::getBalanceSlots));
+        hotAccountIds = hotAccounts.stream()
+                .map(Account::getId)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+}
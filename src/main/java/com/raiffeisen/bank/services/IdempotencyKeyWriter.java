@@ -0,0 +1,65 @@
+package com.raiffeisen.bank.services;
+
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.raiffeisen.bank.models.IdempotencyKey;
+import com.raiffeisen.bank.repositories.IdempotencyKeyRepository;
+
+@Component
+public class IdempotencyKeyWriter { // the transactional half of IdempotencyService
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public IdempotencyKeyWriter(IdempotencyKeyRepository idempotencyKeyRepository, ObjectMapper objectMapper) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Claims the key, runs the operation and records its response, all in one transaction: a crash or an
+     * exception rolls back the operation together with the claim, so the key is either unused or holds the
+     * outcome of a committed operation. A concurrent request with the same key waits on the claim and then
+     * gets the stored outcome.
+     *
+     * @return the outcome stored for the key, either earlier or by this call
+     */
+    @Transactional
+    public IdempotencyKey runOnce(String key, String requestHash, Supplier<? extends ResponseEntity<?>> operation) {
+        if (idempotencyKeyRepository.claim(key, requestHash) == 0) {
+            IdempotencyKey stored = idempotencyKeyRepository.findById(key).orElse(null);
+            // null only if the expiry job removed it right after the failed claim, the key is free again
+            return stored != null ? stored : runOnce(key, requestHash, operation);
+        }
+        ResponseEntity<?> response = operation.get();
+        IdempotencyKey outcome = IdempotencyKey.builder()
+                .key(key)
+                .requestHash(requestHash)
+                .statusCode(response.getStatusCode().value())
+                .body(toJson(response.getBody()))
+                .createdAt(LocalDateTime.now())
+                .build();
+        idempotencyKeyRepository.complete(key, outcome.getStatusCode(), outcome.getBody());
+        return outcome;
+    }
+
+    private String toJson(Object body) {
+        if (body == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot store response body of type " + body.getClass().getName(), e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.raiffeisen.bank.services;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.raiffeisen.bank.models.IdempotencyKey;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.repositories.IdempotencyKeyRepository;
+import com.raiffeisen.bank.routing.Shards;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Runs a mutating request at most once per {@code Idempotency-Key}. The first request runs the operation and
+ * stores its status and body in idempotency_keys, retries with the same key get that response back without
+ * running it again. Recent outcomes are also kept in a bounded in-memory cache, so retries hitting the same
+ * node skip the database. Keys expire after {@code bank.idempotency.ttl-hours}.
+ * <p>
+ * With several shards the caller runs {@link #execute} on the shard the operation writes to, so the key is
+ * claimed in the same transaction as the operation.
+ * <p>
+ * With the balance write combiner enabled, deposits and withdrawals commit in the combiner's own transaction;
+ * a crash between that commit and the one recording the outcome leaves the key unused. The same goes for
+ * deposits acknowledged by the {@link BalanceJournal}, which are applied even if the key's transaction is not.
+ * <p>
+ * A transaction that fails with a concurrency failure, such as a serialization error, is run once more with the
+ * same key. The claim rolled back with it, so the operation runs at most once.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final int MAX_KEY_LENGTH = 200;
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+    private final IdempotencyKeyWriter idempotencyKeyWriter;
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final ObjectMapper objectMapper;
+    private final Shards shards;
+    private final Duration ttl;
+    private final Cache<String, IdempotencyKey> recentOutcomes;
+
+    @Autowired
+    public IdempotencyService(IdempotencyKeyWriter idempotencyKeyWriter,
+            IdempotencyKeyRepository idempotencyKeyRepository, ObjectMapper objectMapper, Shards shards,
+            MeterRegistry meterRegistry,
+            @Value("${bank.idempotency.cache-max-size:10000}") long cacheMaxSize,
+            @Value("${bank.idempotency.ttl-hours:24}") long ttlHours) {
+        this.idempotencyKeyWriter = idempotencyKeyWriter;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.objectMapper = objectMapper;
+        this.shards = shards;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.recentOutcomes = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, recentOutcomes, "idempotency_keys");
+    }
+
+    /**
+     * @param key       the Idempotency-Key header, the operation is simply run when there is none
+     * @param operation name of the endpoint, keys are scoped to it
+     * @param request   the request body, a retry must send an equal one; amounts only have to be equal in value
+     * @param bodyType  type of the response body, used to read a stored one back
+     */
+    public <T> ResponseEntity<T> execute(String key, String operation, Object request, Class<T> bodyType,
+            Supplier<ResponseEntity<T>> action) {
+        if (key == null) {
+            return action.get();
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest().build();
+        }
+        String scopedKey = operation + ":" + key;
+        String requestHash = fingerprint(request);
+
+        IdempotencyKey stored = recentOutcomes.getIfPresent(scopedKey);
+        if (stored == null) {
+            AtomicReference<ResponseEntity<T>> executed = new AtomicReference<>();
+            Supplier<ResponseEntity<T>> run = () -> {
+                executed.set(action.get());
+                return executed.get();
+            };
+            try {
+                stored = idempotencyKeyWriter.runOnce(scopedKey, requestHash, run);
+            } catch (ConcurrencyFailureException e) {
+                // e.g. a write to an account a concurrent close moved to accounts_closed; the operation was
+                // rolled back together with the claim, run again it sees the account closed
+                executed.set(null);
+                stored = idempotencyKeyWriter.runOnce(scopedKey, requestHash, run);
+            }
+            recentOutcomes.put(scopedKey, stored);
+            if (executed.get() != null) {
+                return executed.get();
+            }
+        }
+        return replay(stored, requestHash, bodyType);
+    }
+
+    // SHA-256 of the request as JSON with sorted properties and amounts in minor units, so 10.0 matches 10.00
+    private String fingerprint(Object request) {
+        try {
+            byte[] canonical = objectMapper.writeValueAsBytes(canonical(objectMapper.valueToTree(request)));
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(canonical));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot fingerprint request of type " + request.getClass().getName(), e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+
+    private static JsonNode canonical(JsonNode node) {
+        if (node.isObject()) {
+            Map<String, JsonNode> sorted = new TreeMap<>();
+            for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext();) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                sorted.put(field.getKey(), canonical(field.getValue()));
+            }
+            ObjectNode object = JsonNodeFactory.instance.objectNode();
+            sorted.forEach(object::set);
+            return object;
+        }
+        if (node.isArray()) {
+            ArrayNode array = JsonNodeFactory.instance.arrayNode();
+            node.forEach(element -> array.add(canonical(element)));
+            return array;
+        }
+        // the only fractional numbers in requests are amounts
+        if (node.isFloatingPointNumber()) {
+            return LongNode.valueOf(Money.toMinorUnits(node.decimalValue()));
+        }
+        return node;
+    }
+
+    private <T> ResponseEntity<T> replay(IdempotencyKey stored, String requestHash, Class<T> bodyType) {
+        if (!stored.getRequestHash().equals(requestHash)) {
+            // same key, different request: most likely a client bug, running it could post twice
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).build();
+        }
+        try {
+            T body = stored.getBody() == null ? null : objectMapper.readValue(stored.getBody(), bodyType);
+            return ResponseEntity.status(stored.getStatusCode())
+                    .header("Idempotent-Replayed", "true")
+                    .body(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored response for " + stored.getKey() + " is not a " + bodyType, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${bank.idempotency.purge-interval-ms:600000}")
+    public void purgeExpired() {
+        LocalDateTime expiredBefore = LocalDateTime.now().minus(ttl);
+        // keys are stored on the shard of the account they were used for
+        shards.forEach(shard -> {
+            int purged = idempotencyKeyRepository.deleteCreatedBefore(expiredBefore);
+            if (purged > 0) {
+                log.debug("Purged {} expired idempotency keys on shard {}", purged, shard);
+            }
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package com.raiffeisen.bank.services;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.routing.Shards;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Hands out serials from blocks reserved with one nextval() on account_number_seq, so uniqueness comes
+ * from the sequence and opening an account needs no lookup. A block that is only partly used when the
+ * node stops is simply skipped. Each shard has its own sequence and so its own block, the block of the
+ * current shard is used.
+ */
+@Component
+public class SequenceAccountNumberAllocator implements AccountNumberAllocator {
+
+    // must match the INCREMENT BY of account_number_seq
+    static final long BLOCK_SIZE = 1000;
+
+    private final AccountRepository accountRepository;
+    private final Counter blockReservations;
+
+    // not synchronized: a virtual thread waiting for the block reservation would pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final long[] next = new long[Shards.MAX_COUNT];
+    private final long[] blockEnd = new long[Shards.MAX_COUNT];
+
+    @Autowired
+    public SequenceAccountNumberAllocator(AccountRepository accountRepository, MeterRegistry meterRegistry) {
+        this.accountRepository = accountRepository;
+        // numbers cannot collide, so there are no retries to count; a reservation is the only round trip
+        this.blockReservations = Counter.builder("bank.account_numbers.block_reservations")
+                .description("Blocks of account numbers reserved from account_number_seq")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String allocate() {
+        return AccountNumbers.format(nextSerial());
+    }
+
+    private long nextSerial() {
+        lock.lock();
+        try {
+            int shard = Shards.current();
+            if (next[shard] == blockEnd[shard]) {
+                next[shard] = accountRepository.reserveAccountNumberBlock();
+                blockReservations.increment();
+                blockEnd[shard] = next[shard] + BLOCK_SIZE;
+            }
+            return next[shard]++;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
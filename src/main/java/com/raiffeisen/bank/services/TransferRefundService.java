@@ -0,0 +1,94 @@
+package com.raiffeisen.bank.services;
+
+import java.time.LocalDateTime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.raiffeisen.bank.models.BalanceOperationStatus;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.models.TransferRefund;
+import com.raiffeisen.bank.repositories.TransferRefundRepository;
+import com.raiffeisen.bank.routing.Shards;
+
+/**
+ * Refunds of transfers between shards whose deposit failed. A refund is stored in transfer_refunds on the
+ * shard of the account it goes back to before it is applied. One that cannot be applied right away, because
+ * that shard failed or the account was closed in the meantime, stays there and is retried every
+ * {@code bank.transfers.refund-retry-interval-ms}.
+ */
+@Service
+public class TransferRefundService {
+
+    private static final int RETRY_BATCH = 100;
+
+    private static final Logger log = LoggerFactory.getLogger(TransferRefundService.class);
+
+    private final TransferRefundRepository transferRefundRepository;
+    private final AccountBalanceBatchWriter accountBalanceBatchWriter;
+    private final Shards shards;
+
+    @Autowired
+    public TransferRefundService(TransferRefundRepository transferRefundRepository,
+            AccountBalanceBatchWriter accountBalanceBatchWriter, Shards shards) {
+        this.transferRefundRepository = transferRefundRepository;
+        this.accountBalanceBatchWriter = accountBalanceBatchWriter;
+        this.shards = shards;
+    }
+
+    /**
+     * Stores the refund on {@code shard} and applies it.
+     *
+     * @throws RuntimeException if it could not be stored, the amount is then only in the log
+     */
+    public void refund(int shard, String accountNumber, String toAccountNumber, long amount) {
+        TransferRefund refund;
+        try {
+            refund = shards.on(shard, () -> transferRefundRepository.save(TransferRefund.builder()
+                    .accountNumber(accountNumber)
+                    .toAccountNumber(toAccountNumber)
+                    .amount(amount)
+                    .createdAt(LocalDateTime.now())
+                    .build()));
+        } catch (RuntimeException e) {
+            log.error("Could not store the refund of {} to {} after a failed transfer to {}",
+                    Money.ofMinor(amount), accountNumber, toAccountNumber, e);
+            throw e;
+        }
+        apply(shard, refund);
+    }
+
+    @Scheduled(fixedDelayString = "${bank.transfers.refund-retry-interval-ms:60000}",
+            initialDelayString = "${bank.transfers.refund-retry-interval-ms:60000}")
+    public void retryRefunds() {
+        if (shards.count() == 1) {
+            return; // only transfers between shards leave refunds
+        }
+        shards.forEach(shard -> {
+            try {
+                transferRefundRepository.findByOrderById(Limit.of(RETRY_BATCH)).forEach(refund -> apply(shard, refund));
+            } catch (RuntimeException e) {
+                log.warn("Could not read the refunds on shard {}", shard, e);
+            }
+        });
+    }
+
+    private void apply(int shard, TransferRefund refund) {
+        BalanceOperationStatus status;
+        try {
+            status = shards.on(shard, () -> accountBalanceBatchWriter.applyRefund(refund.getId()));
+        } catch (RuntimeException e) {
+            log.warn("Could not apply refund {} of {} to {}, retrying later", refund.getId(),
+                    Money.ofMinor(refund.getAmount()), refund.getAccountNumber(), e);
+            return;
+        }
+        if (status != BalanceOperationStatus.SUCCESS) {
+            log.warn("Refund {} of {} to {} after a failed transfer to {} is pending: {}", refund.getId(),
+                    Money.ofMinor(refund.getAmount()), refund.getAccountNumber(), refund.getToAccountNumber(), status);
+        }
+    }
+}
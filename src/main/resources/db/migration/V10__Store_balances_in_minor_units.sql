@@ -0,0 +1,4 @@
+-- balances become exact whole cents instead of binary floating point
+ALTER TABLE accounts ALTER COLUMN balance TYPE BIGINT USING ROUND(balance * 100)::bigint;
+
+ALTER TABLE account_balance_slots ALTER COLUMN balance TYPE BIGINT USING ROUND(balance * 100)::bigint;
@@ -0,0 +1,12 @@
+-- outcomes of mutating requests sent with an Idempotency-Key header, replayed to retries
+-- idempotency_key is prefixed with the operation, so the same key on two endpoints does not collide
+CREATE TABLE idempotency_keys (
+    idempotency_key VARCHAR(255) PRIMARY KEY,
+    request_hash VARCHAR(64) NOT NULL,
+    status_code SMALLINT,
+    body TEXT,
+    created_at TIMESTAMP NOT NULL
+);
+
+-- for the expiry job
+CREATE INDEX idx_idempotency_keys_created_at ON idempotency_keys (created_at);
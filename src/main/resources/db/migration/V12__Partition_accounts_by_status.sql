@@ -0,0 +1,63 @@
+-- accounts becomes list-partitioned by status, so closed accounts stop sharing a heap and indexes with the
+-- active ones: every hot path filters on status = 'ACTIVE' and is pruned to accounts_active. Closing an
+-- account moves its row to accounts_closed.
+--
+-- Unique constraints of a partitioned table must include the partition key, so id and account_number are
+-- only unique per partition; both come from sequences, which keeps them unique overall. For the same reason
+-- account_balance_slots can no longer reference accounts.
+ALTER TABLE account_balance_slots DROP CONSTRAINT account_balance_slots_account_id_fkey;
+
+-- would otherwise be dropped together with the old table
+ALTER SEQUENCE accounts_id_seq OWNED BY NONE;
+
+ALTER TABLE accounts RENAME TO accounts_unpartitioned;
+
+CREATE TABLE accounts (
+    id INTEGER NOT NULL DEFAULT nextval('accounts_id_seq'),
+    client_id BIGINT REFERENCES clients(id),
+    account_number VARCHAR(255) NOT NULL,
+    balance BIGINT NOT NULL,
+    status VARCHAR(20) NOT NULL CONSTRAINT validate_status CHECK (status IN ('ACTIVE', 'CLOSED')),
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    balance_slots INT NOT NULL DEFAULT 0
+) PARTITION BY LIST (status);
+
+CREATE TABLE accounts_active PARTITION OF accounts (PRIMARY KEY (id), UNIQUE (account_number))
+    FOR VALUES IN ('ACTIVE');
+
+CREATE TABLE accounts_closed PARTITION OF accounts (PRIMARY KEY (id), UNIQUE (account_number))
+    FOR VALUES IN ('CLOSED');
+
+INSERT INTO accounts (id, client_id, account_number, balance, status, created_at, updated_at, balance_slots)
+SELECT id, client_id, account_number, balance, status, created_at, updated_at, balance_slots
+FROM accounts_unpartitioned;
+
+DROP TABLE accounts_unpartitioned;
+
+ALTER SEQUENCE accounts_id_seq OWNED BY accounts.id;
+
+-- the V4/V5 indexes, now only over active accounts: /query pages and /recent
+CREATE INDEX accounts_active_client_id_id_idx ON accounts_active (client_id, id);
+CREATE INDEX accounts_active_updated_at_id_idx ON accounts_active (updated_at, id);
+CREATE INDEX accounts_active_client_id_updated_at_idx ON accounts_active (client_id, updated_at DESC);
+
+-- a client's closed accounts are only looked up, never paged through
+CREATE INDEX accounts_closed_client_id_idx ON accounts_closed (client_id);
+
+-- a move between partitions fires the DELETE and INSERT triggers instead of the UPDATE ones, so closing an
+-- account is announced by its DELETE
+CREATE OR REPLACE FUNCTION notify_account_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('account_changes', OLD.id || ':' || OLD.account_number);
+    ELSE
+        PERFORM pg_notify('account_changes', NEW.id || ':' || NEW.account_number);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER accounts_notify_change
+    AFTER UPDATE OR DELETE ON accounts
+    FOR EACH ROW EXECUTE FUNCTION notify_account_change();
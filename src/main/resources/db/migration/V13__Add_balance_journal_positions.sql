@@ -0,0 +1,5 @@
+-- per node journal of acknowledged credits: the last entry applied to this database
+CREATE TABLE balance_journal_positions (
+    journal VARCHAR(255) PRIMARY KEY,
+    applied_sequence BIGINT NOT NULL
+);
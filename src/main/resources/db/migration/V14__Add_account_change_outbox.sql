@@ -0,0 +1,32 @@
+-- every insert or update of an account, written by the same transaction, for the change feed.
+-- Readers go by (txid, id) and only read rows of transactions older than every running one, so a row
+-- never becomes visible behind a position that was already read
+CREATE TABLE account_change_outbox (
+    txid BIGINT NOT NULL DEFAULT txid_current(),
+    id BIGSERIAL,
+    account_id INTEGER NOT NULL,
+    client_id BIGINT NOT NULL,
+    account_number VARCHAR(255) NOT NULL,
+    balance BIGINT NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    updated_at TIMESTAMP NOT NULL,
+    recorded_at TIMESTAMP NOT NULL DEFAULT LOCALTIMESTAMP,
+    PRIMARY KEY (txid, id)
+);
+
+-- for the retention job
+CREATE INDEX account_change_outbox_recorded_at_idx ON account_change_outbox (recorded_at);
+
+CREATE FUNCTION record_account_change() RETURNS trigger AS $$
+BEGIN
+    INSERT INTO account_change_outbox (account_id, client_id, account_number, balance, status, created_at, updated_at)
+    VALUES (NEW.id, NEW.client_id, NEW.account_number, NEW.balance, NEW.status, NEW.created_at, NEW.updated_at);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- closing an account moves it to accounts_closed, which shows up here as the insert of the closed row
+CREATE TRIGGER accounts_record_change
+    AFTER INSERT OR UPDATE ON accounts
+    FOR EACH ROW EXECUTE FUNCTION record_account_change();
@@ -0,0 +1,9 @@
+-- refunds owed for transfers between shards whose deposit failed, kept on the shard of the account they
+-- go back to until applied. Applying one deletes its row in the same transaction, see TransferRefundService
+CREATE TABLE transfer_refunds (
+    id BIGSERIAL PRIMARY KEY,
+    account_number VARCHAR(255) NOT NULL,
+    to_account_number VARCHAR(255) NOT NULL,
+    amount BIGINT NOT NULL,
+    created_at TIMESTAMP NOT NULL
+);
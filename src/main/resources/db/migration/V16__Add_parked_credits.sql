@@ -0,0 +1,12 @@
+-- journaled credits that were acknowledged to the client but rejected by the database, e.g. because the
+-- account was closed before the journal was applied. Written in the transaction that applies the journal,
+-- kept until the money is reconciled or refunded, see BalanceJournal
+CREATE TABLE parked_credits (
+    id BIGSERIAL PRIMARY KEY,
+    account_number VARCHAR(255) NOT NULL,
+    amount BIGINT NOT NULL,
+    journal VARCHAR(255) NOT NULL,
+    journal_sequence BIGINT NOT NULL,
+    reason VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP NOT NULL
+);
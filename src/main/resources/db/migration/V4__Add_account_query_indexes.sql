@@ -0,0 +1,5 @@
+-- /api/accounts/query pages through non-closed accounts in id order,
+-- these let a page be a short range scan instead of a sort over the whole table
+CREATE INDEX accounts_client_id_id_open_idx ON accounts (client_id, id) WHERE status <> 'CLOSED';
+
+CREATE INDEX accounts_updated_at_id_open_idx ON accounts (updated_at, id) WHERE status <> 'CLOSED';
@@ -0,0 +1,2 @@
+-- /api/accounts/recent reads the newest `limit` entries of this index directly, no sort
+CREATE INDEX accounts_client_id_status_updated_at_idx ON accounts (client_id, status, updated_at DESC);
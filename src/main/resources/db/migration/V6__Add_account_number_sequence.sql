@@ -0,0 +1,2 @@
+-- every nextval() reserves a block of 1000 serials for one node, see SequenceAccountNumberAllocator
+CREATE SEQUENCE account_number_seq START WITH 1 INCREMENT BY 1000;
@@ -0,0 +1,12 @@
+-- every node LISTENs on this channel to drop its cached copy of a changed account,
+-- notifications are only delivered once the writing transaction commits
+CREATE FUNCTION notify_account_change() RETURNS trigger AS $$
+BEGIN
+    PERFORM pg_notify('account_changes', NEW.id || ':' || NEW.account_number);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER accounts_notify_change
+    AFTER UPDATE ON accounts
+    FOR EACH ROW EXECUTE FUNCTION notify_account_change();
@@ -0,0 +1,2 @@
+-- must match allocationSize of Account.id, every nextval() hands Hibernate a block of 50 ids
+ALTER SEQUENCE accounts_id_seq INCREMENT BY 50;
@@ -0,0 +1,10 @@
+-- hot accounts keep part of their balance in balance_slots sub-rows so that concurrent credits
+-- do not all queue on the accounts row; 0 means the whole balance lives in accounts.balance
+ALTER TABLE accounts ADD COLUMN balance_slots INT NOT NULL DEFAULT 0;
+
+CREATE TABLE account_balance_slots (
+    account_id BIGINT NOT NULL REFERENCES accounts(id),
+    slot INT NOT NULL,
+    balance DOUBLE PRECISION NOT NULL DEFAULT 0,
+    PRIMARY KEY (account_id, slot)
+);
@@ -1,29 +1,53 @@
 package com.raiffeisen.bank;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.raiffeisen.bank.DTO.AccountChangeDTO;
+import com.raiffeisen.bank.DTO.AccountChangePageDTO;
 import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.AccountPageDTO;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
 import com.raiffeisen.bank.controllers.AccountController;
 import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.AccountVersion;
+import com.raiffeisen.bank.models.BalanceOperationStatus;
 import com.raiffeisen.bank.models.Client;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.routing.ShardTransactions;
+import com.raiffeisen.bank.routing.Shards;
+import com.raiffeisen.bank.services.AccountChangeFeed;
 import com.raiffeisen.bank.services.AccountService;
+import com.raiffeisen.bank.services.IdempotencyService;
 
 @WebMvcTest(AccountController.class)
+@Import({ Shards.class, ShardTransactions.class })
 public class AccountControllerTest {
 
     MockMvc mockMvc;
@@ -33,6 +57,12 @@ public class AccountControllerTest {
     @MockBean
     AccountService accountService;
 
+    @MockBean
+    IdempotencyService idempotencyService;
+
+    @MockBean
+    AccountChangeFeed accountChangeFeed;
+
     Client sampleClient = Client.builder()
             .firstName("sample_firstName")
             .lastName("sample_lastName")
@@ -48,6 +78,14 @@ public class AccountControllerTest {
                 .configure(SerializationFeature.WRITE_ENUMS_USING_TO_STRING, true);
     }
 
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        Mockito.when(idempotencyService.execute(Mockito.any(), Mockito.anyString(), Mockito.any(), Mockito.any(),
+                Mockito.any(Supplier.class)))
+                .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(4)).get());
+    }
+
     @Test
     void testOpenNewAccount() throws Exception {
         AccountDTO freshAccount = AccountDTO.builder()
@@ -65,6 +103,26 @@ public class AccountControllerTest {
                 .andExpect(MockMvcResultMatchers.jsonPath("$.status").value(freshAccount.getStatus().toString()));
     }
 
+    @Test
+    void testOpenNewAccounts() throws Exception {
+        List<AccountDTO> freshAccounts = List.of(
+                AccountDTO.builder().id(1L).clientID(sampleClient.getId()).status(AccountStatus.ACTIVE).build(),
+                AccountDTO.builder().id(2L).clientID(sampleClient.getId()).status(AccountStatus.ACTIVE).build());
+        Mockito.when(accountService.openNewAccounts(1L, 2)).thenReturn(freshAccounts);
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/accounts/open_bulk")
+                .contentType("application/json")
+                .content("{\"clientID\": 1, \"count\": 2}"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].id").value(2));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/accounts/open_bulk")
+                .contentType("application/json")
+                .content("{\"clientID\": 1, \"count\": 100000}"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
     @Test
     void testCloseAccount() throws Exception {
         AccountDTO closedAccount = AccountDTO.builder()
@@ -98,12 +156,12 @@ public class AccountControllerTest {
         // Mockito.when(accountService.getAccountByAccountNumber(argThat(accNum ->
         // !accNum.equals(accountNumber)))).thenReturn(null);
 
-        Mockito.when(accountService.applyAccountBalanceDelta(eq(accountNumber), Mockito.anyDouble()))
-                .thenReturn(true);
+        Mockito.when(accountService.applyAccountBalanceDelta(eq(accountNumber), Mockito.anyLong()))
+                .thenReturn(BalanceOperationStatus.SUCCESS);
 
         Mockito.when(accountService.applyAccountBalanceDelta(argThat(accNum -> !accNum.equals(accountNumber)),
-                Mockito.anyDouble()))
-                .thenReturn(false);
+                Mockito.anyLong()))
+                .thenReturn(BalanceOperationStatus.ACCOUNT_NOT_FOUND);
 
         mockMvc.perform(MockMvcRequestBuilders.put("/api/accounts/deposit")
                 .contentType("application/json")
@@ -115,5 +173,188 @@ public class AccountControllerTest {
                 .contentType("application/json")
                 .content(objectMapper.writeValueAsString(nonexistentAccRequest)))
                 .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        mockMvc.perform(MockMvcRequestBuilders.put("/api/accounts/deposit")
+                .header("Idempotency-Key", "retry-1")
+                .contentType("application/json")
+                .content(objectMapper.writeValueAsString(existingAccRequest)))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        Mockito.verify(idempotencyService).execute(eq("retry-1"), eq("deposit"), Mockito.any(), eq(String.class),
+                Mockito.any());
+
+        // fractions of a cent cannot be represented
+        mockMvc.perform(MockMvcRequestBuilders.put("/api/accounts/deposit")
+                .contentType("application/json")
+                .content("{\"accountNumber\": \"123456\", \"amount\": 0.001}"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void testWithdrawFromAccount() throws Exception {
+        Map<String, BalanceOperationStatus> statusesByAccountNumber = Map.of(
+                "active", BalanceOperationStatus.SUCCESS,
+                "closed", BalanceOperationStatus.ACCOUNT_CLOSED,
+                "poor", BalanceOperationStatus.INSUFFICIENT_FUNDS);
+        statusesByAccountNumber.forEach((accountNumber, status) -> Mockito
+                .when(accountService.applyAccountBalanceDelta(accountNumber, -10000))
+                .thenReturn(status));
+
+        Map<String, Integer> expectedStatusCodes = Map.of(
+                "active", 200,
+                "closed", 409,
+                "poor", 422);
+
+        for (Map.Entry<String, Integer> entry : expectedStatusCodes.entrySet()) {
+            mockMvc.perform(MockMvcRequestBuilders.put("/api/accounts/withdraw")
+                    .contentType("application/json")
+                    .content(objectMapper.writeValueAsString(Map.of(
+                            "accountNumber", entry.getKey(),
+                            "amount", 100.0))))
+                    .andExpect(MockMvcResultMatchers.status().is(entry.getValue()));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testExportAccounts() throws Exception {
+        Mockito.doAnswer(invocation -> {
+            Consumer<AccountDTO> consumer = invocation.getArgument(1);
+            consumer.accept(AccountDTO.builder().id(1L).clientID(sampleClient.getId()).build());
+            consumer.accept(AccountDTO.builder().id(2L).clientID(sampleClient.getId())
+                    .balance(Money.ofMinor(10050)).build());
+            return null;
+        }).when(accountService).exportAccountDTOs(Mockito.any(QueryAccountsRequest.class), Mockito.any(Consumer.class));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/export")
+                .contentType("application/json")
+                .content("{\"clientID\": 1}"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+
+        String[] lines = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(2L, objectMapper.readValue(lines[1], AccountDTO.class).getId());
+        assertEquals(Money.ofMinor(10050), objectMapper.readValue(lines[1], AccountDTO.class).getBalance());
+        assertTrue(lines[1].contains("\"balance\":100.50"));
+    }
+
+    @Test
+    void testGetAccountChanges() throws Exception {
+        AccountChangePageDTO page = AccountChangePageDTO.builder()
+                .changes(List.of(AccountChangeDTO.builder()
+                        .offset("after-closed")
+                        .account(AccountDTO.builder().id(1L).clientID(1L).status(AccountStatus.CLOSED).build())
+                        .build()))
+                .offset("after-closed")
+                .build();
+        Mockito.when(accountChangeFeed.isEnabled()).thenReturn(true);
+        Mockito.when(accountChangeFeed.read("start", 100)).thenReturn(page);
+
+        MvcResult changes = mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/changes").param("after", "start"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(changes))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.offset").value("after-closed"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes[0].account.status").value("CLOSED"));
+
+        // an offset the feed did not hand out
+        MvcResult unknown = mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/changes").param("after", "x"))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(unknown))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+
+        // every stream place of the node is taken
+        Mockito.when(accountChangeFeed.openStream()).thenReturn(false);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/changes/stream"))
+                .andExpect(MockMvcResultMatchers.status().isServiceUnavailable());
+    }
+
+    @Test
+    void testConditionalGetAccountByAccountNumber() throws Exception {
+        String accountNumber = "01234567899876543210";
+        LocalDateTime updatedAt = LocalDateTime.of(2024, 5, 1, 12, 30);
+        AccountDTO account = AccountDTO.builder()
+                .id(1L)
+                .clientID(sampleClient.getId())
+                .accountNumber(accountNumber)
+                .balance(Money.ofMinor(1000))
+                .status(AccountStatus.ACTIVE)
+                .createdAt(updatedAt)
+                .updatedAt(updatedAt)
+                .build();
+        Mockito.when(accountService.getAccountDTOByAccountNumber(accountNumber)).thenReturn(account);
+
+        String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/by_number")
+                .param("accountNumber", accountNumber))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.accountNumber").value(accountNumber))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/by_number")
+                .param("accountNumber", accountNumber)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, eTag))
+                .andExpect(MockMvcResultMatchers.content().string(""));
+
+        // a credit to a hot account slot changes the balance but not updatedAt
+        Mockito.when(accountService.getAccountDTOByAccountNumber(accountNumber))
+                .thenReturn(account.toBuilder().balance(Money.ofMinor(1500)).build());
+        String creditedETag = mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/by_number")
+                .contentType("application/json")
+                .content("{\"accountNumber\": \"" + accountNumber + "\"}")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(15.00))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(eTag, creditedETag);
+
+        // the account's version answers a matching revalidation, the account itself is not loaded
+        Mockito.clearInvocations(accountService);
+        Mockito.when(accountService.getAccountVersionByAccountNumber(accountNumber))
+                .thenReturn(new AccountVersion(1L, accountNumber, updatedAt, 1500L, 0));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/by_number")
+                .param("accountNumber", accountNumber)
+                .header(HttpHeaders.IF_NONE_MATCH, "W/\"stale\", " + creditedETag))
+                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, creditedETag));
+        Mockito.verify(accountService, Mockito.never()).getAccountDTOByAccountNumber(accountNumber);
+    }
+
+    @Test
+    void testQueryAccountsFromQueryString() throws Exception {
+        LocalDateTime updatedAtLB = LocalDateTime.of(2024, 1, 1, 0, 0);
+        AccountPageDTO page = AccountPageDTO.builder()
+                .accounts(List.of(AccountDTO.builder()
+                        .id(2L)
+                        .clientID(sampleClient.getId())
+                        .balance(Money.ofMinor(500))
+                        .updatedAt(updatedAtLB.plusDays(1))
+                        .build()))
+                .build();
+        Mockito.when(accountService.queryAccountDTOs(argThat(r -> r != null
+                && sampleClient.getId().equals(r.getClientID())
+                && updatedAtLB.equals(r.getUpdatedAtLB())
+                && Integer.valueOf(10).equals(r.getLimit()))))
+                .thenReturn(page);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/query")
+                .param("clientID", "1")
+                .param("updatedAtLB", "2024-01-01T00:00:00")
+                .param("limit", "10"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.ETAG))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.accounts[0].id").value(2));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/query").param("limit", "0"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/accounts/recent").param("limit", "10"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
     }
 }
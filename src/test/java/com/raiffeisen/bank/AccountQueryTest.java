@@ -0,0 +1,163 @@
+package com.raiffeisen.bank;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.QueryAccountsRequest;
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.Client;
+import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.repositories.ClientRepository;
+import com.raiffeisen.bank.services.AccountDTOCache;
+import com.raiffeisen.bank.services.AccountNumbers;
+import com.raiffeisen.bank.services.AccountService;
+
+/**
+ * The filters of /api/accounts/query, run as SQL: balance [LB, UB), timestamps (LB, UB], the client, and
+ * closed accounts left out. Same H2 setup as AccountReadStatementCountTest.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:statement_count;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.hikari.data-source-properties.reWriteBatchedInserts=",
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "bank.account-cache.listen=false",
+        "bank.account-changes.enabled=false",
+        "bank.hot-accounts.consolidation-interval-ms=3600000",
+        "bank.idempotency.purge-interval-ms=3600000" })
+public class AccountQueryTest {
+
+    final LocalDateTime SAMPLE_DT = LocalDateTime.of(2024, 6, 10, 12, 0, 0);
+
+    @Autowired
+    AccountService accountService;
+
+    @Autowired
+    AccountRepository accountRepository;
+
+    @Autowired
+    ClientRepository clientRepository;
+
+    @Autowired
+    AccountDTOCache accountDTOCache;
+
+    Client sampleClient;
+    Client otherClient;
+
+    @BeforeEach
+    void setUp() {
+        accountRepository.deleteAll();
+        clientRepository.deleteAll();
+        accountDTOCache.invalidateAll();
+
+        sampleClient = clientRepository.save(Client.builder()
+                .firstName("Valery")
+                .lastName("Zhmyshenko")
+                .email("valzhmysh@mail.ru")
+                .build());
+        otherClient = clientRepository.save(Client.builder()
+                .firstName("Other")
+                .lastName("Client")
+                .email("other@mail.ru")
+                .build());
+
+        // num1..num4: balance 50.00 * i, created i months and updated i days before SAMPLE_DT
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            accounts.add(account(sampleClient, i, 5000L * i, AccountStatus.ACTIVE, SAMPLE_DT.minusMonths(i),
+                    SAMPLE_DT.minusDays(i)));
+        }
+        // would match most of the queries below if closed accounts were not left out
+        accounts.add(account(sampleClient, 5, 10000, AccountStatus.CLOSED, SAMPLE_DT.minusMonths(2),
+                SAMPLE_DT.minusDays(2)));
+        accounts.add(account(otherClient, 6, 50000, AccountStatus.ACTIVE, SAMPLE_DT.minusMonths(6),
+                SAMPLE_DT.minusDays(2)));
+        accountRepository.saveAll(accounts);
+    }
+
+    private static Account account(Client client, long serial, long balance, AccountStatus status,
+            LocalDateTime createdAt, LocalDateTime updatedAt) {
+        return Account.builder()
+                .client(client)
+                .accountNumber(AccountNumbers.format(serial))
+                .balance(balance)
+                .status(status)
+                .createdAt(createdAt)
+                .updatedAt(updatedAt)
+                .build();
+    }
+
+    @Test
+    void testQueryAccounts() {
+        List<QueryAccountsRequest> queries = List.of(
+            QueryAccountsRequest.builder()
+                .balanceLB(new BigDecimal("80.00"))
+                .balanceUB(new BigDecimal("170.00"))
+                .build(), // num2, num3
+            QueryAccountsRequest.builder()
+                .balanceLB(new BigDecimal("60.00"))
+                .createdAtLB(SAMPLE_DT.minusMonths(2).minusHours(1))
+                .build(), // num2
+            QueryAccountsRequest.builder()
+                .clientID(sampleClient.getId())
+                .balanceUB(new BigDecimal("160.00"))
+                .createdAtUB(SAMPLE_DT.minusMonths(1).minusHours(1))
+                .updatedAtLB(SAMPLE_DT.minusDays(5))
+                .build(), // num2, num3
+            // balance bounds: LB inclusive, UB exclusive
+            QueryAccountsRequest.builder()
+                .balanceLB(new BigDecimal("100.00"))
+                .balanceUB(new BigDecimal("150.00"))
+                .build(), // num2
+            // timestamp bounds: LB exclusive, UB inclusive
+            QueryAccountsRequest.builder()
+                .clientID(sampleClient.getId())
+                .createdAtLB(SAMPLE_DT.minusMonths(3))
+                .createdAtUB(SAMPLE_DT.minusMonths(1))
+                .build(), // num1, num2
+            QueryAccountsRequest.builder()
+                .clientID(sampleClient.getId())
+                .updatedAtLB(SAMPLE_DT.minusDays(4))
+                .updatedAtUB(SAMPLE_DT.minusDays(2))
+                .build(), // num2, num3
+            QueryAccountsRequest.builder()
+                .clientID(otherClient.getId())
+                .build() // num6
+        );
+
+        List<long[]> expectedResults = List.of(
+            new long[] { 2, 3 },
+            new long[] { 2 },
+            new long[] { 2, 3 },
+            new long[] { 2 },
+            new long[] { 1, 2 },
+            new long[] { 2, 3 },
+            new long[] { 6 }
+        );
+
+        for (int queryNum = 0; queryNum < queries.size(); queryNum++) {
+            List<String> expected = new ArrayList<>();
+            for (long serial : expectedResults.get(queryNum)) {
+                expected.add(AccountNumbers.format(serial));
+            }
+            List<String> result = accountService.queryAccountDTOs(queries.get(queryNum)).getAccounts().stream()
+                    .map(AccountDTO::getAccountNumber)
+                    .toList();
+            assertEquals(expected, result, "query " + queryNum);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.raiffeisen.bank;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.Client;
+import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.repositories.ClientRepository;
+import com.raiffeisen.bank.services.AccountDTOCache;
+import com.raiffeisen.bank.services.AccountNumbers;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Pins the number of SQL statements each read endpoint sends, counted by the bank.db.statements metric. Runs
+ * on H2 with the schema generated from the entities: these endpoints only issue JPQL, so the Postgres-only
+ * migrations are not needed. A lazy association turning eager again shows up here as one extra statement per
+ * client.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:statement_count;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.hikari.data-source-properties.reWriteBatchedInserts=",
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "bank.account-cache.listen=false",
+        "bank.account-changes.enabled=false",
+        "bank.hot-accounts.consolidation-interval-ms=3600000",
+        "bank.idempotency.purge-interval-ms=3600000" })
+@AutoConfigureMockMvc
+public class AccountReadStatementCountTest {
+
+    private static final int CLIENTS = 3;
+    private static final int ACCOUNTS_PER_CLIENT = 4;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    AccountRepository accountRepository;
+
+    @Autowired
+    ClientRepository clientRepository;
+
+    @Autowired
+    AccountDTOCache accountDTOCache;
+
+    List<Account> accounts;
+    Client client;
+
+    @BeforeEach
+    void setUp() {
+        accountRepository.deleteAll();
+        clientRepository.deleteAll();
+        accountDTOCache.invalidateAll();
+
+        LocalDateTime now = LocalDateTime.now();
+        accounts = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            client = clientRepository.save(Client.builder()
+                    .firstName("Valery")
+                    .lastName("Zhmyshenko")
+                    .email("valzhmysh" + c + "@mail.ru")
+                    .build());
+            for (int i = 0; i < ACCOUNTS_PER_CLIENT; i++) {
+                accounts.add(Account.builder()
+                        .client(client)
+                        .accountNumber(AccountNumbers.format(c * 100L + i + 1))
+                        .balance(10000)
+                        .status(AccountStatus.ACTIVE)
+                        .createdAt(now)
+                        .updatedAt(now.minusMinutes(i))
+                        .build());
+            }
+        }
+        accountRepository.saveAll(accounts);
+    }
+
+    @Test
+    void testGetAccountById() throws Exception {
+        Account account = accounts.get(0);
+        assertEquals(1, statements("/api/accounts/{id}", get("/api/accounts/{id}", account.getId())));
+        // served from the cache
+        assertEquals(0, statements("/api/accounts/{id}", get("/api/accounts/{id}", account.getId())));
+    }
+
+    @Test
+    void testGetAccountByAccountNumber() throws Exception {
+        String body = "{\"accountNumber\": \"" + accounts.get(0).getAccountNumber() + "\"}";
+        assertEquals(1, statements("/api/accounts/by_number", get("/api/accounts/by_number")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body)));
+    }
+
+    @Test
+    void testGetRecentAccounts() throws Exception {
+        String body = "{\"clientID\": " + client.getId() + ", \"limit\": " + ACCOUNTS_PER_CLIENT + "}";
+        assertEquals(1, statements("/api/accounts/recent", get("/api/accounts/recent")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body)));
+    }
+
+    @Test
+    void testQueryAccounts() throws Exception {
+        // every account of every client on one page
+        assertEquals(1, statements("/api/accounts/query", get("/api/accounts/query")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"limit\": 100}")));
+    }
+
+    private long statements(String uri, RequestBuilder request) throws Exception {
+        double before = statementTotal(uri);
+        mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").exists());
+        return Math.round(statementTotal(uri) - before);
+    }
+
+    private double statementTotal(String uri) {
+        DistributionSummary summary = meterRegistry.find("bank.db.statements")
+                .tag("method", "GET")
+                .tag("uri", uri)
+                .summary();
+        return summary == null ? 0 : summary.totalAmount();
+    }
+}
@@ -4,32 +4,90 @@ import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.raiffeisen.bank.DTO.AccountChangePageDTO;
 import com.raiffeisen.bank.DTO.AccountDTO;
+import com.raiffeisen.bank.DTO.AccountPageDTO;
+import com.raiffeisen.bank.DTO.BalanceOperationRequest;
+import com.raiffeisen.bank.DTO.BalanceOperationResultDTO;
+import com.raiffeisen.bank.DTO.DepositToAccountRequest;
 import com.raiffeisen.bank.DTO.QueryAccountsRequest;
 import com.raiffeisen.bank.models.Account;
+import com.raiffeisen.bank.models.AccountChange;
 import com.raiffeisen.bank.models.AccountStatus;
+import com.raiffeisen.bank.models.AccountVersion;
+import com.raiffeisen.bank.models.AccountView;
+import com.raiffeisen.bank.models.BalanceOperationStatus;
 import com.raiffeisen.bank.models.Client;
+import com.raiffeisen.bank.models.Money;
+import com.raiffeisen.bank.models.ParkedCredit;
+import com.raiffeisen.bank.models.TransferRefund;
+import com.raiffeisen.bank.repositories.AccountChangeRepository;
+import com.raiffeisen.bank.repositories.AccountExportRepository;
 import com.raiffeisen.bank.repositories.AccountRepository;
+import com.raiffeisen.bank.repositories.IdempotencyKeyRepository;
+import com.raiffeisen.bank.repositories.ParkedCreditRepository;
+import com.raiffeisen.bank.repositories.TransferRefundRepository;
+import com.raiffeisen.bank.routing.ShardTransactions;
+import com.raiffeisen.bank.routing.Shards;
+import com.raiffeisen.bank.services.AccountBalanceBatchWriter;
+import com.raiffeisen.bank.services.AccountChangeFeed;
+import com.raiffeisen.bank.services.AccountDTOCache;
+import com.raiffeisen.bank.services.AccountNumberAllocator;
+import com.raiffeisen.bank.services.AccountNumbers;
 import com.raiffeisen.bank.services.AccountService;
+import com.raiffeisen.bank.services.BalanceJournal;
+import com.raiffeisen.bank.services.BalanceWriteCombiner;
 import com.raiffeisen.bank.services.ClientService;
+import com.raiffeisen.bank.services.HotAccountService;
+import com.raiffeisen.bank.services.IdempotencyService;
+import com.raiffeisen.bank.services.TransferRefundService;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @SpringBootTest
 public class AccountServiceTest {
@@ -38,27 +96,73 @@ public class AccountServiceTest {
 
     AccountService accountService;
 
+    AccountBalanceBatchWriter balanceBatchWriter;
+
+    TransferRefundService transferRefundService;
+
+    AccountDTOCache accountDTOCache;
+
+    HotAccountService hotAccountService;
+
+    BalanceJournal balanceJournal;
+
+    BalanceWriteCombiner balanceWriteCombiner;
+
+    IdempotencyService idempotencyService;
+
+    MeterRegistry meterRegistry;
+
     @MockBean
     AccountRepository accountRepository;
 
     @MockBean
     ClientService clientService;
 
+    @MockBean
+    AccountExportRepository accountExportRepository;
+
+    @MockBean
+    AccountChangeRepository accountChangeRepository;
+
+    @MockBean
+    AccountNumberAllocator accountNumberAllocator;
+
+    @MockBean
+    IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @MockBean
+    TransferRefundRepository transferRefundRepository;
+
+    @MockBean
+    ParkedCreditRepository parkedCreditRepository;
+
     Client sampleClient;
     List<Account> sampleAccounts;
 
     Set<Long> savedAccountIDs;
 
     @Autowired
-    public AccountServiceTest(AccountService accountService, AccountRepository accountRepository,
-            ClientService clientService) {
+    public AccountServiceTest(AccountService accountService, AccountBalanceBatchWriter balanceBatchWriter,
+            TransferRefundService transferRefundService, AccountDTOCache accountDTOCache, HotAccountService hotAccountService, BalanceJournal balanceJournal,
+            BalanceWriteCombiner balanceWriteCombiner, IdempotencyService idempotencyService,
+            MeterRegistry meterRegistry, AccountRepository accountRepository, ClientService clientService) {
         this.accountService = accountService;
+        this.balanceBatchWriter = balanceBatchWriter;
+        this.transferRefundService = transferRefundService;
+        this.accountDTOCache = accountDTOCache;
+        this.hotAccountService = hotAccountService;
+        this.balanceJournal = balanceJournal;
+        this.balanceWriteCombiner = balanceWriteCombiner;
+        this.idempotencyService = idempotencyService;
+        this.meterRegistry = meterRegistry;
         this.accountRepository = accountRepository;
         this.clientService = clientService;
     }
 
     @BeforeEach
     void setUp() {
+        accountDTOCache.invalidateAll();
+
         sampleClient = Client.builder()
                 .id(1L)
                 .lastName("Zhmyshenko")
@@ -69,8 +173,8 @@ public class AccountServiceTest {
         sampleAccounts = Stream.of(1, 2, 3, 4)
                 .map(i -> Account.builder()
                         .client(sampleClient)
-                        .accountNumber("num" + i)
-                        .balance(50.0 * i)
+                        .accountNumber(AccountNumbers.format(i))
+                        .balance(5000L * i)
                         .status(AccountStatus.ACTIVE)
                         .createdAt(SAMPLE_DT.minusMonths(i))
                         .updatedAt(SAMPLE_DT.minusDays(i))
@@ -89,15 +193,61 @@ public class AccountServiceTest {
                             .thenReturn(Optional.of(acc));
                     Mockito.when(accountRepository.findByAccountNumber(acc.getAccountNumber()))
                             .thenReturn(Optional.of(acc));
-                    Mockito.when(accountRepository.findByClient_IdAndStatusNot(sampleClient.getId(), AccountStatus.CLOSED))
-                            .thenReturn(sampleAccounts);
-                    Mockito.when(accountRepository.findByStatusNot(AccountStatus.CLOSED))
-                            .thenReturn(sampleAccounts);
+                    // projections are read at call time, like a SELECT would
+                    Mockito.when(accountRepository.findActiveViewById(acc.getId()))
+                            .thenAnswer(i -> Optional.of(AccountView.of(acc))
+                                    .filter(view -> view.status() == AccountStatus.ACTIVE));
+                    Mockito.when(accountRepository.findActiveViewByAccountNumber(acc.getAccountNumber()))
+                            .thenAnswer(i -> Optional.of(AccountView.of(acc))
+                                    .filter(view -> view.status() == AccountStatus.ACTIVE));
                     return acc;
                 });
 
         sampleAccounts.forEach(accountRepository::save);
+        Mockito.when(accountRepository.findRecentViews(Mockito.eq(sampleClient.getId()),
+                Mockito.eq(AccountStatus.ACTIVE), Mockito.any(Limit.class)))
+                .thenAnswer(invocation -> {
+                    Limit limit = invocation.getArgument(2);
+                    return sampleAccounts.stream()
+                            .filter(acc -> acc.getStatus() == AccountStatus.ACTIVE)
+                            .sorted(Comparator.comparing(Account::getUpdatedAt).reversed())
+                            .limit(limit.max())
+                            .map(AccountView::of)
+                            .toList();
+                });
+        // mirrors the conditional UPDATE ... RETURNING of the real repository
+        Mockito.when(accountRepository.applyBalanceDelta(Mockito.anyString(), Mockito.anyLong()))
+                .thenAnswer(invocation -> {
+                    String accountNumber = invocation.getArgument(0);
+                    long delta = invocation.getArgument(1);
+                    return sampleAccounts.stream()
+                            .filter(acc -> acc.getAccountNumber().equals(accountNumber)
+                                    && acc.getStatus() == AccountStatus.ACTIVE
+                                    && acc.getBalance() + delta >= 0)
+                            .peek(acc -> acc.setBalance(acc.getBalance() + delta))
+                            .findFirst();
+                });
+        Mockito.when(accountRepository.closeByAccountNumber(Mockito.anyString()))
+                .thenAnswer(invocation -> {
+                    String accountNumber = invocation.getArgument(0);
+                    return sampleAccounts.stream()
+                            .filter(acc -> acc.getAccountNumber().equals(accountNumber)
+                                    && acc.getStatus() == AccountStatus.ACTIVE)
+                            .peek(acc -> acc.setStatus(AccountStatus.CLOSED))
+                            .map(Account::getId)
+                            .findFirst();
+                });
+        Mockito.when(accountRepository.findAllByAccountNumberInForUpdate(Mockito.anyCollection()))
+                .thenAnswer(invocation -> {
+                    Collection<String> accountNumbers = invocation.getArgument(0);
+                    return sampleAccounts.stream()
+                            .filter(acc -> accountNumbers.contains(acc.getAccountNumber()))
+                            .sorted(Comparator.comparing(Account::getId))
+                            .toList();
+                });
         Mockito.when(clientService.getClientById(sampleClient.getId())).thenReturn(sampleClient);
+        Mockito.when(accountNumberAllocator.allocate()).thenReturn(AccountNumbers.format(100));
+        hotAccountService.consolidate(); // forgets hot accounts of earlier tests
         Mockito.when(accountRepository.findByClient_Id(Mockito.anyLong()))
                 .thenAnswer(invocation -> {
                     Long clientID = invocation.getArgument(0);
@@ -122,39 +272,480 @@ public class AccountServiceTest {
         assertEquals(sampleClient.getId(), acc.getClientID());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void testOpenNewAccounts() {
+        List<AccountDTO> opened = accountService.openNewAccounts(sampleClient.getId(), 3);
+
+        assertEquals(3, opened.size());
+        opened.forEach(acc -> assertEquals(sampleClient.getId(), acc.getClientID()));
+        // one saveAll, so the inserts can go out as a single batch
+        Mockito.verify(accountRepository).saveAll(Mockito.argThat(accounts -> ((List<Account>) accounts).size() == 3));
+
+        assertNull(accountService.openNewAccounts(sampleClient.getId() + 1, 3));
+    }
+
+    @Test
+    void testAccountNumberCheckDigits() {
+        String accountNumber = AccountNumbers.format(1234567L);
+        assertEquals(AccountNumbers.LENGTH, accountNumber.length());
+        assertTrue(AccountNumbers.isWellFormed(accountNumber, true));
+
+        // a single mistyped digit or two swapped digits always break the check
+        String mistyped = accountNumber.substring(0, 5) + '9' + accountNumber.substring(6);
+        String swapped = accountNumber.substring(0, 12) + accountNumber.charAt(13) + accountNumber.charAt(12)
+                + accountNumber.substring(14);
+        assertFalse(AccountNumbers.isWellFormed(mistyped, true));
+        assertFalse(AccountNumbers.isWellFormed(swapped, true));
+        assertTrue(AccountNumbers.isWellFormed(mistyped, false));
+
+        // with verification on, a mistyped number is rejected without asking the database
+        AccountService verifying = service(balanceJournal, true);
+        Mockito.clearInvocations(accountRepository);
+        assertEquals(BalanceOperationStatus.ACCOUNT_NOT_FOUND, verifying.applyAccountBalanceDelta(mistyped, 1000));
+        Mockito.verifyNoInteractions(accountRepository);
+    }
+
     @Test
     void testCloseAccountByAccountNumber() {
         List<String> accNumsToClose = List.of(
                 sampleAccounts.get(1).getAccountNumber(),
                 sampleAccounts.get(3).getAccountNumber());
 
-        accNumsToClose.forEach(num -> accountService.closeAccountByAccountNumber(num));
+        Mockito.clearInvocations(accountRepository);
+        accNumsToClose.forEach(num -> assertTrue(accountService.closeAccountByAccountNumber(num)));
 
         for (Account acc : sampleAccounts) {
             boolean shouldBeClosed = accNumsToClose.contains(acc.getAccountNumber());
             assertEquals(shouldBeClosed ? AccountStatus.CLOSED : AccountStatus.ACTIVE, acc.getStatus());
         }
+        assertFalse(accountService.closeAccountByAccountNumber(accNumsToClose.get(0)));
+        assertFalse(accountService.closeAccountByAccountNumber(AccountNumbers.format(999)));
+        // one conditional UPDATE, the entity with the balance it read is never written back
+        Mockito.verify(accountRepository, Mockito.never()).save(Mockito.any(Account.class));
     }
 
     @Test
     void testApplyAccountBalanceDelta() {
         Account acc = sampleAccounts.get(0);
-        Double initialBalance = 0.0;
+        long initialBalance = 0;
         acc.setBalance(initialBalance);
-        Double delta1 = 200.0;
-        Double delta2 = -150.01;
-        boolean result;
+        long delta1 = 20000;
+        long delta2 = -15001;
+        BalanceOperationStatus result;
 
         result = accountService.applyAccountBalanceDelta(acc.getAccountNumber(), delta1);
-        assertTrue(result);
-        assertEquals(initialBalance + delta1, acc.getBalance(), 0.0001);
+        assertEquals(BalanceOperationStatus.SUCCESS, result);
+        assertEquals(initialBalance + delta1, acc.getBalance());
 
         result = accountService.applyAccountBalanceDelta(acc.getAccountNumber(), delta2);
-        assertTrue(result);
-        assertEquals(initialBalance + delta1 + delta2, acc.getBalance(), 0.0001);
+        assertEquals(BalanceOperationStatus.SUCCESS, result);
+        assertEquals(initialBalance + delta1 + delta2, acc.getBalance());
 
         result = accountService.applyAccountBalanceDelta(acc.getAccountNumber(), delta2);
-        assertFalse(result);
+        assertEquals(BalanceOperationStatus.INSUFFICIENT_FUNDS, result);
+        assertEquals(initialBalance + delta1 + delta2, acc.getBalance());
+
+        result = accountService.applyAccountBalanceDelta(AccountNumbers.format(99), delta1);
+        assertEquals(BalanceOperationStatus.ACCOUNT_NOT_FOUND, result);
+
+        acc.setStatus(AccountStatus.CLOSED);
+        result = accountService.applyAccountBalanceDelta(acc.getAccountNumber(), delta1);
+        assertEquals(BalanceOperationStatus.ACCOUNT_CLOSED, result);
+    }
+
+    @Test
+    void testBalanceDeltaRacingClose() {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(0);
+        // the close commits while the update waits on the row lock, the row is then in accounts_closed
+        CannotAcquireLockException moved = new CannotAcquireLockException(
+                "tuple to be locked was already moved to another partition due to concurrent update");
+        Answer<?> closedMeanwhile = invocation -> {
+            acc.setStatus(AccountStatus.CLOSED);
+            throw moved;
+        };
+        Mockito.doAnswer(closedMeanwhile).doReturn(Optional.empty())
+                .when(accountRepository).applyBalanceDelta(acc.getAccountNumber(), 1000);
+        assertEquals(BalanceOperationStatus.ACCOUNT_CLOSED,
+                accountService.applyAccountBalanceDelta(acc.getAccountNumber(), 1000));
+        Mockito.verify(accountRepository, Mockito.times(2)).applyBalanceDelta(acc.getAccountNumber(), 1000);
+
+        // the key's transaction is aborted, it is run again as a whole
+        acc.setStatus(AccountStatus.ACTIVE);
+        Mockito.doAnswer(closedMeanwhile).doReturn(Optional.empty())
+                .when(accountRepository).applyBalanceDelta(acc.getAccountNumber(), 2000);
+        Mockito.when(idempotencyKeyRepository.claim(Mockito.eq("deposit:moved"), Mockito.anyString())).thenReturn(1);
+        boolean active = TransactionSynchronizationManager.isActualTransactionActive();
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertEquals(BalanceOperationStatus.ACCOUNT_CLOSED.name(), idempotencyService.execute("moved", "deposit",
+                    Map.of("accountNumber", acc.getAccountNumber(), "amount", 20), String.class,
+                    () -> ResponseEntity.badRequest().body(
+                            accountService.applyAccountBalanceDelta(acc.getAccountNumber(), 2000).name()))
+                    .getBody());
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(active);
+        }
+        Mockito.verify(idempotencyKeyRepository, Mockito.times(2)).claim(Mockito.eq("deposit:moved"),
+                Mockito.anyString());
+        Mockito.verify(idempotencyKeyRepository).complete(Mockito.eq("deposit:moved"), Mockito.eq(400),
+                Mockito.anyString());
+        assertEquals(0, acc.getBalance());
+
+        // two closes of the same account: the second one finds the row moved as well
+        acc.setStatus(AccountStatus.ACTIVE);
+        Mockito.doAnswer(closedMeanwhile).doReturn(Optional.empty())
+                .when(accountRepository).closeByAccountNumber(acc.getAccountNumber());
+        assertFalse(accountService.closeAccountByAccountNumber(acc.getAccountNumber()));
+    }
+
+    @Test
+    void testBalanceOperationMetrics() {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(0);
+        double deposited = outcomeCount("deposit", "success");
+        double insufficient = outcomeCount("withdraw", "insufficient_funds");
+        double notFound = outcomeCount("withdraw", "account_not_found");
+
+        accountService.applyAccountBalanceDelta(acc.getAccountNumber(), 1000);
+        accountService.applyAccountBalanceDelta(acc.getAccountNumber(), -2000);
+        accountService.applyAccountBalanceDelta("not a number", -2000);
+
+        assertEquals(deposited + 1, outcomeCount("deposit", "success"));
+        assertEquals(insufficient + 1, outcomeCount("withdraw", "insufficient_funds"));
+        assertEquals(notFound + 1, outcomeCount("withdraw", "account_not_found"));
+    }
+
+    private double outcomeCount(String operation, String outcome) {
+        return meterRegistry.get("bank.balance.operations")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .counter()
+                .count();
+    }
+
+    @Test
+    void testApplyCombinedBalanceDeltas() {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(10000);
+
+        Map<String, long[]> deltas = new LinkedHashMap<>();
+        deltas.put(acc.getAccountNumber(), new long[] { -15000, 5000, -15000, -1000 });
+        deltas.put("missing", new long[] { 1000 });
+
+        Map<String, List<BalanceOperationStatus>> results = balanceBatchWriter.applyDeltas(deltas);
+
+        // applied in arrival order: the first withdrawal overdraws, the second one is covered by the deposit
+        assertEquals(List.of(
+                BalanceOperationStatus.INSUFFICIENT_FUNDS,
+                BalanceOperationStatus.SUCCESS,
+                BalanceOperationStatus.SUCCESS,
+                BalanceOperationStatus.INSUFFICIENT_FUNDS), results.get(acc.getAccountNumber()));
+        assertEquals(List.of(BalanceOperationStatus.ACCOUNT_NOT_FOUND), results.get("missing"));
+        assertEquals(0, acc.getBalance());
+    }
+
+    @Test
+    void testBalanceWriteCombinerFailures() throws InterruptedException {
+        String accountNumber = sampleAccounts.get(0).getAccountNumber();
+        CountDownLatch release = new CountDownLatch(1);
+        AccountBalanceBatchWriter writer = Mockito.mock(AccountBalanceBatchWriter.class);
+        Mockito.when(writer.applyDeltas(Mockito.any()))
+                .thenThrow(new AssertionError("writer broke"))
+                .thenAnswer(invocation -> {
+                    release.await();
+                    return Map.of(accountNumber, List.of(BalanceOperationStatus.SUCCESS));
+                });
+        BalanceWriteCombiner combiner = new BalanceWriteCombiner(writer, singleShard(), true, 1, 1, 0, 200);
+        ReflectionTestUtils.invokeMethod(combiner, "start");
+        try {
+            // an Error fails its batch but not the stripe's worker
+            CompletionException failed = assertThrows(CompletionException.class,
+                    () -> combiner.submit(accountNumber, 100).join());
+            assertTrue(failed.getCause() instanceof AssertionError);
+
+            // a delta that timed out while queued is never applied, one in a stuck batch gets its real outcome
+            CompletableFuture<BalanceOperationStatus> inFlight = combiner.submit(accountNumber, 200);
+            CompletionException queued = assertThrows(CompletionException.class,
+                    () -> combiner.submit(accountNumber, 300).join());
+            assertTrue(queued.getCause() instanceof TimeoutException);
+            assertFalse(inFlight.isDone());
+            release.countDown();
+            assertEquals(BalanceOperationStatus.SUCCESS, inFlight.join());
+            Mockito.verify(writer, Mockito.after(200).times(2)).applyDeltas(Mockito.any());
+        } finally {
+            ReflectionTestUtils.invokeMethod(combiner, "stop");
+        }
+    }
+
+    @Test
+    void testApplyAccountBalanceDeltas() {
+        sampleAccounts.get(0).setBalance(10000);
+        sampleAccounts.get(1).setBalance(0);
+        String first = sampleAccounts.get(0).getAccountNumber();
+        String second = sampleAccounts.get(1).getAccountNumber();
+
+        List<BalanceOperationResultDTO> results = accountService.applyAccountBalanceDeltas(List.of(
+                new BalanceOperationRequest(second, new BigDecimal("-10.00")),
+                new BalanceOperationRequest(first, new BigDecimal("-60")),
+                new BalanceOperationRequest("malformed", BigDecimal.TEN),
+                new BalanceOperationRequest(first, new BigDecimal("-60")),
+                new BalanceOperationRequest(second, new BigDecimal("25.5"))));
+
+        assertEquals(List.of(
+                BalanceOperationStatus.INSUFFICIENT_FUNDS,
+                BalanceOperationStatus.SUCCESS,
+                BalanceOperationStatus.ACCOUNT_NOT_FOUND,
+                BalanceOperationStatus.INSUFFICIENT_FUNDS,
+                BalanceOperationStatus.SUCCESS),
+                results.stream().map(BalanceOperationResultDTO::getStatus).toList());
+        assertEquals("malformed", results.get(2).getAccountNumber());
+        assertEquals(Money.ofMinor(-6000), results.get(1).getAmount());
+        assertEquals(4000, sampleAccounts.get(0).getBalance());
+        assertEquals(2550, sampleAccounts.get(1).getBalance());
+    }
+
+    @Test
+    void testTransfer() {
+        Account from = sampleAccounts.get(0);
+        Account to = sampleAccounts.get(1);
+        from.setBalance(10000);
+        to.setBalance(0);
+
+        assertEquals(BalanceOperationStatus.SUCCESS,
+                accountService.transfer(from.getAccountNumber(), to.getAccountNumber(), 7000));
+        assertEquals(3000, from.getBalance());
+        assertEquals(7000, to.getBalance());
+
+        assertEquals(BalanceOperationStatus.INSUFFICIENT_FUNDS,
+                accountService.transfer(from.getAccountNumber(), to.getAccountNumber(), 7000));
+        assertEquals(3000, from.getBalance());
+        assertEquals(7000, to.getBalance());
+
+        assertEquals(BalanceOperationStatus.ACCOUNT_NOT_FOUND,
+                accountService.transfer(from.getAccountNumber(), AccountNumbers.format(99), 1000));
+
+        to.setStatus(AccountStatus.CLOSED);
+        assertEquals(BalanceOperationStatus.ACCOUNT_CLOSED,
+                accountService.transfer(from.getAccountNumber(), to.getAccountNumber(), 1000));
+        assertEquals(3000, from.getBalance());
+    }
+
+    @Test
+    void testTransferRefundAcrossShards() {
+        Shards shards = new Shards(new ShardTransactions(), List.of("shard-1"), 1);
+        TransferRefundService refunds = new TransferRefundService(transferRefundRepository, balanceBatchWriter, shards);
+        AccountService shardedService = new AccountService(accountRepository, accountExportRepository, clientService,
+                null, balanceJournal, balanceBatchWriter, refunds, accountNumberAllocator, accountDTOCache,
+                hotAccountService, shards, meterRegistry, false);
+
+        Account from = sampleAccounts.get(0);
+        from.setBalance(10000);
+        Account to = Account.builder()
+                .client(sampleClient)
+                .accountNumber(AccountNumbers.format(AccountNumbers.SERIALS_PER_SHARD + 1))
+                .balance(0)
+                .status(AccountStatus.ACTIVE)
+                .createdAt(SAMPLE_DT)
+                .updatedAt(SAMPLE_DT)
+                .build();
+        sampleAccounts.add(accountRepository.save(to));
+        assertEquals(1, shards.ofAccountNumber(to.getAccountNumber()));
+        // closed on its shard right after the transfer looked it up, so the deposit fails
+        Mockito.when(accountRepository.findByAccountNumber(to.getAccountNumber())).thenAnswer(invocation -> {
+            Account checked = Account.builder().accountNumber(to.getAccountNumber()).status(AccountStatus.ACTIVE).build();
+            to.setStatus(AccountStatus.CLOSED);
+            return Optional.of(checked);
+        });
+
+        List<TransferRefund> stored = new ArrayList<>();
+        Mockito.when(transferRefundRepository.save(Mockito.any(TransferRefund.class))).thenAnswer(invocation -> {
+            TransferRefund refund = invocation.getArgument(0);
+            refund.setId(stored.size() + 1L);
+            stored.add(refund);
+            return refund;
+        });
+        Answer<Optional<TransferRefund>> lookup = invocation -> stored.stream()
+                .filter(refund -> refund.getId().equals(invocation.getArgument(0)))
+                .findFirst();
+        Mockito.when(transferRefundRepository.findByIdForUpdate(Mockito.anyLong())).thenAnswer(lookup);
+        Mockito.doAnswer(invocation -> stored.remove((TransferRefund) invocation.getArgument(0)))
+                .when(transferRefundRepository).delete(Mockito.any(TransferRefund.class));
+        Mockito.when(transferRefundRepository.findByOrderById(Mockito.any(Limit.class)))
+                .thenAnswer(invocation -> Shards.current() == 0 ? List.copyOf(stored) : List.of());
+
+        // stored on the source shard, applied and deleted
+        assertEquals(BalanceOperationStatus.ACCOUNT_CLOSED,
+                shardedService.transfer(from.getAccountNumber(), to.getAccountNumber(), 4000));
+        assertEquals(10000, from.getBalance());
+        assertTrue(stored.isEmpty());
+
+        // a refund that fails to apply is kept and retried
+        Mockito.when(transferRefundRepository.findByIdForUpdate(Mockito.anyLong()))
+                .thenThrow(new DataAccessResourceFailureException("shard 0 is unreachable"))
+                .thenAnswer(lookup);
+        assertEquals(BalanceOperationStatus.ACCOUNT_CLOSED,
+                shardedService.transfer(from.getAccountNumber(), to.getAccountNumber(), 4000));
+        assertEquals(6000, from.getBalance());
+        assertEquals(1, stored.size());
+        assertEquals(from.getAccountNumber(), stored.get(0).getAccountNumber());
+
+        refunds.retryRefunds();
+        assertEquals(10000, from.getBalance());
+        assertTrue(stored.isEmpty());
+        refunds.retryRefunds();
+        assertEquals(10000, from.getBalance());
+    }
+
+    @Test
+    void testIdempotentDeposit() {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(0);
+        Map<String, Object> request = Map.of("accountNumber", acc.getAccountNumber(), "amount", 10);
+        Supplier<ResponseEntity<String>> deposit = () -> {
+            accountService.applyAccountBalanceDelta(acc.getAccountNumber(), 1000);
+            return ResponseEntity.ok("Deposit successful");
+        };
+        Mockito.when(idempotencyKeyRepository.claim(Mockito.eq("deposit:retried"), Mockito.anyString())).thenReturn(1);
+
+        assertEquals("Deposit successful",
+                idempotencyService.execute("retried", "deposit", request, String.class, deposit).getBody());
+        Mockito.verify(idempotencyKeyRepository).complete("deposit:retried", 200, "\"Deposit successful\"");
+
+        // served from the front cache, the database is not asked again
+        ResponseEntity<String> replayed = idempotencyService.execute("retried", "deposit", request, String.class,
+                deposit);
+        assertEquals("Deposit successful", replayed.getBody());
+        assertEquals("true", replayed.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(1000, acc.getBalance());
+
+        // same key with another amount is refused rather than run
+        assertEquals(422, idempotencyService.execute("retried", "deposit",
+                Map.of("accountNumber", acc.getAccountNumber(), "amount", 20), String.class, deposit)
+                .getStatusCode().value());
+        assertEquals(1000, acc.getBalance());
+
+        // the same amount written with another scale is still a retry
+        DepositToAccountRequest tenZero = new DepositToAccountRequest();
+        tenZero.setAccountNumber(acc.getAccountNumber());
+        tenZero.setAmount(new BigDecimal("10.0"));
+        DepositToAccountRequest tenZeroZero = new DepositToAccountRequest();
+        tenZeroZero.setAccountNumber(acc.getAccountNumber());
+        tenZeroZero.setAmount(new BigDecimal("10.00"));
+        Mockito.when(idempotencyKeyRepository.claim(Mockito.eq("deposit:scaled"), Mockito.anyString())).thenReturn(1);
+        idempotencyService.execute("scaled", "deposit", tenZero, String.class, deposit);
+        assertEquals("true", idempotencyService.execute("scaled", "deposit", tenZeroZero, String.class, deposit)
+                .getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(2000, acc.getBalance());
+
+        // no key, no deduplication
+        idempotencyService.execute(null, "deposit", request, String.class, deposit);
+        assertEquals(3000, acc.getBalance());
+    }
+
+    @Test
+    void testIdempotentDepositWithCombiner() {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(0);
+        BalanceWriteCombiner combiner = Mockito.mock(BalanceWriteCombiner.class);
+        Mockito.when(combiner.isEnabled()).thenReturn(true);
+        Mockito.when(combiner.submit(Mockito.anyString(), Mockito.anyLong()))
+                .thenReturn(CompletableFuture.completedFuture(BalanceOperationStatus.SUCCESS));
+        AccountService combining = new AccountService(accountRepository, accountExportRepository, clientService,
+                combiner, balanceJournal, balanceBatchWriter, transferRefundService, accountNumberAllocator,
+                accountDTOCache, hotAccountService, singleShard(), meterRegistry, false);
+        Mockito.when(idempotencyKeyRepository.claim(Mockito.eq("deposit:combined"), Mockito.anyString())).thenReturn(1);
+
+        // the key is claimed in a transaction, the deposit has to commit or roll back with it
+        boolean active = TransactionSynchronizationManager.isActualTransactionActive();
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertEquals("Deposit successful", idempotencyService.execute("combined", "deposit",
+                    Map.of("accountNumber", acc.getAccountNumber(), "amount", 10), String.class, () -> {
+                        combining.applyAccountBalanceDelta(acc.getAccountNumber(), 1000);
+                        return ResponseEntity.ok("Deposit successful");
+                    }).getBody());
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(active);
+        }
+        Mockito.verify(combiner, Mockito.never()).submit(Mockito.anyString(), Mockito.anyLong());
+        assertEquals(1000, acc.getBalance());
+
+        // a deposit without a key is combined
+        assertEquals(BalanceOperationStatus.SUCCESS, combining.applyAccountBalanceDelta(acc.getAccountNumber(), 500));
+        Mockito.verify(combiner).submit(acc.getAccountNumber(), 500);
+    }
+
+    @Test
+    void testHotAccount() {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(10000);
+        acc.setBalanceSlots(2);
+        Mockito.when(accountRepository.findByBalanceSlotsGreaterThan(0)).thenReturn(List.of(acc));
+        hotAccountService.consolidate();
+
+        // credits land in a slot and leave the accounts row alone
+        Mockito.when(accountRepository.creditBalanceSlot(Mockito.eq(acc.getAccountNumber()), Mockito.anyInt(),
+                Mockito.eq(5000L))).thenReturn(Optional.of(acc.getId()));
+        assertEquals(BalanceOperationStatus.SUCCESS, accountService.applyAccountBalanceDelta(acc.getAccountNumber(), 5000));
+        Mockito.verify(accountRepository, Mockito.never()).applyBalanceDelta(Mockito.anyString(), Mockito.anyLong());
+        assertEquals(10000, acc.getBalance());
+
+        // reads add the slots up
+        Mockito.when(accountRepository.sumBalanceSlots(acc.getId())).thenReturn(5000L);
+        assertEquals(Money.ofMinor(15000), accountService.getAccountDTOById(acc.getId()).getBalance());
+
+        // a debit larger than the main balance succeeds once the slots are swept into it
+        Mockito.when(accountRepository.sweepBalanceSlots(acc.getId())).thenReturn(List.of(2000L, 3000L));
+        assertEquals(BalanceOperationStatus.SUCCESS, accountService.applyAccountBalanceDelta(acc.getAccountNumber(), -12000));
+        assertEquals(3000, acc.getBalance());
+
+        // consolidation moves updatedAt along with the credits it folds in, an empty sweep leaves it alone
+        acc.setUpdatedAt(SAMPLE_DT);
+        Mockito.when(accountRepository.sweepBalanceSlots(acc.getId())).thenReturn(List.of());
+        assertTrue(balanceBatchWriter.consolidate(acc.getAccountNumber()));
+        assertEquals(SAMPLE_DT, acc.getUpdatedAt());
+        Mockito.when(accountRepository.sweepBalanceSlots(acc.getId())).thenReturn(List.of(1000L));
+        assertTrue(balanceBatchWriter.consolidate(acc.getAccountNumber()));
+        assertEquals(4000, acc.getBalance());
+        assertTrue(acc.getUpdatedAt().isAfter(SAMPLE_DT));
+    }
+
+    @Test
+    void testAccountDTOCache() {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(10000);
+        Mockito.clearInvocations(accountRepository);
+
+        assertEquals(Money.ofMinor(10000), accountService.getAccountDTOById(acc.getId()).getBalance());
+        assertEquals(Money.ofMinor(10000), accountService.getAccountDTOByAccountNumber(acc.getAccountNumber()).getBalance());
+        Mockito.verify(accountRepository, Mockito.times(1)).findActiveViewById(acc.getId());
+        Mockito.verify(accountRepository, Mockito.never()).findActiveViewByAccountNumber(acc.getAccountNumber());
+
+        // a write evicts both keys
+        accountService.applyAccountBalanceDelta(acc.getAccountNumber(), 5000);
+        assertEquals(Money.ofMinor(15000), accountService.getAccountDTOByAccountNumber(acc.getAccountNumber()).getBalance());
+        assertEquals(Money.ofMinor(15000), accountService.getAccountDTOById(acc.getId()).getBalance());
+        Mockito.verify(accountRepository, Mockito.times(1)).findActiveViewById(acc.getId());
+
+        // conditional GETs take the version from the cache, or from the version columns without caching
+        assertEquals(15000L, accountService.getAccountVersionById(acc.getId()).balance());
+        Mockito.verify(accountRepository, Mockito.never()).findActiveVersionById(acc.getId());
+        accountDTOCache.invalidateAll();
+        Mockito.when(accountRepository.findActiveVersionByAccountNumber(acc.getAccountNumber())).thenReturn(Optional.of(
+                new AccountVersion(acc.getId(), acc.getAccountNumber(), acc.getUpdatedAt(), acc.getBalance(), 0)));
+        assertEquals(15000L, accountService.getAccountVersionByAccountNumber(acc.getAccountNumber()).balance());
+        assertNull(accountDTOCache.peekByAccountNumber(acc.getAccountNumber()));
+
+        // a DTO loaded before an invalidation does not go into the other key's cache
+        accountDTOCache.invalidateAll();
+        AccountDTO stale = accountService.mapToDTO(acc);
+        accountDTOCache.getById(acc.getId(), id -> {
+            accountDTOCache.invalidate(acc.getId(), acc.getAccountNumber());
+            return stale;
+        });
+        assertNull(accountDTOCache.getByAccountNumber(acc.getAccountNumber(), accountNumber -> null));
     }
 
     @Test
@@ -176,41 +767,281 @@ public class AccountServiceTest {
     }
 
 
-    // id=0:  acc=num1, bal= 50, cr = -1m, upd=-1d  
-    // id=1:  acc=num2, bal= 100, cr = -2m, upd=-2d 
-    // id=2:  acc=num3, bal= 150, cr = -3m, upd=-3d 
-    // id=3:  acc=num4, bal= 200, cr = -4m, upd=-4d 
-    @Test
-    void testQueryAccounts() {
-        List<QueryAccountsRequest> queries = List.of(
-            QueryAccountsRequest.builder()
-                .balanceLB(80.0)
-                .balanceUB(170.0)
-                .build(), // num2, num3
-            QueryAccountsRequest.builder()
-                .balanceLB(60.0)
-                .createdAtLB(SAMPLE_DT.minusMonths(2).minusHours(1))
-                .build(), // num2
-            QueryAccountsRequest.builder()
-                .clientID(sampleClient.getId())
-                .balanceUB(160.0)
-                .createdAtUB(SAMPLE_DT.minusMonths(1).minusHours(1))      
-                .updatedAtLB(SAMPLE_DT.minusDays(5))          
-                .build() // num2, num3
-        );
-
-        List<String[]> expectedResults = List.of(
-            new String[]{"num2", "num3"},
-            new String[]{"num2"},
-            new String[]{"num2", "num3"}
-        );
-
-        for (int queryNum = 0; queryNum < queries.size(); queryNum++) {
-            QueryAccountsRequest query = queries.get(queryNum);
-            String[] expectedResult = expectedResults.get(queryNum);
-            String[] result = accountService.queryAccountDTOs(query).stream().map(acc -> acc.getAccountNumber()).toArray(String[]::new);
-            assertArrayEquals(expectedResult, result);
+    @Test
+    @SuppressWarnings("unchecked")
+    void testQueryAccountsPagination() {
+        // filtering happens in the database, the repository hands back at most limit + 1 rows per page
+        Mockito.when(accountRepository.findViewsOrderedById(Mockito.any(Specification.class), Mockito.eq(3)))
+                .thenReturn(sampleAccounts.subList(0, 3).stream().map(AccountView::of).toList())
+                .thenReturn(sampleAccounts.subList(2, 4).stream().map(AccountView::of).toList());
+
+        AccountPageDTO firstPage = accountService.queryAccountDTOs(QueryAccountsRequest.builder()
+                .balanceLB(BigDecimal.TEN)
+                .limit(2)
+                .build());
+        assertArrayEquals(new String[] { AccountNumbers.format(1), AccountNumbers.format(2) },
+                firstPage.getAccounts().stream().map(AccountDTO::getAccountNumber).toArray(String[]::new));
+        assertNotNull(firstPage.getNextCursor());
+
+        AccountPageDTO secondPage = accountService.queryAccountDTOs(QueryAccountsRequest.builder()
+                .balanceLB(BigDecimal.TEN)
+                .limit(2)
+                .cursor(firstPage.getNextCursor())
+                .build());
+        assertArrayEquals(new String[] { AccountNumbers.format(3), AccountNumbers.format(4) },
+                secondPage.getAccounts().stream().map(AccountDTO::getAccountNumber).toArray(String[]::new));
+        assertNull(secondPage.getNextCursor());
+
+        assertNull(accountService.queryAccountDTOs(QueryAccountsRequest.builder()
+                .cursor("not a cursor")
+                .build()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testQueryAccountsAcrossShards() {
+        assertEquals(2, AccountNumbers.shardOf(AccountNumbers.format(2 * AccountNumbers.SERIALS_PER_SHARD + 7)));
+        assertEquals(0, AccountNumbers.shardOf("not an account number"));
+
+        // account ids do not follow the shards, each shard holds an arbitrary sorted subset
+        Shards shards = new Shards(new ShardTransactions(), List.of("shard-1", "shard-2"), 3);
+        assertEquals(1, shards.ofAccountNumber(AccountNumbers.format(AccountNumbers.SERIALS_PER_SHARD + 7)));
+        assertEquals(0, shards.ofAccountNumber(AccountNumbers.format(3 * AccountNumbers.SERIALS_PER_SHARD + 7)));
+        assertEquals(0, shards.ofAccountNumber(null));
+
+        // random numbers from before sharding stay on shard 0 even when their leading digits name another shard
+        String legacy = "00148207731906655412";
+        assertEquals(1, shards.ofAccountNumber(legacy));
+        shards.setUnshardedAccountNumbers(Set.of(legacy));
+        assertEquals(0, shards.ofAccountNumber(legacy));
+        assertEquals(1, shards.ofAccountNumber(AccountNumbers.format(AccountNumbers.SERIALS_PER_SHARD + 7)));
+        assertEquals("001", AccountNumbers.prefixOf(1));
+        assertEquals("003", AccountNumbers.prefixOf(shards.count()));
+        AccountService shardedService = new AccountService(accountRepository, accountExportRepository, clientService,
+                null, balanceJournal, balanceBatchWriter, transferRefundService, accountNumberAllocator,
+                accountDTOCache, hotAccountService, shards, meterRegistry, true);
+        Map<Integer, List<Long>> idsByShard = Map.of(0, List.of(3L, 6L), 1, List.of(1L, 4L, 7L), 2, List.of(2L, 5L));
+        Mockito.when(accountRepository.findViewsOrderedById(Mockito.any(Specification.class), Mockito.eq(5)))
+                .thenAnswer(invocation -> idsByShard.get(Shards.current()).stream()
+                        .map(id -> new AccountView(id, sampleClient.getId(), AccountNumbers.format(id), 0L, 0,
+                                AccountStatus.ACTIVE, SAMPLE_DT, SAMPLE_DT))
+                        .toList());
+
+        AccountPageDTO page = shardedService.queryAccountDTOs(QueryAccountsRequest.builder().limit(4).build());
+        assertArrayEquals(new Long[] { 1L, 2L, 3L, 4L },
+                page.getAccounts().stream().map(AccountDTO::getId).toArray(Long[]::new));
+        assertNotNull(page.getNextCursor());
+    }
+
+    @Test
+    void testBalanceJournal(@TempDir Path dir) {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(10000);
+        Path file = dir.resolve("balance-journal.wal");
+
+        // acknowledged from the journal, the database only sees it on a flush
+        AccountService journaled = service(journal(file), false);
+        assertEquals(BalanceOperationStatus.SUCCESS, journaled.applyAccountBalanceDelta(acc.getAccountNumber(), 2500));
+        assertEquals(10000, acc.getBalance());
+        assertEquals(Money.ofMinor(12500), journaled.getAccountDTOByAccountNumber(acc.getAccountNumber()).getBalance());
+
+        // the file under another journal's name is refused, its credits would be applied again
+        IllegalStateException foreign = assertThrows(IllegalStateException.class, () -> journal(file, "other"));
+        assertTrue(foreign.getMessage().contains("'test'"));
+
+        // a node that crashed before the flush replays the credit on startup
+        BalanceJournal recovered = journal(file);
+        assertEquals(2500, recovered.pending(acc.getAccountNumber()));
+
+        // the withdrawal needs the journaled credit, which is applied first
+        AccountService restarted = service(recovered, false);
+        assertEquals(BalanceOperationStatus.SUCCESS,
+                restarted.applyAccountBalanceDelta(acc.getAccountNumber(), -12000));
+        assertEquals(500, acc.getBalance());
+        assertFalse(recovered.hasPending(acc.getAccountNumber()));
+        Mockito.verify(accountRepository).saveJournalPosition("test", 1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBalanceJournalParksRejectedCredits(@TempDir Path dir) {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(10000);
+        BalanceJournal journal = journal(dir.resolve("balance-journal.wal"));
+        AccountService journaled = service(journal, false);
+        assertEquals(BalanceOperationStatus.SUCCESS, journaled.applyAccountBalanceDelta(acc.getAccountNumber(), 2500));
+
+        // closed before the credit reached the database, the acknowledged amount is kept for reconciliation
+        acc.setStatus(AccountStatus.CLOSED);
+        journal.flush();
+        ArgumentCaptor<List<ParkedCredit>> parked = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(parkedCreditRepository).saveAll(parked.capture());
+        assertEquals(1, parked.getValue().size());
+        ParkedCredit credit = parked.getValue().get(0);
+        assertEquals(acc.getAccountNumber(), credit.getAccountNumber());
+        assertEquals(2500, credit.getAmount());
+        assertEquals("test", credit.getJournal());
+        assertEquals(1L, credit.getJournalSequence());
+        assertEquals(BalanceOperationStatus.ACCOUNT_CLOSED, credit.getReason());
+        assertEquals(10000, acc.getBalance());
+        Mockito.verify(accountRepository).saveJournalPosition("test", 1L);
+    }
+
+    @Test
+    void testBalanceJournalSyncFailure(@TempDir Path dir) throws InterruptedException {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(10000);
+        BalanceJournal journal = journal(dir.resolve("balance-journal.wal"));
+        AccountService journaled = service(journal, false);
+        assertEquals(BalanceOperationStatus.SUCCESS, journaled.applyAccountBalanceDelta(acc.getAccountNumber(), 2500));
+        assertEquals(10000, acc.getBalance());
+
+        // a credit waiting for a sync that fails is woken up and rejected
+        Thread syncer = (Thread) ReflectionTestUtils.getField(journal, "syncer");
+        syncer.interrupt();
+        syncer.join();
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> journal.append(acc.getAccountNumber(), 100));
+        assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+        ReflectionTestUtils.invokeMethod(journal, "fail", List.of(),
+                new UncheckedIOException(new IOException("No space left on device")));
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertTrue(rejected.getCause() instanceof IllegalStateException);
+
+        // later credits are rejected up front and go to the database directly
+        assertFalse(journal.canAppend());
+        assertThrows(IllegalStateException.class, () -> journal.append(acc.getAccountNumber(), 100));
+        assertEquals(BalanceOperationStatus.SUCCESS, journaled.applyAccountBalanceDelta(acc.getAccountNumber(), 500));
+        assertEquals(10500, acc.getBalance());
+
+        // credits synced before the failure are still applied
+        journal.flush();
+        assertEquals(13000, acc.getBalance());
+        assertFalse(journal.hasPending(acc.getAccountNumber()));
+    }
+
+    @Test
+    void testBalanceJournalInsideTransaction(@TempDir Path dir) {
+        Account acc = sampleAccounts.get(0);
+        acc.setBalance(10000);
+        BalanceJournal journal = journal(dir.resolve("balance-journal.wal"));
+        AccountService journaled = service(journal, false);
+        assertEquals(BalanceOperationStatus.SUCCESS, journaled.applyAccountBalanceDelta(acc.getAccountNumber(), 2500));
+
+        // e.g. the transaction of an Idempotency-Key: neither flushed nor journaled, it holds a connection
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            journaled.applyJournaledCredits(acc.getAccountNumber());
+            assertTrue(journal.hasPending(acc.getAccountNumber()));
+            assertEquals(BalanceOperationStatus.SUCCESS,
+                    journaled.applyAccountBalanceDelta(acc.getAccountNumber(), 500));
+            assertEquals(10500, acc.getBalance());
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
         }
 
+        // what the controller does before a keyed withdrawal or close
+        journaled.applyJournaledCredits(acc.getAccountNumber());
+        assertFalse(journal.hasPending(acc.getAccountNumber()));
+        assertEquals(13000, acc.getBalance());
+    }
+
+    // flushed only when asked to
+    private BalanceJournal journal(Path file) {
+        return journal(file, "test");
+    }
+
+    private BalanceJournal journal(Path file, String name) {
+        BalanceJournal journal = new BalanceJournal(balanceBatchWriter, accountRepository, singleShard(), meterRegistry,
+                true, file, 1, name, 1000, 3_600_000);
+        ReflectionTestUtils.invokeMethod(journal, "start");
+        return journal;
+    }
+
+    private AccountService service(BalanceJournal journal, boolean verifyCheckDigits) {
+        return new AccountService(accountRepository, accountExportRepository, clientService, balanceWriteCombiner,
+                journal, balanceBatchWriter, transferRefundService, accountNumberAllocator, accountDTOCache,
+                hotAccountService, singleShard(), meterRegistry, verifyCheckDigits);
+    }
+
+    private static Shards singleShard() {
+        return new Shards(new ShardTransactions(), List.of(), 1);
+    }
+
+    @Test
+    void testAccountChangeFeed() throws InterruptedException {
+        List<AccountChange> outbox = List.of(
+                new AccountChange(10, 1, accountService.mapToDTO(sampleAccounts.get(0))),
+                new AccountChange(10, 2, accountService.mapToDTO(sampleAccounts.get(1))),
+                new AccountChange(12, 3, accountService.mapToDTO(sampleAccounts.get(2))));
+        Mockito.when(accountChangeRepository.findAfter(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyInt()))
+                .thenAnswer(invocation -> {
+                    long txid = invocation.getArgument(0);
+                    long id = invocation.getArgument(1);
+                    int limit = invocation.getArgument(2);
+                    return outbox.stream()
+                            .filter(change -> change.txid() > txid || (change.txid() == txid && change.id() > id))
+                            .limit(limit)
+                            .toList();
+                });
+        // buffers two changes, polled by hand
+        AccountChangeFeed feed = new AccountChangeFeed(accountChangeRepository, singleShard(), true, 3_600_000, 2, 24, 1,
+                3);
+        String start = feed.currentOffset();
+
+        CountDownLatch woken = new CountDownLatch(1);
+        feed.whenChangedAfter(start, woken::countDown);
+        ReflectionTestUtils.invokeMethod(feed, "poll", 0);
+        assertTrue(woken.await(5, TimeUnit.SECONDS));
+
+        // a write blocked on a slow client holds up neither the only dispatch thread nor other writes
+        CountDownLatch clientReads = new CountDownLatch(1);
+        feed.write(() -> {
+            try {
+                clientReads.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CountDownLatch written = new CountDownLatch(2);
+        feed.whenChangedAfter(start, () -> feed.write(written::countDown));
+        feed.whenChangedAfter(start, () -> feed.write(written::countDown));
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        clientReads.countDown();
+
+        // no more streams than max-streams, and no more writer threads: a write beyond them is turned down
+        AccountChangeFeed bounded = new AccountChangeFeed(accountChangeRepository, singleShard(), true, 3_600_000, 2,
+                24, 1, 2);
+        assertTrue(bounded.openStream());
+        assertTrue(bounded.openStream());
+        assertFalse(bounded.openStream());
+        bounded.closeStream();
+        assertTrue(bounded.openStream());
+        CountDownLatch slowClients = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                slowClients.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        assertTrue(bounded.write(blocked));
+        assertTrue(bounded.write(blocked));
+        assertFalse(bounded.write(blocked));
+        slowClients.countDown();
+
+        // the first change has left the buffer, it is read from the outbox
+        AccountChangePageDTO first = feed.read(start, 2);
+        assertEquals(List.of(1L, 2L), changedAccountIds(first));
+        Mockito.verify(accountChangeRepository).findAfter(0L, 0L, 2);
+
+        assertEquals(List.of(3L), changedAccountIds(feed.read(first.getOffset(), 10)));
+        // every change resumes the feed right after itself
+        assertEquals(List.of(2L, 3L), changedAccountIds(feed.read(first.getChanges().get(0).getOffset(), 10)));
+        assertTrue(feed.read(feed.currentOffset(), 10).getChanges().isEmpty());
+        assertNull(feed.read("not an offset", 10));
+    }
+
+    private static List<Long> changedAccountIds(AccountChangePageDTO page) {
+        return page.getChanges().stream().map(change -> change.getAccount().getId()).toList();
     }
 }
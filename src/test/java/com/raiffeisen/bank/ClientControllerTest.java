@@ -10,6 +10,7 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
@@ -164,4 +165,25 @@ public class ClientControllerTest {
 
         }
 
+        @Test
+        void testConditionalGetClient() throws Exception {
+                ClientDTO client = ClientDTO.builder()
+                                .id(1L)
+                                .firstName(sampleClient.getFirstName())
+                                .lastName(sampleClient.getLastName())
+                                .email(sampleClient.getEmail())
+                                .build();
+                Mockito.when(clientService.getClientDTOById(1L)).thenReturn(client);
+
+                String eTag = mockMvc.perform(MockMvcRequestBuilders.get("/api/clients/{id}", 1L))
+                                .andExpect(MockMvcResultMatchers.status().isOk())
+                                .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.ETAG))
+                                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+                mockMvc.perform(MockMvcRequestBuilders.get("/api/clients/{id}", 1L)
+                                .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                                .andExpect(MockMvcResultMatchers.status().isNotModified())
+                                .andExpect(MockMvcResultMatchers.content().string(""));
+        }
+
 }
@@ -0,0 +1,237 @@
+package com.raiffeisen.bank;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.raiffeisen.bank.routing.ConsistencyToken;
+import com.raiffeisen.bank.routing.ConsistencyTokenAdvice;
+import com.raiffeisen.bank.routing.ConsistencyTokenInterceptor;
+import com.raiffeisen.bank.routing.ReplicaMonitor;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Consistency tokens and replica picking. The primary and the replicas are H2 databases whose
+ * pg_current_wal_lsn, pg_last_wal_replay_lsn and pg_last_xact_replay_timestamp answer what a test set for
+ * them in {@link #LSNS} and {@link #LAGS_MS}.
+ */
+public class ReplicaRoutingTest {
+
+    static final long MAX_LAG_MS = 1000;
+
+    // by database name
+    static final Map<String, String> LSNS = new ConcurrentHashMap<>();
+    static final Map<String, Long> LAGS_MS = new ConcurrentHashMap<>();
+
+    DataSource primary;
+    DataSource replicaA;
+    DataSource replicaB;
+    ReplicaMonitor replicaMonitor;
+
+    public static String lsn(Connection connection) throws SQLException {
+        return LSNS.get(connection.getCatalog());
+    }
+
+    public static Timestamp replayTimestamp(Connection connection) throws SQLException {
+        return new Timestamp(System.currentTimeMillis() - LAGS_MS.getOrDefault(connection.getCatalog(), 0L));
+    }
+
+    private static DataSource database(String name, String... functions) {
+        DataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        for (String function : functions) {
+            String method = function.endsWith("timestamp") ? "replayTimestamp" : "lsn";
+            jdbcTemplate.execute("CREATE ALIAS IF NOT EXISTS " + function + " FOR \""
+                    + ReplicaRoutingTest.class.getName() + "." + method + "\"");
+        }
+        return dataSource;
+    }
+
+    @BeforeEach
+    void setUp() {
+        LSNS.clear();
+        LAGS_MS.clear();
+        primary = database("PRIMARY", "pg_current_wal_lsn");
+        replicaA = database("REPLICA_A", "pg_last_wal_replay_lsn", "pg_last_xact_replay_timestamp");
+        replicaB = database("REPLICA_B", "pg_last_wal_replay_lsn", "pg_last_xact_replay_timestamp");
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("a", replicaA);
+        replicas.put("b", replicaB);
+        replicaMonitor = new ReplicaMonitor(primary, replicas, MAX_LAG_MS, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        ConsistencyToken.clear();
+    }
+
+    private void positions(String primaryLsn, String replicaALsn, long replicaALagMillis, String replicaBLsn,
+            long replicaBLagMillis) {
+        LSNS.put("PRIMARY", primaryLsn);
+        putLsn("REPLICA_A", replicaALsn);
+        putLsn("REPLICA_B", replicaBLsn);
+        LAGS_MS.put("REPLICA_A", replicaALagMillis);
+        LAGS_MS.put("REPLICA_B", replicaBLagMillis);
+        replicaMonitor.check();
+    }
+
+    private static void putLsn(String database, String lsn) {
+        if (lsn == null) {
+            LSNS.remove(database);
+        } else {
+            LSNS.put(database, lsn);
+        }
+    }
+
+    @Test
+    void testParseAndFormat() {
+        assertEquals(0L, ConsistencyToken.parse("0/0"));
+        assertEquals("0/0", ConsistencyToken.format(0));
+        assertEquals(0x16_B374D848L, ConsistencyToken.parse("16/B374D848"));
+        assertEquals(0x16_B374D848L, ConsistencyToken.parse("16/b374d848"));
+        assertEquals("16/B374D848", ConsistencyToken.format(0x16_B374D848L));
+
+        // the high word set, up to the sign bit of the long
+        assertEquals(0xFFFFFFFF_00000001L, ConsistencyToken.parse("FFFFFFFF/1"));
+        assertEquals("FFFFFFFF/1", ConsistencyToken.format(0xFFFFFFFF_00000001L));
+        assertEquals(-1L, ConsistencyToken.parse("FFFFFFFF/FFFFFFFF"));
+        assertEquals("FFFFFFFF/FFFFFFFF", ConsistencyToken.format(-1L));
+        assertEquals("80000000/0", ConsistencyToken.format(ConsistencyToken.parse("80000000/0")));
+
+        for (String malformed : new String[] { "", "/", "0", "0/", "/0", "0/0/0", "G/0", "0/x", "-1/0", "+1/0",
+                " 0/0", "100000000/0", "0/100000000", "\uFF11/0" }) {
+            assertThrows(IllegalArgumentException.class, () -> ConsistencyToken.parse(malformed), malformed);
+        }
+        assertThrows(IllegalArgumentException.class, () -> ConsistencyToken.parse(null));
+    }
+
+    @Test
+    void testInterceptor() {
+        ConsistencyTokenInterceptor interceptor = new ConsistencyTokenInterceptor();
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/accounts/1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(request, response, null));
+        assertNull(ConsistencyToken.required());
+
+        request.addHeader(ConsistencyToken.HEADER, "16/B374D848");
+        assertTrue(interceptor.preHandle(request, response, null));
+        assertEquals(0x16_B374D848L, ConsistencyToken.required());
+        interceptor.afterCompletion(request, response, null, null);
+        assertNull(ConsistencyToken.required());
+
+        MockHttpServletRequest malformed = new MockHttpServletRequest("GET", "/api/accounts/1");
+        malformed.addHeader(ConsistencyToken.HEADER, "16-B374D848");
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(malformed, rejected, null));
+        assertEquals(HttpStatus.BAD_REQUEST.value(), rejected.getStatus());
+        assertNull(ConsistencyToken.required());
+    }
+
+    @Test
+    void testPickRoundRobin() {
+        // nothing checked yet, every read goes to the primary
+        assertNull(replicaMonitor.pick(null));
+
+        positions("0/100", "0/100", 0, "0/100", 0);
+        DataSource first = replicaMonitor.pick(null);
+        DataSource second = first == replicaA ? replicaB : replicaA;
+        assertSame(second, replicaMonitor.pick(null));
+        assertSame(first, replicaMonitor.pick(null));
+        assertSame(second, replicaMonitor.pick(null));
+    }
+
+    @Test
+    void testPickSkipsLaggingReplicas() {
+        positions("0/100", "0/80", 60_000, "0/100", 0);
+        for (int i = 0; i < 4; i++) {
+            assertSame(replicaB, replicaMonitor.pick(null));
+        }
+
+        // caught up: the old replay timestamp of an idle primary is no lag
+        positions("0/100", "0/100", 60_000, "0/100", 60_000);
+        assertTrue(replicaMonitor.pick(null) != replicaMonitor.pick(null));
+
+        positions("0/200", "0/100", 60_000, "0/100", 60_000);
+        assertNull(replicaMonitor.pick(null));
+    }
+
+    @Test
+    void testPickRequiredLsn() {
+        positions("1/0", "0/FFFFFFFF", 0, "1/0", 0);
+        for (int i = 0; i < 4; i++) {
+            assertSame(replicaB, replicaMonitor.pick(ConsistencyToken.parse("1/0")));
+        }
+        assertTrue(replicaMonitor.pick(ConsistencyToken.parse("0/FFFFFFFF"))
+                != replicaMonitor.pick(ConsistencyToken.parse("0/FFFFFFFF")));
+        assertNull(replicaMonitor.pick(ConsistencyToken.parse("1/1")));
+    }
+
+    @Test
+    void testPickSkipsUnavailableReplicas() {
+        positions("0/100", "0/100", 0, "0/100", 0);
+
+        // pg_last_wal_replay_lsn() is null on a primary, the other replica is still checked
+        positions("0/100", null, 0, "0/100", 0);
+        for (int i = 0; i < 4; i++) {
+            assertSame(replicaB, replicaMonitor.pick(null));
+        }
+
+        positions("0/100", null, 0, null, 0);
+        assertNull(replicaMonitor.pick(null));
+
+        positions("0/100", "0/100", 0, "0/100", 0);
+        assertTrue(replicaMonitor.pick(null) != replicaMonitor.pick(null));
+    }
+
+    @Test
+    void testAdviceOnlyOnSuccessfulWrites() {
+        ReplicaMonitor monitor = Mockito.mock(ReplicaMonitor.class);
+        Mockito.when(monitor.currentPrimaryLsn()).thenReturn("16/B374D848");
+        ConsistencyTokenAdvice advice = new ConsistencyTokenAdvice(monitor);
+
+        assertEquals("16/B374D848", tokenAfter(advice, "POST", 201));
+        assertEquals("16/B374D848", tokenAfter(advice, "PATCH", 200));
+        assertNull(tokenAfter(advice, "GET", 200));
+        assertNull(tokenAfter(advice, "POST", 400));
+        assertNull(tokenAfter(advice, "PATCH", 409));
+        assertNull(tokenAfter(advice, "DELETE", 500));
+        Mockito.verify(monitor, Mockito.times(2)).currentPrimaryLsn();
+    }
+
+    private static String tokenAfter(ConsistencyTokenAdvice advice, String method, int status) {
+        MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+        servletResponse.setStatus(status);
+        ServletServerHttpResponse response = new ServletServerHttpResponse(servletResponse);
+        Object body = new Object();
+        assertSame(body, advice.beforeBodyWrite(body, null, null, null,
+                new ServletServerHttpRequest(new MockHttpServletRequest(method, "/api/accounts")), response));
+        return response.getHeaders().getFirst(ConsistencyToken.HEADER);
+    }
+}